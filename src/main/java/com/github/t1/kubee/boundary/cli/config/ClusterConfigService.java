@@ -2,9 +2,12 @@ package com.github.t1.kubee.boundary.cli.config;
 
 import com.github.t1.kubee.boundary.gateway.clusters.ClusterStore;
 import com.github.t1.kubee.boundary.gateway.container.ClusterStatusGateway;
+import com.github.t1.kubee.boundary.gateway.container.DockerStateCache;
+import com.github.t1.kubee.boundary.gateway.ingress.IngressFactory;
+import com.github.t1.kubee.control.ClusterConfigDiff;
 import com.github.t1.kubee.control.ClusterReconditioner;
+import com.github.t1.kubee.entity.Cluster;
 import com.github.t1.kubee.tools.SmartFormatter;
-import lombok.AllArgsConstructor;
 
 import java.io.IOException;
 import java.nio.file.FileSystems;
@@ -18,6 +21,7 @@ import java.util.List;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.logging.Level.SEVERE;
@@ -29,13 +33,13 @@ import static java.util.logging.Level.SEVERE;
  * <code>java -cp target/classes com.github.t1.kubee.gateway.ingress.ClusterConfigService --cluster-config=&lt;path&gt;</code><br>
  * where &lt;path&gt; is the path to the <code>cluster-config.yaml</code> file to watch.
  */
-@AllArgsConstructor
 public class ClusterConfigService {
     private static final String ONCE_ARG = "--once";
     private static final String VERBOSE_ARG = "--verbose";
     private static final String VERB_ARG = "-v";
     private static final String CLUSTER_CONFIG_ARG = "--cluster-config=";
     private static final String DOCKER_COMPOSE_CONFIG_ARG = "--docker-compose-dir=";
+    private static final String PARALLEL_ARG = "--parallel=";
 
     private static final int POLL_TIMEOUT = 100;
     static Logger log = Logger.getLogger(ClusterConfigService.class.getName());
@@ -48,6 +52,7 @@ public class ClusterConfigService {
         Path dockerComposeDir = null;
         boolean once = false;
         boolean debug = false;
+        int threads = 1;
         for (String arg : args) {
             if (arg.equals(ONCE_ARG))
                 once = true;
@@ -57,6 +62,8 @@ public class ClusterConfigService {
                 clusterConfigPath = Paths.get(arg.substring(CLUSTER_CONFIG_ARG.length()));
             else if (arg.startsWith(DOCKER_COMPOSE_CONFIG_ARG))
                 dockerComposeDir = Paths.get(arg.substring(DOCKER_COMPOSE_CONFIG_ARG.length()));
+            else if (arg.startsWith(PARALLEL_ARG))
+                threads = Integer.parseInt(arg.substring(PARALLEL_ARG.length()));
         }
 
         SmartFormatter.configure(debug);
@@ -65,10 +72,24 @@ public class ClusterConfigService {
             log.severe("Usage:\n" +
                 "    `" + ONCE_ARG + "`: to run only once and exit. Otherwise: loop until stopped.\n" +
                 "    `" + CLUSTER_CONFIG_ARG + "<path>`: with the <path> to the `cluster-config.yaml`\n" +
-                "    `" + DOCKER_COMPOSE_CONFIG_ARG + "<path>`: with the <path> to the directory containing the `docker-compose.yaml`\n");
+                "    `" + DOCKER_COMPOSE_CONFIG_ARG + "<path>`: with the <path> to the directory containing the `docker-compose.yaml`\n" +
+                "    `" + PARALLEL_ARG + "<threads>`: to recondition clusters and stages with <threads> at the same time. Default: 1\n");
             statusCode = 1;
+        } else if (once) {
+            try {
+                new ClusterConfigService(clusterConfigPath, dockerComposeDir, false, threads).loop();
+            } finally {
+                IngressFactory.shutdown();
+            }
         } else {
-            new ClusterConfigService(clusterConfigPath, dockerComposeDir, !once).loop();
+            DockerStateCache dockerState = new DockerStateCache();
+            dockerState.start();
+            try {
+                new ClusterConfigService(clusterConfigPath, dockerComposeDir, true, threads, dockerState).loop();
+            } finally {
+                dockerState.stop();
+                IngressFactory.shutdown();
+            }
         }
         exit.accept(statusCode);
     }
@@ -76,10 +97,34 @@ public class ClusterConfigService {
     private final Path clusterConfigPath;
     private final Path dockerComposeDir;
     private boolean continues;
+    private final int threads;
+    private final ClusterStore clusterStore;
+    /** Keeps the docker state between the reconditions; <code>null</code> to read it every time */
+    private final DockerStateCache dockerState;
+    /** The clusters of the last successful recondition; <code>null</code> before the first one */
+    private List<Cluster> previous;
+
+    ClusterConfigService(Path clusterConfigPath, Path dockerComposeDir, boolean continues) {
+        this(clusterConfigPath, dockerComposeDir, continues, 1);
+    }
+
+    ClusterConfigService(Path clusterConfigPath, Path dockerComposeDir, boolean continues, int threads) {
+        this(clusterConfigPath, dockerComposeDir, continues, threads, null);
+    }
+
+    ClusterConfigService(Path clusterConfigPath, Path dockerComposeDir, boolean continues, int threads, DockerStateCache dockerState) {
+        this.clusterConfigPath = clusterConfigPath;
+        this.dockerComposeDir = dockerComposeDir;
+        this.continues = continues;
+        this.threads = threads;
+        this.clusterStore = new ClusterStore(clusterConfigPath);
+        this.dockerState = dockerState;
+    }
 
     void loop() {
         try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
-            clusterConfigPath.getParent().register(watcher, ENTRY_MODIFY);
+            // ClusterStore replaces the file by renaming a temp file, which is a create, not a modify
+            clusterConfigPath.getParent().register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
             recondition(); // initial
             while (continues) {
                 WatchKey key = watcher.poll(POLL_TIMEOUT, MILLISECONDS);
@@ -87,17 +132,20 @@ public class ClusterConfigService {
                     @SuppressWarnings({"unchecked", "rawtypes"})
                     List<WatchEvent<Path>> events = (List<WatchEvent<Path>>) (List) key.pollEvents();
                     log.fine("got watch key with " + events.size() + " events");
+                    boolean changed = false;
                     for (WatchEvent<Path> event : events) {
                         if (event.kind().equals(StandardWatchEventKinds.OVERFLOW)) {
                             log.fine("yield " + event.kind() + " for " + event.context());
                             Thread.yield();
-                        } else if (ENTRY_MODIFY.equals(event.kind()) && event.context().equals(clusterConfigPath.getFileName())) {
+                        } else if (event.context().equals(clusterConfigPath.getFileName())) {
                             log.fine("handle " + event.kind() + " for " + event.context());
-                            recondition();
+                            changed = true;
                         } else {
                             log.fine("skip " + event.kind() + " for " + event.context());
                         }
                     }
+                    if (changed)
+                        recondition();
                     key.reset();
                     log.fine("watch for next change");
                 }
@@ -117,10 +165,19 @@ public class ClusterConfigService {
     private void recondition() {
         try {
             log.info("recondition from " + clusterConfigPath + " in " + dockerComposeDir);
-            ClusterStore clusterStore = new ClusterStore(clusterConfigPath);
-            ClusterStatusGateway clusterStatusGateway = new ClusterStatusGateway(dockerComposeDir);
-            ClusterReconditioner reconditioner = new ClusterReconditioner(clusterStore, null, clusterStatusGateway);
-            reconditioner.run();
+            ClusterStatusGateway clusterStatusGateway = new ClusterStatusGateway(dockerComposeDir, dockerState);
+            ClusterReconditioner reconditioner = new ClusterReconditioner(clusterStore, null, clusterStatusGateway, threads);
+            List<Cluster> clusters = clusterStore.getClusters();
+            if (previous == null) {
+                reconditioner.run();
+            } else {
+                ClusterConfigDiff diff = ClusterConfigDiff.between(previous, clusters);
+                if (diff.isEmpty())
+                    log.info("no relevant changes");
+                else
+                    reconditioner.recondition(diff);
+            }
+            previous = clusters; // only after success, so a failed change is retried next time
             log.info("reconditioning done");
         } catch (RuntimeException e) {
             log.warning("recondition failed " + ((e.getMessage() == null) ? e.getClass().getSimpleName() : e.getMessage()));
@@ -2,7 +2,9 @@
     com.github.t1.kubee.boundary.gateway.clusters.ClusterStore.class,
     com.github.t1.kubee.boundary.gateway.container.ClusterStatus.class,
     com.github.t1.kubee.boundary.gateway.deployer.DeployerGateway.class,
+    com.github.t1.kubee.boundary.gateway.ingress.IngressFactory.class,
     com.github.t1.kubee.control.ClusterReconditioner.class,
+    com.github.t1.kubee.entity.Cluster.class,
     com.github.t1.kubee.tools.SmartFormatter.class,
 })
 package com.github.t1.kubee.boundary.cli.config;
@@ -0,0 +1,11 @@
+package com.github.t1.kubee.boundary.config;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/** The {@link java.time.Duration} that the circuit breaker of a node stays open, before we try to call it again. */
+@Qualifier
+@Retention(RUNTIME)
+public @interface CircuitBreakerOpenDuration {}
@@ -0,0 +1,11 @@
+package com.github.t1.kubee.boundary.config;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/** The number of consecutive connection failures of a node, after which its circuit breaker opens, i.e. we stop calling it for a while. */
+@Qualifier
+@Retention(RUNTIME)
+public @interface CircuitBreakerThreshold {}
@@ -1,10 +1,18 @@
 package com.github.t1.kubee.boundary.config;
 
+import com.github.t1.kubee.tools.http.HttpClientConfig;
+import com.github.t1.kubee.tools.http.RetryPolicy;
+
 import javax.enterprise.inject.Produces;
 import javax.inject.Inject;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashSet;
 import java.util.Optional;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
 
 /**
  * Central producer for all configuration points.
@@ -25,6 +33,20 @@ class Config {
         return config.getOptionalValue(CONFIG_PROPERTY_PREFIX + name, String.class).map(value -> Paths.get(value));
     }
 
+    private Optional<Integer> asInt(String name) {
+        return config.getOptionalValue(CONFIG_PROPERTY_PREFIX + name, String.class).map(Integer::parseInt);
+    }
+
+    /** ISO-8601 durations, e.g. <code>PT5S</code> for five seconds */
+    private Optional<Duration> asDuration(String name) {
+        return config.getOptionalValue(CONFIG_PROPERTY_PREFIX + name, String.class).map(Duration::parse);
+    }
+
+    /** Comma separated values */
+    private Optional<Set<String>> asSet(String name) {
+        return config.getOptionalValue(CONFIG_PROPERTY_PREFIX + name, String.class).map(value -> new HashSet<>(asList(value.split(","))));
+    }
+
     @Produces @DockerComposeDir Path dockerComposeDir() { return asPath("dockerComposeDir").orElse(null); }
 
     @Produces @ClusterConfigPath Path clusterConfigPath() { return asPath("clusterConfigPath").orElseGet(this::clusterConfigPathFallback);}
@@ -35,4 +57,56 @@ class Config {
             dir = System.getProperty("user.dir");
         return Paths.get(dir, "cluster-config.yaml");
     }
+
+    @Produces @FanOutThreads int fanOutThreads() { return asInt("fanOutThreads").orElse(16); }
+
+    @Produces @FanOutDeadline Duration fanOutDeadline() { return asDuration("fanOutDeadline").orElse(Duration.ofSeconds(5)); }
+
+    @Produces @DeployerCacheTtl Duration deployerCacheTtl() { return asDuration("deployerCacheTtl").orElse(Duration.ofSeconds(10)); }
+
+    @Produces @DeployerCacheSize int deployerCacheSize() { return asInt("deployerCacheSize").orElse(1000); }
+
+    @Produces @ReconditionThreads int reconditionThreads() { return asInt("reconditionThreads").orElse(1); }
+
+    @Produces @VersionCatalogTtl Duration versionCatalogTtl() { return asDuration("versionCatalogTtl").orElse(Duration.ofMinutes(1)); }
+
+    @Produces @VersionCatalogSize int versionCatalogSize() { return asInt("versionCatalogSize").orElse(1000); }
+
+    @Produces @CircuitBreakerThreshold int circuitBreakerThreshold() { return asInt("circuitBreakerThreshold").orElse(3); }
+
+    @Produces @CircuitBreakerOpenDuration Duration circuitBreakerOpenDuration() { return asDuration("circuitBreakerOpenDuration").orElse(Duration.ofSeconds(30)); }
+
+    @Produces @NegativeDnsTtl Duration negativeDnsTtl() { return asDuration("negativeDnsTtl").orElse(Duration.ofMinutes(1)); }
+
+    @Produces @JobHistorySize int jobHistorySize() { return asInt("jobHistorySize").orElse(100); }
+
+    @Produces @ReadinessTimeout Duration readinessTimeout() { return asDuration("readinessTimeout").orElse(Duration.ofMinutes(2)); }
+
+    @Produces @HealthMonitorInterval Duration healthMonitorInterval() { return asDuration("healthMonitorInterval").orElse(Duration.ofSeconds(10)); }
+
+    @Produces @HealthMonitorSlowLatency Duration healthMonitorSlowLatency() { return asDuration("healthMonitorSlowLatency").orElse(Duration.ofSeconds(1)); }
+
+    @Produces HttpClientConfig httpClientConfig() {
+        HttpClientConfig.HttpClientConfigBuilder builder = HttpClientConfig.builder();
+        asDuration("httpConnectTimeout").ifPresent(builder::connectTimeout);
+        asDuration("httpReadTimeout").ifPresent(builder::readTimeout);
+        asInt("httpMaxConnections").ifPresent(builder::maxConnections);
+        asInt("httpMaxConnectionsPerHost").ifPresent(builder::maxConnectionsPerHost);
+        asDuration("httpConnectionTimeToLive").ifPresent(builder::connectionTimeToLive);
+        asInt("httpMaxBodySize").ifPresent(builder::maxBodySize);
+        asInt("httpMaxValidatedResponses").ifPresent(builder::maxValidatedResponses);
+        return builder.build();
+    }
+
+    @Produces RetryPolicy retryPolicy() {
+        RetryPolicy.RetryPolicyBuilder builder = RetryPolicy.builder();
+        asInt("retryMaxAttempts").ifPresent(builder::maxAttempts);
+        asDuration("retryBaseDelay").ifPresent(builder::baseDelay);
+        asDuration("retryMaxDelay").ifPresent(builder::maxDelay);
+        asInt("retryBudgetPerHost").ifPresent(builder::budgetPerHost);
+        asInt("retryBudget").ifPresent(builder::budget);
+        asDuration("retryBudgetWindow").ifPresent(builder::budgetWindow);
+        asSet("retryOn").ifPresent(builder::retryOn);
+        return builder.build();
+    }
 }
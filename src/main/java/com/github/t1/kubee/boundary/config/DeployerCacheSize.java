@@ -0,0 +1,11 @@
+package com.github.t1.kubee.boundary.config;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/** The maximum number of deployer inventories to cache; the least recently used are evicted first. */
+@Qualifier
+@Retention(RUNTIME)
+public @interface DeployerCacheSize {}
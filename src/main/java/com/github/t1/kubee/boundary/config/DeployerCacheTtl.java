@@ -0,0 +1,14 @@
+package com.github.t1.kubee.boundary.config;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * The {@link java.time.Duration} that the inventory of a deployer, i.e. the list of its deployables, is cached.
+ * Deploying or undeploying on a node invalidates the cached inventory immediately.
+ */
+@Qualifier
+@Retention(RUNTIME)
+public @interface DeployerCacheTtl {}
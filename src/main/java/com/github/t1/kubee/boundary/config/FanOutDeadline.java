@@ -0,0 +1,14 @@
+package com.github.t1.kubee.boundary.config;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * The {@link java.time.Duration} to wait for each single cluster node to answer, when calling all nodes at the same time.
+ * Nodes that don't answer in time are reported as an error.
+ */
+@Qualifier
+@Retention(RUNTIME)
+public @interface FanOutDeadline {}
@@ -0,0 +1,14 @@
+package com.github.t1.kubee.boundary.config;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * The maximum number of threads used to call all cluster nodes at the same time,
+ * e.g. when fetching the deployments from all deployers.
+ */
+@Qualifier
+@Retention(RUNTIME)
+public @interface FanOutThreads {}
@@ -0,0 +1,14 @@
+package com.github.t1.kubee.boundary.config;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * The {@link java.time.Duration} between two rounds of health probes of all nodes in the load balancers.
+ * Zero disables the health monitor.
+ */
+@Qualifier
+@Retention(RUNTIME)
+public @interface HealthMonitorInterval {}
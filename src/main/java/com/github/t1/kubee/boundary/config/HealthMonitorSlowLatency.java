@@ -0,0 +1,14 @@
+package com.github.t1.kubee.boundary.config;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * The {@link java.time.Duration} a health probe may take at most; a node that is persistently slower
+ * gets taken out of the load balancer like a node that fails.
+ */
+@Qualifier
+@Retention(RUNTIME)
+public @interface HealthMonitorSlowLatency {}
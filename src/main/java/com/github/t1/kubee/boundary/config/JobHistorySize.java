@@ -0,0 +1,11 @@
+package com.github.t1.kubee.boundary.config;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/** The number of finished jobs that we keep, so their result can still be fetched; older ones are dropped. */
+@Qualifier
+@Retention(RUNTIME)
+public @interface JobHistorySize {}
@@ -0,0 +1,11 @@
+package com.github.t1.kubee.boundary.config;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/** The {@link java.time.Duration} that we remember that the host name of a node can't be resolved. */
+@Qualifier
+@Retention(RUNTIME)
+public @interface NegativeDnsTtl {}
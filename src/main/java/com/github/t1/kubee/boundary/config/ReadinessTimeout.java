@@ -0,0 +1,14 @@
+package com.github.t1.kubee.boundary.config;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * The {@link java.time.Duration} that we wait for an application to become healthy after it has been deployed,
+ * before we consider it broken.
+ */
+@Qualifier
+@Retention(RUNTIME)
+public @interface ReadinessTimeout {}
@@ -0,0 +1,14 @@
+package com.github.t1.kubee.boundary.config;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * The number of threads used to recondition clusters and their stages at the same time.
+ * <code>1</code> reconditions one stage after the other.
+ */
+@Qualifier
+@Retention(RUNTIME)
+public @interface ReconditionThreads {}
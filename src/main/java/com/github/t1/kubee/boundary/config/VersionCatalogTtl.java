@@ -0,0 +1,14 @@
+package com.github.t1.kubee.boundary.config;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * The {@link java.time.Duration} after which the versions of an artifact in the repository are refreshed.
+ * Until the refresh is done, the stale versions are still served.
+ */
+@Qualifier
+@Retention(RUNTIME)
+public @interface VersionCatalogTtl {}
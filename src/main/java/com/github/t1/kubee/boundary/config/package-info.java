@@ -1,5 +1,6 @@
 @DependsUpon(packagesOf = {
-    org.eclipse.microprofile.config.Config.class
+    com.github.t1.kubee.tools.http.HttpClientConfig.class,
+    org.eclipse.microprofile.config.Config.class,
 })
 package com.github.t1.kubee.boundary.config;
 
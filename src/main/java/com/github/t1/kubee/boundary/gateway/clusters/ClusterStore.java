@@ -3,47 +3,112 @@ package com.github.t1.kubee.boundary.gateway.clusters;
 import com.github.t1.kubee.boundary.config.ClusterConfigPath;
 import com.github.t1.kubee.entity.Cluster;
 import com.github.t1.kubee.entity.ClusterNode;
+import com.github.t1.kubee.tools.files.AtomicFiles;
 import com.github.t1.kubee.tools.yaml.YamlDocument;
 import com.github.t1.kubee.tools.yaml.YamlMapping;
-import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
 
-import javax.enterprise.context.RequestScoped;
+import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.AccessDeniedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static com.github.t1.kubee.entity.Cluster.readAllFrom;
 import static com.github.t1.kubee.entity.DeploymentStatus.unbalanced;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.unmodifiableList;
 
-@RequestScoped
+/**
+ * Keeps an immutable snapshot of the parsed cluster config file. The file is only read and parsed again,
+ * when its modification time, size, or identity changes, and only re-parsed if the content hash differs, too.
+ * Our own writes publish the new snapshot immediately.
+ */
+@Slf4j
+@ApplicationScoped
 @NoArgsConstructor
-@AllArgsConstructor
 public class ClusterStore {
     @Inject @ClusterConfigPath Path clusterConfigPath;
 
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+    public ClusterStore(Path clusterConfigPath) { this.clusterConfigPath = clusterConfigPath; }
+
+    @Value private static class Snapshot {
+        FileStamp stamp;
+        byte[] hash;
+        List<Cluster> clusters;
+    }
+
+    @Value private static class FileStamp {
+        FileTime lastModified;
+        long size;
+        Object fileKey;
+    }
+
     public Stream<Cluster> clusters() { return getClusters().stream(); }
 
     public List<Cluster> getClusters() {
-        return readAllFrom(readDocument(), System.err::println);
+        Snapshot current = snapshot.get();
+        FileStamp stamp = stamp();
+        if (current != null && current.getStamp().equals(stamp))
+            return current.getClusters();
+        byte[] bytes = readBytes();
+        byte[] hash = hash(bytes);
+        if (current != null && Arrays.equals(current.getHash(), hash)) {
+            snapshot.compareAndSet(current, new Snapshot(stamp, hash, current.getClusters()));
+            return current.getClusters();
+        }
+        log.debug("parse cluster config {}", clusterConfigPath);
+        Snapshot next = new Snapshot(stamp, hash, parse(new String(bytes, UTF_8)));
+        snapshot.compareAndSet(current, next);
+        return next.getClusters();
+    }
+
+    private FileStamp stamp() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(clusterConfigPath, BasicFileAttributes.class);
+            return new FileStamp(attributes.lastModifiedTime(), attributes.size(), attributes.fileKey());
+        } catch (IOException e) {
+            throw new RuntimeException("can't read cluster config file: " + clusterConfigPath, e);
+        }
     }
 
-    private YamlDocument readDocument() {
-        try (InputStream stream = Files.newInputStream(clusterConfigPath)) {
-            return YamlDocument.from(new InputStreamReader(stream));
+    private byte[] readBytes() {
+        try {
+            return Files.readAllBytes(clusterConfigPath);
         } catch (IOException e) {
             throw new RuntimeException("can't read cluster config file: " + clusterConfigPath, e);
         }
     }
 
+    private static byte[] hash(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<Cluster> parse(String yaml) {
+        return unmodifiableList(readAllFrom(YamlDocument.from(new StringReader(yaml)), System.err::println));
+    }
+
+    private YamlDocument readDocument() { return YamlDocument.from(new StringReader(new String(readBytes(), UTF_8))); }
+
     public void unbalance(ClusterNode node, String deploymentName) {
         updateStage(node, stage -> {
             YamlMapping status = stage.getOrCreateMapping("status");
@@ -64,7 +129,7 @@ public class ClusterStore {
         });
     }
 
-    private void updateStage(ClusterNode node, Consumer<YamlMapping> consumer) {
+    private synchronized void updateStage(ClusterNode node, Consumer<YamlMapping> consumer) {
         YamlDocument document = readDocument();
         YamlMapping yamlNode = document.asMapping().getMapping(node.getCluster().id());
         YamlMapping stage = yamlNode.getMapping(node.getStage().getName());
@@ -72,12 +137,21 @@ public class ClusterStore {
         writeDocument(document);
     }
 
+    /**
+     * Write to a temp file in the same directory and rename it, so a reader never sees a half written config.
+     * Renaming would replace a read-only file, too, so we check that it's writable first.
+     */
     private void writeDocument(YamlDocument document) {
-        try (OutputStream stream = Files.newOutputStream(clusterConfigPath)) {
-            stream.write(document.toString().getBytes(UTF_8));
+        String yaml = document.toString();
+        byte[] bytes = yaml.getBytes(UTF_8);
+        try {
+            if (!Files.isWritable(clusterConfigPath))
+                throw new AccessDeniedException(clusterConfigPath.toString(), null, "not writable");
+            AtomicFiles.write(clusterConfigPath, bytes);
         } catch (IOException e) {
             throw new RuntimeException("can't write cluster config file: " + clusterConfigPath, e);
         }
+        snapshot.set(new Snapshot(stamp(), hash(bytes), parse(yaml)));
     }
 
     private String key(ClusterNode node, String deploymentName) {
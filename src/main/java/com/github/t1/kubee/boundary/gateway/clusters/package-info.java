@@ -1,5 +1,6 @@
 @DependsUpon(packagesOf = {
     com.github.t1.kubee.entity.Cluster.class,
+    com.github.t1.kubee.tools.files.AtomicFiles.class,
     com.github.t1.kubee.tools.yaml.YamlDocument.class,
 })
 package com.github.t1.kubee.boundary.gateway.clusters;
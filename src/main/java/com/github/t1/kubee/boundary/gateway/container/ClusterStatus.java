@@ -25,9 +25,17 @@ public class ClusterStatus {
     ClusterStatus(
         @NonNull Cluster cluster,
         @NonNull Path dockerComposeDir
+    ) {
+        this(cluster, dockerComposeDir, null);
+    }
+
+    ClusterStatus(
+        @NonNull Cluster cluster,
+        @NonNull Path dockerComposeDir,
+        DockerStateCache dockerState
     ) {
         this.cluster = cluster;
-        this.dockerCommands = new DockerCommands(dockerComposeDir);
+        this.dockerCommands = new DockerCommands(dockerComposeDir, dockerState);
     }
 
     @Override public String toString() { return "cluster [" + cluster.getHost() + "]"; }
@@ -12,10 +12,13 @@ import java.nio.file.Path;
 @AllArgsConstructor
 public class ClusterStatusGateway {
     @Inject @DockerComposeDir private Path dockerComposeDir;
+    @Inject private DockerStateCache dockerState;
+
+    public ClusterStatusGateway(Path dockerComposeDir) { this(dockerComposeDir, null); }
 
     public ClusterStatus clusterStatus(Cluster cluster) {
         if (dockerComposeDir == null)
             throw new RuntimeException("no docker compose dir configured");
-        return new ClusterStatus(cluster, dockerComposeDir);
+        return new ClusterStatus(cluster, dockerComposeDir, dockerState);
     }
 }
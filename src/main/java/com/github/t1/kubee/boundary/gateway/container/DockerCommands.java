@@ -2,7 +2,6 @@ package com.github.t1.kubee.boundary.gateway.container;
 
 import com.github.t1.kubee.tools.cli.Script;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.java.Log;
 
 import java.nio.file.Path;
@@ -21,18 +20,28 @@ import static java.util.stream.Collectors.mapping;
 import static java.util.stream.Collectors.toList;
 
 @Log
-@RequiredArgsConstructor
 class DockerCommands {
     private final @NonNull Path dockerComposeDir;
+    /** may be <code>null</code> */
+    private final DockerStateCache state;
     private Map<String, List<Integer>> cache;
 
+    DockerCommands(@NonNull Path dockerComposeDir) { this(dockerComposeDir, null); }
+
+    DockerCommands(@NonNull Path dockerComposeDir, DockerStateCache state) {
+        this.dockerComposeDir = dockerComposeDir;
+        this.state = state;
+    }
+
     Map<String, List<Integer>> getDockerPorts() {
+        if (state != null && state.isWatching())
+            return state.ports();
         if (cache == null)
-            cache = read();
+            cache = readDockerPorts();
         return cache;
     }
 
-    private Map<String, List<Integer>> read() {
+    static Map<String, List<Integer>> readDockerPorts() {
         log.info("read endpoints");
         String output = new Script("docker ps --all --format {{.Names}}\t{{.Ports}}").run();
         if (output.isEmpty())
@@ -42,7 +51,7 @@ class DockerCommands {
             + "0\\.0\\.0\\.0:(?<exposedPort>\\d+)->(?<servicePort>\\d+)/tcp");
         return Stream.of(output.split("\n"))
             .map(pattern::matcher)
-            .map(this::matches)
+            .map(DockerCommands::matches)
             .sorted(SERVICE_NAME_AND_NODE_NUMBER)
             .collect(groupingBy(
                 matcher -> matcher.group("serviceName"),
@@ -50,7 +59,7 @@ class DockerCommands {
                     toList())));
     }
 
-    private Matcher matches(Matcher matcher) {
+    private static Matcher matches(Matcher matcher) {
         if (!matcher.matches()) {
             StringBuffer buffer = new StringBuffer("can't parse docker info from `");
             matcher.appendTail(buffer);
@@ -68,6 +77,8 @@ class DockerCommands {
             .in(dockerComposeDir)
             .run();
         cache = null;
+        if (state != null)
+            state.invalidate();
     }
 
     /**
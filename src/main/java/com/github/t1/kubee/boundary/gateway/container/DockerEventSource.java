@@ -0,0 +1,26 @@
+package com.github.t1.kubee.boundary.gateway.container;
+
+import lombok.Value;
+
+import java.util.function.Consumer;
+
+/**
+ * A stream of container events, i.e. <code>docker events</code>, that keeps the {@link DockerStateCache} up to date.
+ */
+public interface DockerEventSource {
+    /**
+     * Start passing events to the <code>listener</code>; call <code>closed</code> when the stream ends for any reason.
+     * Throws an exception, if the stream can't be started at all.
+     */
+    void start(Consumer<DockerEvent> listener, Runnable closed);
+
+    void stop();
+
+    @Value class DockerEvent {
+        /** e.g. <code>start</code>, <code>die</code>, or <code>exec_start: sh</code> */
+        String action;
+        String containerName;
+
+        @Override public String toString() { return action + " " + containerName; }
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.t1.kubee.boundary.gateway.container;
+
+import lombok.extern.java.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+
+/** The real {@link DockerEventSource}: a long running <code>docker events</code> process read by a daemon thread */
+@Log
+public class DockerEventStream implements DockerEventSource {
+    private Process process;
+
+    @Override public synchronized void start(Consumer<DockerEvent> listener, Runnable closed) {
+        if (process != null)
+            throw new IllegalStateException("docker event stream already started");
+        try {
+            process = new ProcessBuilder(asList("docker", "events",
+                "--filter", "type=container",
+                "--format", "{{.Action}}\t{{.Actor.Attributes.name}}"))
+                .redirectErrorStream(true)
+                .start();
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't start docker events", e);
+        }
+        Process started = process;
+        Thread thread = new Thread(() -> read(started, listener, closed), "docker-events");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void read(Process process, Consumer<DockerEvent> listener, Runnable closed) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] split = line.split("\t", 2);
+                if (split.length == 2)
+                    listener.accept(new DockerEvent(split[0], split[1]));
+                else
+                    log.fine("skip unexpected docker event `" + line + "`");
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warning("docker events failed: " + e);
+        } finally {
+            log.info("docker events stopped");
+            forget(process);
+            closed.run();
+        }
+    }
+
+    /** So it can be started again */
+    private synchronized void forget(Process process) {
+        if (this.process == process)
+            this.process = null;
+    }
+
+    @Override public synchronized void stop() {
+        if (process != null)
+            process.destroy();
+        process = null;
+    }
+}
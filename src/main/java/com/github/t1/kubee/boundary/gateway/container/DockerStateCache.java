@@ -0,0 +1,132 @@
+package com.github.t1.kubee.boundary.gateway.container;
+
+import com.github.t1.kubee.boundary.gateway.container.DockerEventSource.DockerEvent;
+import lombok.extern.java.Log;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * The exposed ports of the docker containers by service name, shared by all {@link ClusterStatus} instances.
+ * It's read with one <code>docker ps</code> and then kept as long as the {@link DockerEventSource}
+ * reports no relevant container events. A burst of events results in only one <code>docker ps</code>,
+ * when the ports are needed next. If the event stream stops, we can't know when the ports change,
+ * so every {@link ClusterStatus} reads them again, as if there was no cache, until we could restart the stream.
+ * The delay between restarts doubles up to a minute, so a docker daemon that is down isn't asked over and over.
+ */
+@Log
+@ApplicationScoped
+public class DockerStateCache {
+    /** The events that can change the containers or their ports */
+    private static final Set<String> RELEVANT_ACTIONS = new HashSet<>(asList(
+        "create", "start", "restart", "stop", "die", "kill", "pause", "unpause", "rename", "destroy"));
+    private static final Duration MIN_RESTART_DELAY = Duration.ofSeconds(1);
+    private static final Duration MAX_RESTART_DELAY = Duration.ofMinutes(1);
+
+    private final DockerEventSource events;
+    private final ScheduledExecutorService restarter;
+    private final AtomicLong changes = new AtomicLong();
+    private volatile long readAt;
+    private volatile Map<String, List<Integer>> ports;
+    private volatile boolean watching;
+    private boolean stopped;
+    private Duration restartDelay = MIN_RESTART_DELAY;
+    private long watchingSince;
+
+    public DockerStateCache() {
+        this(new DockerEventStream(), Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "docker-events-restart");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public DockerStateCache(DockerEventSource events, ScheduledExecutorService restarter) {
+        this.events = events;
+        this.restarter = restarter;
+    }
+
+    @PostConstruct public synchronized void start() {
+        stopped = false;
+        watch();
+    }
+
+    @PreDestroy public void stop() {
+        synchronized (this) {
+            stopped = true; // so a closing stream doesn't schedule a restart on the shut down restarter
+        }
+        watching = false;
+        events.stop();
+        restarter.shutdownNow();
+    }
+
+    private synchronized void watch() {
+        if (stopped)
+            return;
+        try {
+            events.start(this::event, this::closed);
+            watchingSince = System.nanoTime();
+            watching = true;
+            changes.incrementAndGet(); // we may have missed events while we didn't watch
+        } catch (RuntimeException e) {
+            log.warning("can't watch docker events; read the docker state every time: " + e.getMessage());
+            scheduleRestart();
+        }
+    }
+
+    /** Only if the events are watched, the {@link #ports()} are up to date */
+    public boolean isWatching() { return watching; }
+
+    private void event(DockerEvent event) {
+        if (RELEVANT_ACTIONS.contains(event.getAction())) {
+            log.fine("docker event: " + event);
+            changes.incrementAndGet();
+        }
+    }
+
+    private synchronized void closed() {
+        watching = false;
+        changes.incrementAndGet();
+        if (stopped)
+            return;
+        if (System.nanoTime() - watchingSince >= MAX_RESTART_DELAY.toNanos())
+            restartDelay = MIN_RESTART_DELAY; // it ran for a while, so it's not failing over and over
+        scheduleRestart();
+    }
+
+    private void scheduleRestart() {
+        log.info("restart watching docker events in " + restartDelay.toMillis() + " ms");
+        restarter.schedule(this::watch, restartDelay.toMillis(), MILLISECONDS);
+        Duration doubled = restartDelay.multipliedBy(2);
+        restartDelay = (doubled.compareTo(MAX_RESTART_DELAY) > 0) ? MAX_RESTART_DELAY : doubled;
+    }
+
+    /** Forget the ports, e.g. when we scaled ourselves and don't want to wait for the events */
+    void invalidate() { changes.incrementAndGet(); }
+
+    Map<String, List<Integer>> ports() {
+        if (ports == null || readAt != changes.get())
+            refresh();
+        return ports;
+    }
+
+    private synchronized void refresh() {
+        long current = changes.get();
+        if (ports != null && readAt == current)
+            return; // another thread was faster
+        ports = DockerCommands.readDockerPorts();
+        readAt = current; // events arriving while reading make the next call read again
+    }
+}
@@ -3,18 +3,20 @@ package com.github.t1.kubee.boundary.gateway.deployer;
 import com.github.t1.kubee.entity.Audits;
 import com.github.t1.kubee.entity.ClusterNode;
 import com.github.t1.kubee.entity.Deployment;
+import com.github.t1.kubee.tools.http.Retrier;
 import com.github.t1.kubee.tools.http.YamlHttpClient;
 import com.github.t1.log.Logged;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.inject.Inject;
-import javax.ws.rs.ProcessingException;
 import javax.ws.rs.core.Form;
 import javax.ws.rs.core.UriBuilder;
 import java.net.URI;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.stream.Stream;
 
 import static com.github.t1.log.LogLevel.INFO;
@@ -24,9 +26,9 @@ import static java.util.stream.Collectors.toList;
 @Slf4j
 @RequiredArgsConstructor(onConstructor_ = {@Inject})
 public class DeployerGateway {
-    private static final int MAX_RETRIES = 10;
-
     private final YamlHttpClient client;
+    private final DeployerInventoryCache cache;
+    private final Retrier retrier;
 
     public String fetchVersion(ClusterNode node, String deployableName) {
         return fetchDeploymentsFrom(node.deployerUri())
@@ -37,40 +39,67 @@ public class DeployerGateway {
             .orElse(null);
     }
 
+    @SuppressWarnings("unchecked")
     public List<String> fetchVersions(ClusterNode node, String groupId, String artifactId) {
-        URI uri = UriBuilder.fromUri(node.deployerUri())
+        URI uri = versionsUri(node, groupId, artifactId);
+        log.debug("GET versions from {}", uri);
+        return (List<String>) client.GET(uri, List.class);
+    }
+
+    private URI versionsUri(ClusterNode node, String groupId, String artifactId) {
+        return UriBuilder.fromUri(node.deployerUri())
             .path("/repository/versions")
             .queryParam("artifactId", artifactId)
             .queryParam("groupId", groupId)
             .build();
-        log.debug("GET versions from {}", uri);
-        //noinspection unchecked
-        return (List<String>) client.GET(uri, List.class);
     }
 
     public Stream<Deployment> fetchDeployables(ClusterNode node) {
         return fetchDeploymentsFrom(node.deployerUri())
             .stream()
-            .map(deployable ->
-                Deployment.builder()
-                    .node(node)
-                    .name(deployable.getName())
-                    .groupId(orUnknown(deployable.getGroupId()))
-                    .artifactId(orUnknown(deployable.getArtifactId()))
-                    .version(orUnknown(deployable.getVersion()))
-                    .type(orUnknown(deployable.getType()))
-                    .error(deployable.getError())
-                    .build());
+            .map(deployable -> toDeployment(node, deployable));
+    }
+
+    public CompletionStage<List<Deployment>> fetchDeployablesAsync(ClusterNode node) {
+        return fetchDeploymentsFromAsync(node.deployerUri())
+            .thenApply(deployables -> deployables.stream()
+                .map(deployable -> toDeployment(node, deployable))
+                .collect(toList()));
+    }
+
+    private Deployment toDeployment(ClusterNode node, Deployable deployable) {
+        return Deployment.builder()
+            .node(node)
+            .name(deployable.getName())
+            .groupId(orUnknown(deployable.getGroupId()))
+            .artifactId(orUnknown(deployable.getArtifactId()))
+            .version(orUnknown(deployable.getVersion()))
+            .type(orUnknown(deployable.getType()))
+            .error(deployable.getError())
+            .build();
     }
 
     private String orUnknown(String value) { return (value == null || value.isEmpty()) ? "unknown" : value; }
 
     List<Deployable> fetchDeploymentsFrom(URI uri) {
-        log.debug("GET deployments from {}", uri);
-        DeployerResponse deployerResponse = client.GET(uri, DeployerResponse.class);
+        DeployerResponse deployerResponse = cache.get(uri, this::load);
         return toDeployableList(deployerResponse);
     }
 
+    private CompletionStage<List<Deployable>> fetchDeploymentsFromAsync(URI uri) {
+        return cache.getAsync(uri, this::loadAsync).thenApply(this::toDeployableList);
+    }
+
+    private DeployerResponse load(URI uri) {
+        log.debug("GET deployments from {}", uri);
+        return client.GET(uri, DeployerResponse.class);
+    }
+
+    private CompletionStage<DeployerResponse> loadAsync(URI uri) {
+        log.debug("GET deployments async from {}", uri);
+        return client.GETAsync(uri, DeployerResponse.class);
+    }
+
     private List<Deployable> toDeployableList(DeployerResponse deployerResponse) {
         return deployerResponse
             .getDeployables()
@@ -96,27 +125,39 @@ public class DeployerGateway {
         return postDeployer(node, deploymentName, "state", "undeployed");
     }
 
+    public CompletionStage<Audits> deployAsync(ClusterNode node, String deploymentName, String version) {
+        return postDeployerAsync(node, deploymentName, "version", version);
+    }
+
+    /**
+     * Blocks until the POST succeeded or finally failed. The attempts are the non-blocking ones, so the waiting
+     * for the response and the retry delays don't occupy the scheduler of the {@link Retrier}.
+     */
     private Audits postDeployer(ClusterNode node, String deploymentName, String key, String value) {
+        try {
+            return postDeployerAsync(node, deploymentName, key, value).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private CompletionStage<Audits> postDeployerAsync(ClusterNode node, String deploymentName, String key, String value) {
         URI uri = node.deployerUri();
         String parameterName = deploymentName + "." + key;
-        log.debug("POST {}={} to {}", parameterName, value, uri);
-        for (int i = 0; i < MAX_RETRIES; i++) {
+        log.debug("POST async {}={} to {}", parameterName, value, uri);
+        Form form = new Form(parameterName, value);
+        return retrier.retry(uri.getAuthority(), () -> {
+            CompletionStage<Audits> post;
             try {
-                return client.POST(uri, new Form(parameterName, value), Audits::parseYaml);
-            } catch (ProcessingException e) {
-                if (e.getCause().getClass().getName().equals("org.apache.http.NoHttpResponseException")
-                    && e.getCause().getMessage().endsWith(" failed to respond")) {
-                    log.warn(e.getCause().getMessage() + ". retry " + (i + 1) + " of " + (MAX_RETRIES - 1));
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException ex) {
-                        throw new RuntimeException(ex);
-                    }
-                } else {
-                    throw e;
-                }
+                post = client.POSTAsync(uri, form, Audits::parseYaml);
+            } catch (RuntimeException e) {
+                cache.invalidate(uri);
+                throw e;
             }
-        }
-        throw new RuntimeException("failed " + MAX_RETRIES + " times");
+            // the deployer may have changed, even when the POST failed
+            return post.whenComplete((audits, e) -> cache.invalidate(uri));
+        });
     }
 }
@@ -0,0 +1,131 @@
+package com.github.t1.kubee.boundary.gateway.deployer;
+
+import com.github.t1.kubee.boundary.config.DeployerCacheSize;
+import com.github.t1.kubee.boundary.config.DeployerCacheTtl;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.net.URI;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * Caches the inventory of every deployer, i.e. the {@link DeployerResponse}, for a time-to-live,
+ * so e.g. fetching the versions of all applications on a node costs only one GET.
+ * Concurrent callers for the same deployer share one single load in flight.
+ * Every caller gets its own copy of the response, so it can't change what the others see.
+ */
+@Slf4j
+@ApplicationScoped
+@NoArgsConstructor
+public class DeployerInventoryCache {
+    @Inject @DeployerCacheTtl Duration ttl;
+    @Inject @DeployerCacheSize int maxSize;
+
+    private final Map<URI, Entry> entries = new LinkedHashMap<URI, Entry>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<URI, Entry> eldest) { return size() > maxSize; }
+    };
+
+    public DeployerInventoryCache(Duration ttl, int maxSize) {
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+    }
+
+    private static class Entry {
+        private final CompletableFuture<DeployerResponse> future = new CompletableFuture<>();
+        /** Stamped when the load completes, so a slow load doesn't eat up the time-to-live */
+        private volatile long loadedAt;
+
+        void loaded(DeployerResponse response) {
+            loadedAt = System.nanoTime();
+            future.complete(response);
+        }
+
+        boolean isExpired(Duration ttl) { return future.isDone() && System.nanoTime() - loadedAt >= ttl.toNanos(); }
+    }
+
+    DeployerResponse get(URI uri, Function<URI, DeployerResponse> loader) {
+        return join(getAsync(uri, u -> completedFuture(loader.apply(u))));
+    }
+
+    CompletableFuture<DeployerResponse> getAsync(URI uri, Function<URI, CompletionStage<DeployerResponse>> loader) {
+        Entry entry;
+        boolean loading = false;
+        synchronized (entries) {
+            entry = entries.get(uri);
+            if (entry == null || entry.isExpired(ttl)) {
+                entry = new Entry();
+                entries.put(uri, entry);
+                loading = true;
+            }
+        }
+        if (loading)
+            load(uri, entry, loader);
+        else
+            log.debug("use cached inventory of {}", uri);
+        return entry.future.thenApply(DeployerInventoryCache::copy); // so callers can't complete the shared future, either
+    }
+
+    private void load(URI uri, Entry entry, Function<URI, CompletionStage<DeployerResponse>> loader) {
+        CompletionStage<DeployerResponse> loaded;
+        try {
+            loaded = loader.apply(uri);
+        } catch (RuntimeException e) {
+            remove(uri, entry);
+            entry.future.completeExceptionally(e);
+            return;
+        }
+        loaded.whenComplete((response, e) -> {
+            if (e == null) {
+                entry.loaded(response);
+            } else {
+                remove(uri, entry); // don't cache failures
+                entry.future.completeExceptionally((e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e);
+            }
+        });
+    }
+
+    private static DeployerResponse copy(DeployerResponse response) {
+        if (response == null)
+            return null;
+        DeployerResponse copy = new DeployerResponse();
+        if (response.getDeployables() != null) {
+            Map<String, Deployable> deployables = new LinkedHashMap<>();
+            response.getDeployables().forEach((name, deployable) -> deployables.put(name, (deployable == null) ? null : deployable.toBuilder().build()));
+            copy.setDeployables(deployables);
+        }
+        return copy;
+    }
+
+    private static DeployerResponse join(CompletableFuture<DeployerResponse> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private void remove(URI uri, Entry entry) {
+        synchronized (entries) {
+            entries.remove(uri, entry);
+        }
+    }
+
+    public void invalidate(URI uri) {
+        log.debug("invalidate cached inventory of {}", uri);
+        synchronized (entries) {
+            entries.remove(uri);
+        }
+    }
+}
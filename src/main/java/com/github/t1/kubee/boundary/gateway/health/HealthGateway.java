@@ -2,19 +2,27 @@ package com.github.t1.kubee.boundary.gateway.health;
 
 import com.github.t1.kubee.entity.Cluster.HealthConfig;
 import com.github.t1.kubee.entity.ClusterNode;
+import com.github.t1.kubee.tools.http.HttpClients;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.inject.Inject;
 import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 import java.net.URI;
+import java.time.Duration;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static javax.ws.rs.core.Response.Status.OK;
 
 @Slf4j
+@RequiredArgsConstructor(onConstructor_ = {@Inject})
 public class HealthGateway {
-    private final Client httpClient = ClientBuilder.newClient();
+    private static final Duration FIRST_POLL_DELAY = Duration.ofMillis(100);
+    private static final Duration MAX_POLL_DELAY = Duration.ofSeconds(5);
+
+    private final Client httpClient;
 
     public boolean fetch(ClusterNode node, String path) {
         HealthConfig healthConfig = node.getCluster().getHealthConfig();
@@ -25,9 +33,49 @@ public class HealthGateway {
 
         URI uri = UriBuilder.fromUri(node.uri()).path(path).path(healthConfig.getPath()).build();
         log.debug("get check from {}", uri);
-        Response response = httpClient.target(uri).request().get();
-        log.debug("got check response: {} {}:\n{}", response.getStatus(),
-            response.getStatusInfo().getReasonPhrase(), response.readEntity(String.class));
-        return response.getStatus() == OK.getStatusCode();
+        return HttpClients.metrics().time(uri, () -> {
+            try (Response response = httpClient.target(uri).request().get()) { // close to return the connection to the pool
+                log.debug("got check response: {} {}:\n{}", response.getStatus(),
+                    response.getStatusInfo().getReasonPhrase(), response.readEntity(String.class));
+                return response.getStatus() == OK.getStatusCode();
+            }
+        });
+    }
+
+    /**
+     * Poll the health of a freshly deployed application until it's ready, so it can go back into the load balancer
+     * as soon as possible, while a slow starter still gets the time it needs. The delay between the polls doubles
+     * from 100 ms up to 5 s; we give up when the <code>timeout</code> is reached. Failing to connect counts as not ready yet.
+     */
+    public boolean awaitReady(ClusterNode node, String path, Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        Duration delay = FIRST_POLL_DELAY;
+        for (int poll = 1; ; poll++) {
+            if (isReady(node, path)) {
+                log.debug("{} on {} is ready after {} polls", path, node, poll);
+                return true;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                log.info("{} on {} is not ready after {} polls within {}", path, node, poll, timeout);
+                return false;
+            }
+            try {
+                NANOSECONDS.sleep(Math.min(delay.toNanos(), remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            delay = (delay.compareTo(MAX_POLL_DELAY.dividedBy(2)) > 0) ? MAX_POLL_DELAY : delay.multipliedBy(2);
+        }
+    }
+
+    private boolean isReady(ClusterNode node, String path) {
+        try {
+            return fetch(node, path);
+        } catch (RuntimeException e) {
+            log.debug("{} on {} is not ready: {}", path, node, e.toString());
+            return false;
+        }
     }
 }
@@ -1,5 +1,6 @@
 @DependsUpon(packagesOf = {
     com.github.t1.kubee.entity.Cluster.class,
+    com.github.t1.kubee.tools.http.HttpClients.class,
 })
 package com.github.t1.kubee.boundary.gateway.health;
 
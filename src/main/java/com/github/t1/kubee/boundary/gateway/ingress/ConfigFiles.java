@@ -0,0 +1,81 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import com.github.t1.kubee.tools.files.AtomicFiles;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reading, locking, and atomically replacing the config files of any type of ingress,
+ * so the load balancer never reads a half written file.
+ */
+@Log
+final class ConfigFiles {
+    private ConfigFiles() {}
+
+    private static final Map<Path, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    /** The lock to hold while editing the config file */
+    static ReentrantLock lock(Path path) { return LOCKS.computeIfAbsent(path.toAbsolutePath().normalize(), p -> new ReentrantLock()); }
+
+    /** The raw content of the file, e.g. to restore it when a new config fails */
+    static String readText(Path path) {
+        try {
+            return new String(Files.readAllBytes(path), UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't read config " + path, e);
+        }
+    }
+
+    /**
+     * Is the file still as we wrote it, i.e. can we roll back our change? A <code>null</code> text means we deleted it.
+     * The reload runs after the lock is released, so another change may have been written in the meantime;
+     * restoring our previous text would silently drop that change.
+     */
+    static boolean isUnchanged(Path path, String written) {
+        String current = Files.exists(path) ? readText(path) : null;
+        if (Objects.equals(current, written))
+            return true;
+        log.warning("don't roll back " + path + ": it has changed since we wrote it");
+        return false;
+    }
+
+    static void writeAtomically(Path path, String text) {
+        Path staged = stage(path, text);
+        try {
+            commit(staged, path);
+        } finally {
+            discard(staged);
+        }
+    }
+
+    /** Write the text to a temp file next to the path and flush it to disk, so it can be checked before it's committed */
+    static Path stage(Path path, String text) {
+        try {
+            return AtomicFiles.stage(path, text.getBytes(UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't write config " + path, e);
+        }
+    }
+
+    /** Rename the staged file to the path */
+    static void commit(Path staged, Path path) {
+        try {
+            AtomicFiles.commit(staged, path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't write config " + path, e);
+        }
+    }
+
+    /** Delete the staged file, if it's still there */
+    static void discard(Path staged) { AtomicFiles.discard(staged); }
+}
@@ -0,0 +1,134 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * The base config of HAProxy, as we write it: one backend per load balancer (<code>&lt;app&gt;-lb</code>) and
+ * one per reverse proxy (<code>&lt;host&gt;</code>), with one server per node, named like the host of the node;
+ * and one frontend per listen port that picks the backend by the host header.
+ * We only parse what we render ourselves, not any HAProxy config.
+ * <p>
+ * The servers of a load balancer are not removed when a node leaves it, but <code>disabled</code>,
+ * so the runtime API can put them back in.
+ */
+final class HaproxyConfig {
+    @Data @AllArgsConstructor static class Server {
+        private final String name;
+        private final String host;
+        private int port;
+        private boolean enabled;
+        /** The resolved IP address, as reported by the runtime API, or <code>null</code> */
+        private String address;
+    }
+
+    @Data static class Backend {
+        private final String name;
+        /** The host header routed to this backend */
+        private final String hostName;
+        private final int listen;
+        private String balance;
+        private final List<Server> servers = new ArrayList<>();
+
+        Optional<Server> server(String name) { return servers.stream().filter(server -> server.getName().equals(name)).findFirst(); }
+    }
+
+    private final Map<String, Backend> backends = new LinkedHashMap<>();
+
+    Stream<Backend> backends() { return backends.values().stream(); }
+
+    Optional<Backend> backend(String name) { return Optional.ofNullable(backends.get(name)); }
+
+    Backend addBackend(String name, String hostName, int listen) {
+        Backend backend = new Backend(name, hostName, listen);
+        backends.put(name, backend);
+        return backend;
+    }
+
+    void removeBackend(String name) { backends.remove(name); }
+
+    static HaproxyConfig parse(String text) {
+        HaproxyConfig config = new HaproxyConfig();
+        Map<String, String> hostNames = new LinkedHashMap<>();
+        Map<String, Integer> listens = new LinkedHashMap<>();
+        int listen = -1;
+        Backend backend = null;
+        for (String line : text.split("\n")) {
+            String[] words = line.trim().split("\\s+");
+            switch (words[0]) {
+                case "frontend":
+                    backend = null;
+                    listen = -1;
+                    break;
+                case "bind":
+                    listen = Integer.parseInt(words[1].substring(words[1].lastIndexOf(':') + 1));
+                    break;
+                case "use_backend": // use_backend <name> if { req.hdr(host),field(1,:) -i <host-name> }
+                    hostNames.put(words[1], words[6]);
+                    listens.put(words[1], listen);
+                    break;
+                case "backend":
+                    backend = config.addBackend(words[1], hostNames.getOrDefault(words[1], words[1]), listens.getOrDefault(words[1], -1));
+                    break;
+                case "balance":
+                    if (backend != null)
+                        backend.setBalance(words[1]);
+                    break;
+                case "server": // server <name> <host>:<port> [disabled]
+                    if (backend != null) {
+                        int colon = words[2].lastIndexOf(':');
+                        boolean enabled = words.length < 4 || !"disabled".equals(words[3]);
+                        backend.getServers().add(new Server(words[1], words[2].substring(0, colon),
+                            Integer.parseInt(words[2].substring(colon + 1)), enabled, null));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return config;
+    }
+
+    /** The <code>statsSocket</code> gets admin level without authentication, so it must be a loopback address */
+    String render(String statsSocket) {
+        StringBuilder out = new StringBuilder()
+            .append("# generated by kub-ee: servers are changed with the runtime api;\n")
+            .append("# this file is only rewritten, when backends or servers are added or removed\n")
+            .append("global\n")
+            .append("    stats socket ipv4@").append(statsSocket).append(" level admin\n")
+            .append("\n")
+            .append("defaults\n")
+            .append("    mode http\n")
+            .append("    option forwardfor\n")
+            .append("    timeout connect 5s\n")
+            .append("    timeout client 1m\n")
+            .append("    timeout server 1m\n")
+            .append("    default-server init-addr last,libc,none\n");
+        Map<Integer, List<Backend>> frontends = new TreeMap<>();
+        backends().filter(backend -> backend.getListen() >= 0)
+            .forEach(backend -> frontends.computeIfAbsent(backend.getListen(), l -> new ArrayList<>()).add(backend));
+        frontends.forEach((listen, routed) -> {
+            out.append("\nfrontend listen-").append(listen).append("\n")
+                .append("    bind :").append(listen).append("\n");
+            routed.forEach(backend -> out.append("    use_backend ").append(backend.getName())
+                .append(" if { req.hdr(host),field(1,:) -i ").append(backend.getHostName()).append(" }\n"));
+        });
+        backends().forEach(backend -> {
+            out.append("\nbackend ").append(backend.getName()).append("\n");
+            if (backend.getBalance() != null)
+                out.append("    balance ").append(backend.getBalance()).append("\n");
+            backend.getServers().forEach(server -> out.append("    server ").append(server.getName())
+                .append(" ").append(server.getHost()).append(":").append(server.getPort())
+                .append(server.isEnabled() ? "" : " disabled").append("\n"));
+        });
+        return out.toString();
+    }
+}
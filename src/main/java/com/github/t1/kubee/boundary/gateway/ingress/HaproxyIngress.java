@@ -0,0 +1,385 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import com.github.t1.kubee.boundary.gateway.ingress.HaproxyConfig.Backend;
+import com.github.t1.kubee.boundary.gateway.ingress.HaproxyConfig.Server;
+import com.github.t1.kubee.entity.ClusterNode;
+import com.github.t1.kubee.entity.Endpoint;
+import com.github.t1.kubee.entity.Stage;
+import com.google.common.annotations.VisibleForTesting;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * see https://www.haproxy.com/documentation/haproxy-runtime-api/
+ * <p>
+ * Selected with the load balancer config <code>type: haproxy</code>. The {@link HaproxyConfig base config} is only
+ * rewritten, and HAProxy reloaded, when a load balancer, a reverse proxy, or a server is added or removed.
+ * Taking a node out of a load balancer and putting it back only disables or enables its server, and a changed port
+ * only sets the address of the server. These commands go to the runtime API on the <code>stats-socket</code>,
+ * so they take effect immediately, without a reload, and without dropping any connections.
+ * <p>
+ * The state reported by the runtime API overrides the base config, as it contains the changes since the last reload.
+ * We only read both when they are first needed, or when we start a change, not when the ingress is created.
+ * <p>
+ * The <code>stats-socket</code> has admin level and no authentication, so it must be a loopback address,
+ * e.g. the default <code>127.0.0.1:9999</code>.
+ */
+@Log
+class HaproxyIngress implements Ingress {
+    private static final String LB_SUFFIX = "-lb";
+
+    @VisibleForTesting
+    static Path HAPROXY_ETC = Paths.get("/usr/local/etc/haproxy");
+
+    private final Stage stage;
+    private final Path configPath;
+    private final String statsSocket;
+    private final HaproxyRuntime runtime;
+    private final IngressValidator.Validate validator;
+    private HaproxyConfig config;
+    private final List<String> commands = new ArrayList<>();
+    private boolean restructured = false;
+    private int batchDepth = 0;
+    /** The rollback of the config that has been written, but not reloaded, yet */
+    private Runnable unreloaded;
+
+    HaproxyIngress(Stage stage) {
+        this.stage = stage;
+        Map<String, String> loadBalancerConfig = stage.getLoadBalancerConfig();
+        this.configPath = HAPROXY_ETC.resolve(loadBalancerConfig.getOrDefault("config-path",
+            stage.getPrefix() + "haproxy" + stage.getSuffix() + ".cfg"));
+        this.statsSocket = loadBalancerConfig.getOrDefault("stats-socket", "127.0.0.1:9999");
+        this.runtime = HaproxyRuntime.of(statsSocket);
+        this.validator = IngressValidator.validateMode(stage);
+    }
+
+    private HaproxyConfig config() {
+        if (config == null)
+            refresh();
+        return config;
+    }
+
+    private void refresh() {
+        this.config = Files.exists(configPath) ? HaproxyConfig.parse(ConfigFiles.readText(configPath)) : new HaproxyConfig();
+        List<HaproxyRuntime.ServerState> states;
+        try {
+            states = runtime.serversState();
+        } catch (UncheckedIOException e) {
+            log.warning("can't get server state from haproxy at " + runtime + "; use the base config " + configPath + ": " + e.getMessage());
+            return;
+        }
+        for (HaproxyRuntime.ServerState state : states)
+            config.backend(state.getBackend()).flatMap(backend -> backend.server(state.getServer())).ifPresent(server -> {
+                server.setAddress(state.getAddress());
+                server.setPort(state.getPort());
+                server.setEnabled(state.isEnabled());
+            });
+    }
+
+    @Override public boolean hasChanged() { return restructured || !commands.isEmpty(); }
+
+    /**
+     * A new base config contains all pending server changes, so the runtime commands are only needed without it.
+     * The reload runs only when the outermost lock is released, so other stages can write their config in the meantime.
+     */
+    @Override public void apply() {
+        try {
+            if (restructured) {
+                log.info("apply haproxy base config " + configPath);
+                String before = Files.exists(configPath) ? ConfigFiles.readText(configPath) : null;
+                String written = config().render(statsSocket);
+                write(written);
+                unreloaded = () -> {
+                    if (ConfigFiles.isUnchanged(configPath, written))
+                        restore(before);
+                };
+                if (!ConfigFiles.lock(configPath).isHeldByCurrentThread())
+                    reload();
+            } else {
+                log.info("apply haproxy server changes " + commands);
+                runtime.run(commands);
+            }
+        } finally {
+            commands.clear();
+            restructured = false;
+        }
+    }
+
+    private void write(String text) {
+        Path staged = ConfigFiles.stage(configPath, text);
+        try {
+            validator.check(staged);
+            ConfigFiles.commit(staged, configPath);
+        } finally {
+            ConfigFiles.discard(staged);
+        }
+    }
+
+    private void reload() {
+        Runnable rollback = unreloaded;
+        unreloaded = null;
+        String result = IngressReloader.reload(stage, () -> {
+            ReentrantLock lock = ConfigFiles.lock(configPath);
+            lock.lock();
+            try {
+                log.warning("failed to reload load balancer. restoring original config in " + configPath);
+                rollback.run();
+            } finally {
+                lock.unlock();
+            }
+        });
+        if (result != null)
+            throw new RuntimeException("failed to reload load balancer: " + result);
+    }
+
+    private void restore(String before) {
+        if (before != null) {
+            ConfigFiles.writeAtomically(configPath, before);
+            return;
+        }
+        try {
+            Files.deleteIfExists(configPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't delete haproxy config " + configPath, e);
+        }
+    }
+
+    @Override public void batch(Runnable work) {
+        locked(() -> {
+            batchDepth++;
+            try {
+                work.run();
+            } finally {
+                batchDepth--;
+            }
+            if (batchDepth == 0 && hasChanged())
+                apply();
+        });
+    }
+
+    /**
+     * Only one thread may change the haproxy of a stage at a time. If we have no pending changes,
+     * we first pick up the current state, as another thread may have changed it since we read it.
+     */
+    private void locked(Runnable work) {
+        ReentrantLock lock = ConfigFiles.lock(configPath);
+        lock.lock();
+        try {
+            if (lock.getHoldCount() == 1 && !hasChanged())
+                refresh();
+            work.run();
+        } finally {
+            lock.unlock();
+        }
+        if (!lock.isHeldByCurrentThread() && unreloaded != null)
+            reload();
+    }
+
+    private void applyUnlessBatched() {
+        if (batchDepth == 0)
+            apply();
+        else
+            log.fine("defer applying ingress config to the end of the batch");
+    }
+
+    private void command(String command) {
+        log.fine("pending haproxy command: " + command);
+        commands.add(command);
+    }
+
+    private void restructure(String reason) {
+        log.info(reason);
+        restructured = true;
+    }
+
+    private void changePort(Backend backend, Server server, int port) {
+        if (server.getPort() == port)
+            return;
+        server.setPort(port);
+        command("set server " + backend.getName() + "/" + server.getName() + " addr " + address(server) + " port " + port);
+    }
+
+    /** The runtime API only takes IP addresses */
+    private static String address(Server server) {
+        if (server.getAddress() != null)
+            return server.getAddress();
+        try {
+            return InetAddress.getByName(server.getHost()).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("can't resolve address of server " + server.getName(), e);
+        }
+    }
+
+    private Backend backendNamed(String name) {
+        return config().backend(name).orElseThrow(() -> new IllegalStateException("no backend " + name));
+    }
+
+    @Override public void removeReverseProxyFor(ClusterNode node) {
+        if (config().backend(node.host()).isPresent()) {
+            config().removeBackend(node.host());
+            restructure("remove reverse proxy " + node.host());
+        }
+    }
+
+    @Override public boolean hasReverseProxyFor(ClusterNode node) { return config().backend(node.host()).isPresent(); }
+
+    @Override public Stream<ReverseProxy> reverseProxies() {
+        return config().backends().filter(backend -> !backend.getName().endsWith(LB_SUFFIX))
+            .map(backend -> (ReverseProxy) new HaproxyReverseProxy(backend.getName()))
+            .collect(toList()).stream();
+    }
+
+    @Override public void addToLoadBalancer(String application, ClusterNode node) {
+        locked(() -> {
+            if (!hasReverseProxyFor(node))
+                throw new IllegalStateException("no reverse proxy found for " + node.host() + " in "
+                    + reverseProxies().map(ReverseProxy::name).collect(joining(", ", "[", "]")));
+            int port = getOrCreateReverseProxyFor(node).getPort();
+            getOrCreateLoadBalancerFor(application).addOrUpdateEndpoint(new Endpoint(node.host(), port));
+            applyUnlessBatched();
+        });
+    }
+
+    @Override public ReverseProxy getOrCreateReverseProxyFor(ClusterNode node) {
+        if (!config().backend(node.host()).isPresent()) {
+            config().addBackend(node.host(), node.host(), node.port());
+            restructure("create missing reverse proxy " + node.host());
+        }
+        return new HaproxyReverseProxy(node.host());
+    }
+
+    @RequiredArgsConstructor
+    class HaproxyReverseProxy implements ReverseProxy {
+        private final String backendName;
+
+        @Override public String name() { return backendName; }
+
+        @Override public Integer listen() {
+            int listen = backendNamed(backendName).getListen();
+            return (listen < 0) ? null : listen;
+        }
+
+        @Override public int getPort() {
+            List<Server> servers = backendNamed(backendName).getServers();
+            if (servers.isEmpty())
+                return -1;
+            if (servers.size() > 1)
+                throw new IllegalStateException("expected exactly one server in reverse proxy " + backendName + " but got " + servers);
+            return servers.get(0).getPort();
+        }
+
+        @Override public void setPort(int port) {
+            log.info("set port of ReverseProxy " + backendName + " to " + port);
+            Backend backend = backendNamed(backendName);
+            if (backend.getServers().isEmpty()) {
+                backend.getServers().add(new Server(backendName, backendName, port, true, null));
+                restructure("add server to reverse proxy " + backendName);
+            } else {
+                changePort(backend, backend.getServers().get(0), port);
+            }
+        }
+    }
+
+
+    @Override public Stream<LoadBalancer> loadBalancers() {
+        return config().backends().filter(backend -> backend.getName().endsWith(LB_SUFFIX))
+            .map(backend -> (LoadBalancer) new HaproxyLoadBalancer(backend.getName()))
+            .collect(toList()).stream(); // copy to protect from ConcurrentModificationException
+    }
+
+    @Override public void removeFromLoadBalancer(String application, ClusterNode node) {
+        locked(() -> {
+            if (config().backend(application + LB_SUFFIX).isPresent()) {
+                log.info("remove " + node.host() + " from lb for " + application);
+                getOrCreateLoadBalancerFor(application).removeHost(node.host());
+                applyUnlessBatched();
+            } else {
+                log.fine("no lb found for " + application);
+            }
+        });
+    }
+
+    private LoadBalancer getOrCreateLoadBalancerFor(String application) {
+        String name = application + LB_SUFFIX;
+        if (!config().backend(name).isPresent()) {
+            config().addBackend(name, application, 80).setBalance("leastconn");
+            restructure("create missing load balancer " + name);
+        }
+        return new HaproxyLoadBalancer(name);
+    }
+
+    @RequiredArgsConstructor
+    class HaproxyLoadBalancer implements LoadBalancer {
+        private final String backendName;
+
+        private Backend backend() { return backendNamed(backendName); }
+
+        /** The enabled servers; the disabled ones are out of the load balancer */
+        private Stream<Server> servers() { return backend().getServers().stream().filter(Server::isEnabled); }
+
+        @Override public String applicationName() {
+            assert backendName.endsWith(LB_SUFFIX);
+            return backendName.substring(0, backendName.length() - LB_SUFFIX.length());
+        }
+
+        @Override public String method() { return backend().getBalance(); }
+
+        @Override public void updatePort(Endpoint endpoint, Integer newPort) {
+            log.info("LB port doesn't match actual: " + endpoint + " -> " + newPort);
+            Backend backend = backend();
+            backend.server(endpoint.getHost()).ifPresent(server -> changePort(backend, server, newPort));
+        }
+
+        @Override public boolean hasHost(String host) { return servers().anyMatch(server -> server.getHost().equals(host)); }
+
+        @Override public int indexOf(String host) {
+            List<String> hosts = servers().map(Server::getHost).collect(toList());
+            return hosts.indexOf(host);
+        }
+
+        @Override public void removeHost(String host) {
+            servers().filter(server -> server.getHost().equals(host)).collect(toList()).forEach(server -> {
+                server.setEnabled(false);
+                command("disable server " + backendName + "/" + server.getName());
+            });
+        }
+
+        @Override public boolean hasEndpoint(Endpoint endpoint) { return endpoints().anyMatch(endpoint::equals); }
+
+        @Override public Stream<Endpoint> endpoints() {
+            return servers().map(server -> new Endpoint(server.getHost(), server.getPort())).collect(toList()).stream();
+        }
+
+        @Override public void addOrUpdateEndpoint(Endpoint endpoint) {
+            Backend backend = backend();
+            Server server = backend.server(endpoint.getHost()).orElse(null);
+            if (server == null) {
+                backend.getServers().add(new Server(endpoint.getHost(), endpoint.getHost(), endpoint.getPort(), true, null));
+                restructure("add missing endpoint " + endpoint + " to LB " + backendName);
+                return;
+            }
+            changePort(backend, server, endpoint.getPort());
+            if (!server.isEnabled()) {
+                log.info("enable endpoint " + endpoint + " in LB " + backendName);
+                server.setEnabled(true);
+                command("enable server " + backendName + "/" + server.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.java.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A client for the runtime API of HAProxy on a TCP stats socket, e.g. <code>stats socket ipv4@127.0.0.1:9999 level admin</code>.
+ * Every call is one connection with one line of commands, separated by <code>;</code>. HAProxy runs them in order,
+ * and closes the connection after the output.
+ */
+@Log
+@RequiredArgsConstructor
+class HaproxyRuntime {
+    private static final int TIMEOUT_MILLIS = 5_000;
+
+    /** The successful commands that we send answer with nothing or with one of these */
+    private static final List<String> SUCCESS = Arrays.asList("IP changed", "port changed", "no need to change");
+
+    /** The runtime API on the socket has admin level and no authentication, so we only accept loopback addresses */
+    static HaproxyRuntime of(String socket) {
+        int colon = socket.lastIndexOf(':');
+        if (colon < 0)
+            throw new IllegalArgumentException("expected stats socket as host:port but got " + socket);
+        String host = socket.substring(0, colon);
+        if (!isLoopback(host))
+            throw new IllegalArgumentException("expected stats socket on a loopback address but got " + socket);
+        return new HaproxyRuntime(host, Integer.parseInt(socket.substring(colon + 1)));
+    }
+
+    private static boolean isLoopback(String host) {
+        try {
+            return InetAddress.getByName(host).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    private final String host;
+    private final int port;
+
+    @Override public String toString() { return host + ":" + port; }
+
+    @Value static class ServerState {
+        String backend;
+        String server;
+        String address;
+        int port;
+        boolean enabled;
+    }
+
+    /** Parses the output of <code>show servers state</code>: a version line, a header line, and one line per server */
+    List<ServerState> serversState() {
+        List<ServerState> states = new ArrayList<>();
+        List<String> header = null;
+        for (String line : execute("show servers state").split("\n")) {
+            if (line.startsWith("# ")) {
+                header = Arrays.asList(line.substring(2).trim().split("\\s+"));
+                continue;
+            }
+            String[] fields = line.trim().split("\\s+");
+            if (header == null || fields.length < header.size())
+                continue;
+            int adminState = Integer.parseInt(fields[header.indexOf("srv_admin_state")]);
+            states.add(new ServerState(
+                fields[header.indexOf("be_name")],
+                fields[header.indexOf("srv_name")],
+                fields[header.indexOf("srv_addr")],
+                Integer.parseInt(fields[header.indexOf("srv_port")]),
+                (adminState & 0x01) == 0)); // forced maintenance, i.e. `disable server`
+        }
+        return states;
+    }
+
+    /** Runs all commands in one round trip; throws, if any of them fails */
+    void run(List<String> commands) {
+        if (commands.isEmpty())
+            return;
+        String output = execute(String.join("; ", commands));
+        for (String line : output.split("\n"))
+            if (!line.trim().isEmpty() && SUCCESS.stream().noneMatch(line::startsWith))
+                throw new RuntimeException("haproxy runtime api failed: " + output.trim());
+    }
+
+    private String execute(String command) {
+        log.fine("send to haproxy " + this + ": " + command);
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT_MILLIS);
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            socket.getOutputStream().write((command + "\n").getBytes(UTF_8));
+            socket.getOutputStream().flush();
+            return readAll(socket.getInputStream());
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't talk to haproxy runtime api at " + this, e);
+        }
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+            out.write(buffer, 0, n);
+        return new String(out.toByteArray(), UTF_8);
+    }
+}
@@ -16,6 +16,18 @@ public interface Ingress {
 
     void apply();
 
+    /**
+     * Run the <code>work</code> as one unit: the changes of all operations within, including
+     * {@link #addToLoadBalancer} and {@link #removeFromLoadBalancer}, are applied together with a single reload
+     * at the end, if anything changed at all. Nothing is applied when the work fails.
+     * Batches can be nested; only the outermost batch applies.
+     */
+    default void batch(Runnable work) {
+        work.run();
+        if (hasChanged())
+            apply();
+    }
+
     void removeReverseProxyFor(ClusterNode node);
 
     boolean hasReverseProxyFor(ClusterNode node);
@@ -5,7 +5,26 @@ import com.github.t1.kubee.entity.Stage;
 import java.util.function.Function;
 
 public class IngressFactory {
-    public static Function<Stage, Ingress> BUILDER = NginxIngress::new;
+    public static Function<Stage, Ingress> BUILDER = IngressFactory::build;
 
     public static Ingress ingress(Stage stage) { return BUILDER.apply(stage); }
+
+    /** Run the <code>work</code> and then reload every load balancer only once, even when it's used by several stages */
+    public static void reloadOnce(Runnable work) { IngressReloader.deferred(work); }
+
+    /** Stop the reload threads right away, e.g. when the cli exits; otherwise they stop when they are idle */
+    public static void shutdown() { ReloadScheduler.shutdown(); }
+
+    /** The load balancer config <code>type</code> selects the implementation: <code>nginx</code> (the default) or <code>haproxy</code> */
+    private static Ingress build(Stage stage) {
+        String type = stage.getLoadBalancerConfig().getOrDefault("type", "nginx");
+        switch (type) {
+            case "nginx":
+                return new NginxIngress(stage);
+            case "haproxy":
+                return new HaproxyIngress(stage);
+            default:
+                throw new IllegalArgumentException("unknown load balancer type: " + type);
+        }
+    }
 }
@@ -6,11 +6,18 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.java.Log;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import static java.lang.ProcessBuilder.Redirect.INHERIT;
+import static java.util.Collections.singletonList;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
 import static java.util.logging.Level.WARNING;
 
 /**
@@ -20,6 +27,99 @@ import static java.util.logging.Level.WARNING;
 class IngressReloader {
     interface Reload {
         String reload();
+
+        /** Reloads with the same target reload the same nginx process, so they can be merged */
+        default String target() { return getClass().getName(); }
+    }
+
+    static final String RELOAD_DEBOUNCE = "reload-debounce";
+    /**
+     * Long enough to merge the reloads of stages that share one load balancer and are reconditioned in parallel,
+     * short enough to not noticeably delay a single change.
+     */
+    static final Duration DEFAULT_DEBOUNCE = Duration.ofMillis(100);
+
+    private static final ThreadLocal<Deferred> DEFERRED = new ThreadLocal<>();
+
+    /**
+     * Reload via the {@link ReloadScheduler}, merging the reloads for one target within the debounce window,
+     * and return the error message or <code>null</code>. When the reload fails, the <code>rollback</code> runs.
+     * Within {@link #deferred(Runnable)}, the reload is only requested when the deferred work is done.
+     */
+    static String reload(Stage stage, Runnable rollback) {
+        Deferred deferred = DEFERRED.get();
+        if (deferred != null) {
+            deferred.add(reloadMode(stage), debounce(stage), rollback);
+            return null;
+        }
+        return ReloadScheduler.join(ReloadScheduler.request(reloadMode(stage), debounce(stage), singletonList(rollback)));
+    }
+
+    /**
+     * Run the <code>work</code> and then reload every target only once, even when the configs of several stages
+     * that share it have changed. A reload that fails throws a RuntimeException after all rollbacks are done.
+     * Nested calls join the outermost one.
+     */
+    static void deferred(Runnable work) {
+        if (DEFERRED.get() != null) {
+            work.run();
+            return;
+        }
+        Deferred deferred = new Deferred();
+        DEFERRED.set(deferred);
+        RuntimeException failure = null;
+        try {
+            work.run();
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            DEFERRED.remove();
+            deferred.reload(failure); // the configs that have been written, have to be reloaded anyway
+        }
+    }
+
+    /** Milliseconds to wait for more reload requests of the same target. Default is {@link #DEFAULT_DEBOUNCE}. */
+    private static Duration debounce(Stage stage) {
+        return Optional.ofNullable(stage.getLoadBalancerConfig().get(RELOAD_DEBOUNCE))
+            .map(Long::parseLong).map(Duration::ofMillis).orElse(DEFAULT_DEBOUNCE);
+    }
+
+    private static class Deferred {
+        private final Map<String, Request> requests = new LinkedHashMap<>();
+
+        void add(Reload reload, Duration debounce, Runnable rollback) {
+            requests.computeIfAbsent(reload.target(), target -> new Request(reload, debounce)).rollbacks.add(rollback);
+        }
+
+        void reload(RuntimeException failure) {
+            List<CompletableFuture<String>> futures = requests.values().stream().map(Request::request).collect(toList());
+            List<String> errors = new ArrayList<>();
+            for (CompletableFuture<String> future : futures) {
+                try {
+                    String result = ReloadScheduler.join(future);
+                    if (result != null)
+                        errors.add(result);
+                } catch (RuntimeException e) {
+                    errors.add(e.toString());
+                }
+            }
+            if (errors.isEmpty())
+                return;
+            RuntimeException reloadFailed = new RuntimeException("failed to reload load balancer: " + String.join("; ", errors));
+            if (failure == null)
+                throw reloadFailed;
+            failure.addSuppressed(reloadFailed);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Request {
+        private final Reload reload;
+        private final Duration debounce;
+        private final List<Runnable> rollbacks = new ArrayList<>();
+
+        CompletableFuture<String> request() { return ReloadScheduler.request(reload, debounce, rollbacks); }
     }
 
     static Reload reloadMode(Stage stage) {
@@ -55,9 +155,13 @@ class IngressReloader {
     private static class ServiceReload implements Reload {
         static final String RELOAD_SERVICE_PORT = "port";
 
+        final int port;
         final NginxReloadService.Adapter adapter;
 
-        private ServiceReload(Stage stage) { this.adapter = new NginxReloadService.Adapter(reloadServicePort(stage)); }
+        private ServiceReload(Stage stage) {
+            this.port = reloadServicePort(stage);
+            this.adapter = new NginxReloadService.Adapter(port);
+        }
 
         private int reloadServicePort(Stage stage) {
             return Optional.ofNullable(stage.getLoadBalancerConfig().get(RELOAD_SERVICE_PORT))
@@ -65,6 +169,8 @@ class IngressReloader {
         }
 
         @Override public String reload() { return adapter.call(); }
+
+        @Override public String target() { return "service:" + port; }
     }
 
     private static class DirectReload implements Reload {
@@ -80,6 +186,8 @@ class IngressReloader {
         public final String host;
 
         @Override public String reload() { return run("docker", "kill", "--signal", "HUP", host); }
+
+        @Override public String target() { return "docker:" + host; }
     }
 
     private static String run(String... command) {
@@ -0,0 +1,87 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import com.github.t1.kubee.entity.Stage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * This class hides the actual mechanism to check a staged load balancer config, before it's moved into place.
+ * So a broken config never replaces the live config, and never triggers a reload.
+ */
+@Log
+class IngressValidator {
+    interface Validate {
+        /** Returns <code>null</code>, if the config file is valid, or the error message */
+        String validate(Path config);
+
+        default void check(Path config) {
+            String result = validate(config);
+            if (result != null)
+                throw new RuntimeException("invalid load balancer config: " + result);
+        }
+    }
+
+    static Validate validateMode(Stage stage) {
+        Map<String, String> config = stage.getLoadBalancerConfig();
+        String mode = config.getOrDefault("validate", "none");
+        switch (mode) {
+            case "none":
+                return path -> null;
+            case "nginx":
+                return new NginxValidate(config.getOrDefault("nginx-binary", "/usr/local/bin/nginx"));
+            case "custom":
+                return customValidate(config);
+            default:
+                throw new IllegalArgumentException("unknown validate mode: " + mode);
+        }
+    }
+
+    private static Validate customValidate(Map<String, String> config) {
+        String className = config.get("validate-class");
+        if (className == null)
+            throw new IllegalArgumentException("missing 'validate-class' config for 'custom' validate mode");
+        try {
+            return (Validate) Class.forName(className).newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("can't instantiate custom validate class " + className);
+        }
+    }
+
+    /** <code>nginx -t -c &lt;config&gt;</code> tests the config without touching the running nginx */
+    @RequiredArgsConstructor
+    private static class NginxValidate implements Validate {
+        private final String binary;
+
+        @Override public String validate(Path config) {
+            Path output = null;
+            try {
+                output = Files.createTempFile("nginx-test", ".out");
+                Process process = new ProcessBuilder(binary, "-t", "-q", "-c", config.toAbsolutePath().toString())
+                    .redirectErrorStream(true).redirectOutput(output.toFile()).start();
+                boolean inTime = process.waitFor(10, SECONDS);
+                if (!inTime) {
+                    process.destroyForcibly();
+                    return "could not test nginx config in time";
+                }
+                if (process.exitValue() != 0)
+                    return new String(Files.readAllBytes(output), UTF_8).trim();
+                return null;
+            } catch (InterruptedException | IOException e) {
+                log.log(WARNING, "nginx config test failed", e);
+                return "nginx config test failed: " + e.getMessage();
+            } finally {
+                if (output != null)
+                    output.toFile().delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import com.github.t1.nginx.NginxConfig;
+import lombok.Value;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed nginx configs by path, so creating an {@link NginxIngress} only has to stat the file.
+ * The cached {@link NginxConfig} instances are shared and must never be modified: edits work on a private copy.
+ */
+@Log
+final class NginxConfigCache {
+    private NginxConfigCache() {}
+
+    @Value static class Entry {
+        FileStamp stamp;
+        NginxIndex index;
+
+        NginxConfig getConfig() { return index.getConfig(); }
+    }
+
+    @Value static class FileStamp {
+        FileTime lastModified;
+        long size;
+        Object fileKey;
+    }
+
+    private static final Map<Path, Entry> CACHE = new ConcurrentHashMap<>();
+
+    static Entry read(Path path) {
+        FileStamp stamp = stamp(path);
+        Entry entry = CACHE.get(path);
+        if (entry != null && entry.getStamp().equals(stamp))
+            return entry;
+        log.fine("parse nginx config " + path);
+        NginxConfig config = readCopy(path);
+        Entry next = new Entry(stamp, NginxIndex.of(config));
+        CACHE.put(path, next);
+        return next;
+    }
+
+    /** A fresh, private instance that can be modified */
+    static NginxConfig readCopy(Path path) { return NginxConfig.readFrom(path.toUri()); }
+
+    /** Like {@link #readCopy(Path)}, but with the indexes built, too */
+    static NginxIndex readIndexedCopy(Path path) { return NginxIndex.of(readCopy(path)); }
+
+    /**
+     * Write to a temp file in the same directory, flush it to disk, and rename it, so nginx never reads a half written file.
+     * Before the rename, the <code>validator</code> checks the staged file; if it fails, the live file is not touched.
+     * The written config becomes the cached config, so the caller must not modify it any more.
+     */
+    static void write(Path path, NginxIndex index, IngressValidator.Validate validator) {
+        Path staged = ConfigFiles.stage(path, index.getConfig().toString());
+        try {
+            validator.check(staged);
+            ConfigFiles.commit(staged, path);
+        } finally {
+            ConfigFiles.discard(staged);
+        }
+        CACHE.put(path, new Entry(stamp(path), index));
+    }
+
+    /** Write the text and forget the cached config, so it's parsed again on the next read */
+    static void write(Path path, String text) {
+        ConfigFiles.writeAtomically(path, text);
+        CACHE.remove(path);
+    }
+
+    static FileStamp stamp(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new FileStamp(attributes.lastModifiedTime(), attributes.size(), attributes.fileKey());
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't read nginx config " + path, e);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import com.github.t1.kubee.boundary.gateway.ingress.NginxConfigCache.FileStamp;
+import com.github.t1.nginx.NginxConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * The nginx config split into one file per load balancer (<code>&lt;app&gt;-lb.conf</code>) and one per
+ * reverse proxy (<code>&lt;host&gt;.conf</code>), each with the upstream and the server passing to it.
+ * The main nginx config has to pull them in with an <code>include &lt;dir&gt;/*.conf;</code> in the http block.
+ * <p>
+ * We cache the parsed files by their modification time, size, and identity, so after a change only the
+ * changed files are parsed again, and we only write the files of the load balancers or reverse proxies
+ * that actually changed; each of them atomically. Before we write them, the validator checks the staged files
+ * included into a minimal config. As every file contains a complete upstream and server, they can be checked alone.
+ * If one of the files can't be written, we restore the files that we already wrote, so nginx never sees only a part
+ * of the changes.
+ */
+@Log
+@RequiredArgsConstructor
+class NginxConfigDir implements NginxConfigStore {
+    private static final String SUFFIX = ".conf";
+    private static final Map<Path, Snapshot> SNAPSHOTS = new ConcurrentHashMap<>();
+
+    @Value private static class Unit {
+        FileStamp stamp;
+        NginxConfig config;
+    }
+
+    @Value private static class Snapshot {
+        Map<Path, Unit> units;
+        NginxIndex index;
+    }
+
+    private final Path dir;
+    private final IngressValidator.Validate validator;
+
+    @Override public String toString() { return dir.toString(); }
+
+    @Override public ReentrantLock lock() { return ConfigFiles.lock(dir); }
+
+    @Override public NginxIndex read() { return snapshot().getIndex(); }
+
+    @Override public NginxIndex readCopy() { return NginxIndex.of(merge(snapshot().getUnits()), this::loadUnit); }
+
+    private Snapshot snapshot() {
+        Map<Path, FileStamp> stamps = stamps();
+        Snapshot snapshot = SNAPSHOTS.get(dir);
+        if (snapshot != null && isCurrent(snapshot, stamps))
+            return snapshot;
+        Map<Path, Unit> units = new TreeMap<>();
+        stamps.forEach((file, stamp) -> {
+            Unit cached = (snapshot == null) ? null : snapshot.getUnits().get(file);
+            units.put(file, (cached != null && cached.getStamp().equals(stamp)) ? cached : parse(file, stamp));
+        });
+        Snapshot next = new Snapshot(units, NginxIndex.of(merge(units)));
+        SNAPSHOTS.put(dir, next);
+        return next;
+    }
+
+    private static boolean isCurrent(Snapshot snapshot, Map<Path, FileStamp> stamps) {
+        return snapshot.getUnits().size() == stamps.size() && stamps.entrySet().stream().allMatch(entry ->
+            Optional.ofNullable(snapshot.getUnits().get(entry.getKey())).filter(unit -> unit.getStamp().equals(entry.getValue())).isPresent());
+    }
+
+    private Map<Path, FileStamp> stamps() {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                .filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                .filter(Files::isRegularFile)
+                .collect(toMap(file -> file, NginxConfigCache::stamp));
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't list nginx config dir " + dir, e);
+        }
+    }
+
+    private static Unit parse(Path file, FileStamp stamp) {
+        log.fine("parse nginx config " + file);
+        return new Unit(stamp, NginxConfigCache.readCopy(file));
+    }
+
+    /** A new config with the (shared) upstreams and servers of all units */
+    private static NginxConfig merge(Map<Path, Unit> units) {
+        NginxConfig merged = NginxConfig.create();
+        units.values().forEach(unit -> {
+            unit.getConfig().upstreams().forEach(merged::addUpstream);
+            unit.getConfig().servers().forEach(merged::addServer);
+        });
+        return merged;
+    }
+
+    private Path file(String unit) { return dir.resolve(unit + SUFFIX); }
+
+    /** A fresh, private copy of a unit, or an empty config, if it doesn't exist, yet */
+    private NginxConfig loadUnit(String unit) {
+        Path file = file(unit);
+        return Files.exists(file) ? NginxConfigCache.readCopy(file) : NginxConfig.create();
+    }
+
+    @Override public Runnable write(NginxIndex index) {
+        Map<Path, String> rollback = new LinkedHashMap<>();
+        Map<Path, String> changes = new LinkedHashMap<>();
+        for (String unit : index.changedUnits()) {
+            Path file = file(unit);
+            String before = Files.exists(file) ? ConfigFiles.readText(file) : null;
+            String after = render(index, unit);
+            if (Objects.equals(before, after))
+                continue;
+            rollback.put(file, before);
+            changes.put(file, after);
+        }
+        Map<Path, Path> staged = new LinkedHashMap<>();
+        try {
+            changes.forEach((file, text) -> {
+                if (text != null)
+                    staged.put(file, ConfigFiles.stage(file, text));
+            });
+            validate(staged.values());
+            commit(changes, staged, rollback);
+        } finally {
+            staged.values().forEach(ConfigFiles::discard);
+        }
+        log.info("wrote " + changes.keySet() + " in " + dir);
+        return () -> rollback.forEach((file, before) -> {
+            if (ConfigFiles.isUnchanged(file, changes.get(file)))
+                write(file, before);
+        });
+    }
+
+    private static void commit(Map<Path, String> changes, Map<Path, Path> staged, Map<Path, String> rollback) {
+        List<Path> committed = new ArrayList<>();
+        try {
+            changes.forEach((file, text) -> {
+                if (text == null)
+                    delete(file);
+                else
+                    ConfigFiles.commit(staged.get(file), file);
+                committed.add(file);
+            });
+        } catch (RuntimeException e) {
+            log.warning("can't write all of " + changes.keySet() + "; restore " + committed + ": " + e);
+            for (Path file : committed) {
+                try {
+                    write(file, rollback.get(file));
+                } catch (RuntimeException restoreFailed) {
+                    e.addSuppressed(restoreFailed);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void validate(Collection<Path> staged) {
+        if (staged.isEmpty())
+            return;
+        Path config = ConfigFiles.stage(dir.resolve("validate"), staged.stream()
+            .map(file -> "    include " + file.toAbsolutePath() + ";\n")
+            .collect(joining("", "events {\n}\n\nhttp {\n", "}\n")));
+        try {
+            validator.check(config);
+        } finally {
+            ConfigFiles.discard(config);
+        }
+    }
+
+    /** The config text of the unit, or <code>null</code>, if it has been removed */
+    private static String render(NginxIndex index, String unit) {
+        NginxConfig config = NginxConfig.create();
+        index.upstream(unit).ifPresent(config::addUpstream);
+        index.serverFor(unit).ifPresent(config::addServer);
+        return (config.upstreams().count() == 0 && config.servers().count() == 0) ? null : config.toString();
+    }
+
+    private static void write(Path file, String text) {
+        if (text == null)
+            delete(file);
+        else
+            ConfigFiles.writeAtomically(file, text);
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't delete nginx config " + file, e);
+        }
+    }
+}
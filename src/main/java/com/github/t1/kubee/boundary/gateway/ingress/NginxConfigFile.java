@@ -0,0 +1,31 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import lombok.RequiredArgsConstructor;
+
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** The whole nginx config in one file */
+@RequiredArgsConstructor
+class NginxConfigFile implements NginxConfigStore {
+    private final Path path;
+    private final IngressValidator.Validate validator;
+
+    @Override public String toString() { return path.toString(); }
+
+    @Override public ReentrantLock lock() { return ConfigFiles.lock(path); }
+
+    @Override public NginxIndex read() { return NginxConfigCache.read(path).getIndex(); }
+
+    @Override public NginxIndex readCopy() { return NginxConfigCache.readIndexedCopy(path); }
+
+    @Override public Runnable write(NginxIndex index) {
+        String before = ConfigFiles.readText(path);
+        NginxConfigCache.write(path, index, validator);
+        String written = index.getConfig().toString();
+        return () -> {
+            if (ConfigFiles.isUnchanged(path, written))
+                NginxConfigCache.write(path, before);
+        };
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import com.github.t1.kubee.entity.Stage;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Where the nginx config of a stage lives: by default in one file, or with the load balancer config
+ * <code>layout: split</code> in one file per load balancer and per reverse proxy in an include directory.
+ * Changes are staged and checked by the {@link IngressValidator} before they replace the live files.
+ */
+interface NginxConfigStore {
+    static NginxConfigStore of(Stage stage, Path etc) {
+        Map<String, String> config = stage.getLoadBalancerConfig();
+        IngressValidator.Validate validator = IngressValidator.validateMode(stage);
+        if ("split".equals(config.get("layout")))
+            return new NginxConfigDir(etc.resolve(config.getOrDefault("include-dir",
+                stage.getPrefix() + "conf" + stage.getSuffix() + ".d")), validator);
+        return new NginxConfigFile(etc.resolve(config.getOrDefault("config-path",
+            stage.getPrefix() + "nginx" + stage.getSuffix() + ".conf")), validator);
+    }
+
+    /** The lock to hold while editing the config */
+    ReentrantLock lock();
+
+    /** The shared, cached config: it must never be modified */
+    NginxIndex read();
+
+    /** A config that can be modified */
+    NginxIndex readCopy();
+
+    /** Write the changes, if they are valid, and return how to restore the files as they were before */
+    Runnable write(NginxIndex index);
+}
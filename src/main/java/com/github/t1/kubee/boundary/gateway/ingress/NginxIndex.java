@@ -0,0 +1,196 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import com.github.t1.nginx.NginxConfig;
+import com.github.t1.nginx.NginxConfig.NginxServer;
+import com.github.t1.nginx.NginxConfig.NginxServerLocation;
+import com.github.t1.nginx.NginxConfig.NginxUpstream;
+import lombok.Getter;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * Hash indexes over an {@link NginxConfig}, so looking up an upstream or a server doesn't scan the whole config,
+ * which can have thousands of upstreams: one reverse proxy per node plus one load balancer per application.
+ * Edits have to go through the mutators here, so the indexes stay in sync with the config.
+ * <p>
+ * Servers are indexed by <code>name:listen</code> and by the upstream that their root location passes to;
+ * if several servers match, the first one wins, just like in a linear scan.
+ * <p>
+ * The mutators also keep a fingerprint of the changes: every changed upstream or server subtracts the hash of its
+ * old rendering and adds the hash of the new one. So {@link #isModified()} doesn't have to render the whole config,
+ * and edits that cancel each other out, e.g. removing a node from a load balancer and adding it back, leave no trace.
+ * <p>
+ * An upstream and the server passing to it form a <em>unit</em>, named like the upstream. The mutators record the
+ * {@link #changedUnits() changed units}, so a split config only has to write those. The config of a split index
+ * shares its elements with the cached config; the <code>unitLoader</code> loads a private copy of a unit
+ * before it's changed for the first time (copy-on-write per unit).
+ */
+final class NginxIndex {
+    static NginxIndex of(NginxConfig config) { return new NginxIndex(config, null); }
+
+    static NginxIndex of(NginxConfig config, Function<String, NginxConfig> unitLoader) { return new NginxIndex(config, unitLoader); }
+
+    @Getter private final NginxConfig config;
+    private final Function<String, NginxConfig> unitLoader;
+    private final Map<String, NginxUpstream> upstreams = new HashMap<>();
+    private final Map<String, List<NginxServer>> serversByHostPort = new HashMap<>();
+    private final Map<String, List<NginxServer>> serversByUpstream = new HashMap<>();
+    private final Set<String> ownUnits = new HashSet<>();
+    private final Set<String> changedUnits = new LinkedHashSet<>();
+    private long fingerprint = 0;
+
+    private NginxIndex(NginxConfig config, Function<String, NginxConfig> unitLoader) {
+        this.config = config;
+        this.unitLoader = unitLoader;
+        config.upstreams().forEach(this::index);
+        config.servers().forEach(this::index);
+    }
+
+    Optional<NginxUpstream> upstream(String name) { return Optional.ofNullable(upstreams.get(name)); }
+
+    Optional<NginxServer> server(String name, int listen) { return first(serversByHostPort.get(key(name, listen))); }
+
+    /** The server with a root location that passes to this upstream */
+    Optional<NginxServer> serverFor(String upstreamName) { return first(serversByUpstream.get(upstreamName)); }
+
+    /** The name of the upstream that the root location of this server passes to */
+    static Optional<String> upstreamNameOf(NginxServer server) {
+        return server.location("/").map(NginxServerLocation::getProxyPass).map(URI::getHost);
+    }
+
+    static String unitOf(NginxServer server) { return upstreamNameOf(server).orElse(server.getName()); }
+
+    /** True, if the mutators changed anything since the config was read */
+    boolean isModified() { return fingerprint != 0; }
+
+    /** The names of the units that the mutators touched, even if the changes cancel each other out */
+    Set<String> changedUnits() { return unmodifiableSet(changedUnits); }
+
+    void addUpstream(NginxUpstream upstream) {
+        change(upstream.getName());
+        config.addUpstream(upstream);
+        index(upstream);
+        fingerprint += hash(upstream);
+    }
+
+    /** Change the host-ports, etc. of an upstream in place; the <code>edit</code> may get a private copy passed */
+    void editUpstream(NginxUpstream upstream, Consumer<NginxUpstream> edit) {
+        change(upstream.getName());
+        NginxUpstream own = upstream(upstream.getName()).orElseThrow(() -> new IllegalStateException("no upstream " + upstream.getName()));
+        fingerprint -= hash(own);
+        edit.accept(own);
+        fingerprint += hash(own);
+    }
+
+    void removeUpstream(NginxUpstream upstream) {
+        change(upstream.getName());
+        upstream(upstream.getName()).ifPresent(own -> {
+            config.removeUpstream(own);
+            upstreams.remove(own.getName(), own);
+            fingerprint -= hash(own);
+        });
+    }
+
+    void addServer(NginxServer server) {
+        change(unitOf(server));
+        config.addServer(server);
+        index(server);
+        fingerprint += hash(server);
+    }
+
+    void addLocation(NginxServer server, NginxServerLocation location) {
+        change(unitOf(server));
+        NginxServer own = server(server.getName(), server.getListen()).orElseThrow(() -> new IllegalStateException("no server " + server.getName()));
+        unindex(own);
+        fingerprint -= hash(own);
+        own.addLocation(location);
+        change(unitOf(own)); // before indexing, so loading the unit can't replace the server
+        index(own);
+        fingerprint += hash(own);
+    }
+
+    void removeServer(NginxServer server) {
+        change(unitOf(server));
+        server(server.getName(), server.getListen()).ifPresent(own -> {
+            config.removeServer(own);
+            unindex(own);
+            fingerprint -= hash(own);
+        });
+    }
+
+    private void change(String unit) {
+        own(unit);
+        changedUnits.add(unit);
+    }
+
+    /** Replace the shared elements of the unit with a private copy */
+    private void own(String unit) {
+        if (unitLoader == null || !ownUnits.add(unit))
+            return;
+        upstream(unit).ifPresent(shared -> {
+            config.removeUpstream(shared);
+            upstreams.remove(unit, shared);
+        });
+        serverFor(unit).ifPresent(shared -> {
+            config.removeServer(shared);
+            unindex(shared);
+        });
+        NginxConfig copy = unitLoader.apply(unit);
+        copy.upstreams().forEach(upstream -> {
+            config.addUpstream(upstream);
+            index(upstream);
+        });
+        copy.servers().forEach(server -> {
+            config.addServer(server);
+            index(server);
+        });
+    }
+
+    private void index(NginxUpstream upstream) { upstreams.putIfAbsent(upstream.getName(), upstream); }
+
+    private void index(NginxServer server) {
+        serversByHostPort.computeIfAbsent(key(server.getName(), server.getListen()), k -> new ArrayList<>()).add(server);
+        upstreamNameOf(server).ifPresent(name -> serversByUpstream.computeIfAbsent(name, k -> new ArrayList<>()).add(server));
+    }
+
+    private void unindex(NginxServer server) {
+        remove(serversByHostPort, key(server.getName(), server.getListen()), server);
+        upstreamNameOf(server).ifPresent(name -> remove(serversByUpstream, name, server));
+    }
+
+    private static void remove(Map<String, List<NginxServer>> index, String key, NginxServer server) {
+        List<NginxServer> servers = index.get(key);
+        if (servers == null)
+            return;
+        servers.remove(server);
+        if (servers.isEmpty())
+            index.remove(key);
+    }
+
+    /** 64 bit FNV-1a of the rendered element, so changes practically never cancel each other out by accident */
+    private static long hash(Object element) {
+        long hash = 0xcbf29ce484222325L;
+        String string = element.toString();
+        for (int i = 0; i < string.length(); i++) {
+            hash ^= string.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static String key(String name, Integer listen) { return name + ":" + listen; }
+
+    private static <T> Optional<T> first(List<T> list) { return (list == null) ? Optional.empty() : Optional.of(list.get(0)); }
+}
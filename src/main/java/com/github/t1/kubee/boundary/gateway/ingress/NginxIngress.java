@@ -12,17 +12,16 @@ import com.google.common.annotations.VisibleForTesting;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
-import lombok.SneakyThrows;
 import lombok.extern.java.Log;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.IOException;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.joining;
@@ -30,6 +29,11 @@ import static java.util.stream.Collectors.toList;
 
 /**
  * see https://www.nginx.com/resources/admin-guide/load-balancer/
+ * <p>
+ * Reads the shared, cached {@link NginxConfig} until the first edit, which works on a private copy (copy-on-write).
+ * That's why the {@link ReverseProxy} and {@link LoadBalancer} views only hold names and look up the current objects.
+ * All lookups go through the {@link NginxIndex} of the config, and so do all structural edits, to keep it in sync.
+ * The {@link NginxConfigStore} decides, if the config is in one file or split into one file per load balancer and reverse proxy.
  */
 @Log
 @NoArgsConstructor(force = true)
@@ -44,59 +48,123 @@ class NginxIngress implements Ingress {
     }
 
     private final @NotNull Stage stage;
-    private final @NotNull NginxConfig nginxConfig;
+    private @NotNull NginxConfig nginxConfig;
+    private @NotNull NginxIndex index;
+    private boolean privateCopy = false;
+    private boolean edited = false;
+    private int batchDepth = 0;
+    /** The rollback of the config that has been written, but not reloaded, yet */
+    private Runnable unreloaded;
 
-    private final @NotNull Path configPath;
-    private final @NotNull String original;
+    private final @NotNull NginxConfigStore store;
 
     NginxIngress(@NotNull Stage stage) {
         this.stage = stage;
 
-        this.configPath = configPath();
-        this.nginxConfig = NginxConfig.readFrom(configPath.toUri());
-        this.original = nginxConfig.toString();
+        this.store = NginxConfigStore.of(stage, NGINX_ETC);
+        use(store.read());
     }
 
-    private Path configPath() {
-        return NGINX_ETC.resolve(stage.getLoadBalancerConfig().getOrDefault("config-path",
-            stage.getPrefix() + "nginx" + stage.getSuffix() + ".conf"));
+    private void use(NginxIndex index) {
+        this.index = index;
+        this.nginxConfig = index.getConfig();
     }
 
-    @Override public boolean hasChanged() { return !nginxConfig.toString().equals(original); }
+    /** The index of the config to modify: on the first call, replace the shared config with a private copy */
+    private NginxIndex edit() {
+        if (!privateCopy) {
+            log.fine("copy nginx config " + store + " for editing");
+            use(store.readCopy());
+            privateCopy = true;
+            edited = true;
+        }
+        return index;
+    }
+
+    @Override public boolean hasChanged() { return edited && index.isModified(); }
 
+    /** Reloads only when the outermost lock is released, so other stages can write their config in the meantime */
     @Override public void apply() {
         log.info("apply ingress config");
-        writeConfig(nginxConfig.toString());
+        unreloaded = store.write(index);
+        privateCopy = false; // now it's the shared config
+        if (!store.lock().isHeldByCurrentThread())
+            reload();
+    }
 
-        log.info("reload ingress");
-        reload();
+    @Override public void batch(Runnable work) {
+        locked(() -> {
+            batchDepth++;
+            try {
+                work.run();
+            } finally {
+                batchDepth--;
+            }
+            if (batchDepth == 0 && hasChanged())
+                apply();
+        });
     }
 
-    @SneakyThrows(IOException.class) private void writeConfig(String string) {
-        Files.write(configPath, string.getBytes());
+    /**
+     * Only one thread may edit a config file at a time. If we didn't start editing, yet,
+     * we first pick up the current config, as another thread may have changed it since we read it.
+     */
+    private void locked(Runnable work) {
+        ReentrantLock lock = store.lock();
+        lock.lock();
+        try {
+            if (lock.getHoldCount() == 1 && !privateCopy)
+                refresh();
+            work.run();
+        } finally {
+            lock.unlock();
+        }
+        if (!lock.isHeldByCurrentThread() && unreloaded != null)
+            reload();
+    }
+
+    private void refresh() {
+        use(store.read());
+    }
+
+    private void applyUnlessBatched() {
+        if (batchDepth == 0)
+            apply();
+        else
+            log.fine("defer applying ingress config to the end of the batch");
     }
 
     private void reload() {
-        String result = IngressReloader.reloadMode(stage).reload();
-        if (result != null) {
-            String message = "failed to reload load balancer: " + result;
-            log.warning(message + ". restoring original config in " + configPath);
-            writeConfig(original);
-            throw new RuntimeException(message);
-        }
+        Runnable rollback = unreloaded;
+        unreloaded = null;
+        log.info("reload ingress");
+        String result = IngressReloader.reload(stage, () -> {
+            ReentrantLock lock = store.lock();
+            lock.lock();
+            try {
+                log.warning("failed to reload load balancer. restoring original config in " + store);
+                rollback.run();
+            } finally {
+                lock.unlock();
+            }
+        });
+        if (result != null)
+            throw new RuntimeException("failed to reload load balancer: " + result);
+        edited = false;
     }
 
     @Override public void removeReverseProxyFor(ClusterNode node) {
-        nginxConfig.removeServer(new HostPort(node.host(), node.port()));
-        nginxConfig.removeUpstream(node.host());
+        NginxIndex index = edit();
+        index.server(node.host(), node.port()).ifPresent(index::removeServer);
+        index.upstream(node.host()).ifPresent(index::removeUpstream);
     }
 
     @Override public boolean hasReverseProxyFor(ClusterNode node) {
-        return nginxConfig.upstream(node.host()).isPresent();
+        return index.upstream(node.host()).isPresent();
     }
 
     @Override public Stream<ReverseProxy> reverseProxies() {
-        return nginxConfig.upstreams().filter(this::isReverseProxy).map(NginxReverseProxy::new);
+        return nginxConfig.upstreams().filter(this::isReverseProxy).map(upstream -> new NginxReverseProxy(upstream.getName()));
     }
 
     private boolean isReverseProxy(NginxUpstream upstream) {
@@ -104,27 +172,32 @@ class NginxIngress implements Ingress {
     }
 
     @Override public void addToLoadBalancer(String application, ClusterNode node) {
-        if (!hasReverseProxyFor(node))
-            throw new IllegalStateException("no reverse proxy found for " + node.host() + " in " + toString(reverseProxies()));
-        int port = getOrCreateReverseProxyFor(node).getPort();
-        getOrCreateLoadBalancerFor(application).addOrUpdateEndpoint(new Endpoint(node.host(), port));
-        apply();
+        locked(() -> {
+            if (!hasReverseProxyFor(node))
+                throw new IllegalStateException("no reverse proxy found for " + node.host() + " in " + toString(reverseProxies()));
+            int port = getOrCreateReverseProxyFor(node).getPort();
+            getOrCreateLoadBalancerFor(application).addOrUpdateEndpoint(new Endpoint(node.host(), port));
+            applyUnlessBatched();
+        });
     }
 
     @Override public ReverseProxy getOrCreateReverseProxyFor(ClusterNode node) {
         getOrCreateServer(node.host(), node.port(), node.host(), "");
-        return new NginxReverseProxy(getOrCreateUpstream(node.host()));
+        return new NginxReverseProxy(getOrCreateUpstream(node.host()).getName());
     }
 
     @RequiredArgsConstructor
     class NginxReverseProxy implements ReverseProxy {
-        private final NginxUpstream upstream;
+        private final String upstreamName;
+
+        private NginxUpstream upstream() { return upstreamNamed(index, upstreamName); }
 
-        @Override public String name() { return upstream.getName(); }
+        @Override public String name() { return upstreamName; }
 
-        @Override public Integer listen() { return serverFor(upstream).map(NginxServer::getListen).orElse(null); }
+        @Override public Integer listen() { return index.serverFor(upstreamName).map(NginxServer::getListen).orElse(null); }
 
         @Override public int getPort() {
+            NginxUpstream upstream = upstream();
             List<HostPort> hostPorts = upstream.getHostPorts();
             if (hostPorts.isEmpty())
                 return -1;
@@ -134,16 +207,21 @@ class NginxIngress implements Ingress {
         }
 
         @Override public void setPort(int port) {
-            log.info("set port of ReverseProxy " + upstream.getName() + " to " + port);
+            log.info("set port of ReverseProxy " + upstreamName + " to " + port);
+            NginxIndex index = edit();
+            NginxUpstream upstream = upstreamNamed(index, upstreamName);
             List<HostPort> hostPorts = upstream.getHostPorts();
             log.finer("upstream was " + hostPorts);
             if (hostPorts.size() > 1)
                 throw new IllegalStateException("expected no more than one endpoint in reverse proxy " + upstream.getName() + " but got " + hostPorts);
-            if (hostPorts.isEmpty()) {
-                hostPorts.add(new HostPort(upstream.getName(), port));
-            } else {
-                hostPorts.set(0, hostPorts.get(0).withPort(port));
-            }
+            index.editUpstream(upstream, changed -> {
+                List<HostPort> changedHostPorts = changed.getHostPorts();
+                if (changedHostPorts.isEmpty()) {
+                    changedHostPorts.add(new HostPort(changed.getName(), port));
+                } else {
+                    changedHostPorts.set(0, changedHostPorts.get(0).withPort(port));
+                }
+            });
         }
     }
 
@@ -151,7 +229,7 @@ class NginxIngress implements Ingress {
     @Override public Stream<LoadBalancer> loadBalancers() {
         return nginxConfig.servers()
             .filter(this::hasLoadBalancerUpstream)
-            .map(server -> (LoadBalancer) new NginxLoadBalancer(server))
+            .map(server -> (LoadBalancer) new NginxLoadBalancer(upstreamFor(server).orElseThrow(IllegalStateException::new).getName()))
             .collect(toList()).stream(); // copy to protect from ConcurrentModificationException
     }
 
@@ -172,98 +250,107 @@ class NginxIngress implements Ingress {
     }
 
     @Override public void removeFromLoadBalancer(String application, ClusterNode node) {
-        if (hasLoadBalancerFor(application)) {
-            log.info("remove " + node.host() + " from lb for " + application);
-            getOrCreateLoadBalancerFor(application).removeHost(node.host());
-            apply();
-        } else {
-            log.fine("no lb found for " + application);
-        }
+        locked(() -> {
+            if (hasLoadBalancerFor(application)) {
+                log.info("remove " + node.host() + " from lb for " + application);
+                getOrCreateLoadBalancerFor(application).removeHost(node.host());
+                applyUnlessBatched();
+            } else {
+                log.fine("no lb found for " + application);
+            }
+        });
     }
 
     private boolean hasLoadBalancerFor(String application) {
-        return nginxConfig.upstream(application + LB_SUFFIX).isPresent();
+        return index.upstream(application + LB_SUFFIX).isPresent();
     }
 
     private LoadBalancer getOrCreateLoadBalancerFor(String application) {
         return new NginxLoadBalancer(application, 80, application + LB_SUFFIX, application);
     }
 
-    private Optional<NginxServer> serverFor(NginxUpstream upstream) {
-        return nginxConfig.servers().filter(server -> upstreamFor(server).map(u -> u == upstream).orElse(false)).findAny();
+    private Optional<NginxUpstream> upstreamFor(@NonNull NginxServer server) {
+        return NginxIndex.upstreamNameOf(server).flatMap(index::upstream);
     }
 
-    private Optional<NginxUpstream> upstreamFor(@NonNull NginxServer server) {
-        return nginxConfig.upstream(rootLocationProxyPass(server).getHost());
+    private static NginxUpstream upstreamNamed(NginxIndex index, String upstreamName) {
+        return index.upstream(upstreamName).orElseThrow(() -> new IllegalStateException("no upstream " + upstreamName));
     }
 
     private URI rootLocationProxyPass(@NonNull NginxServer server) {
         return server.location("/").orElseThrow(IllegalStateException::new).getProxyPass();
     }
 
-    @NoArgsConstructor(force = true)
+    @RequiredArgsConstructor
     class NginxLoadBalancer implements LoadBalancer {
-        private final NginxServer server;
-        private final NginxUpstream upstream;
+        private final String upstreamName;
 
-        NginxLoadBalancer(NginxServer server) {
-            this.server = server;
-            this.upstream = upstreamFor(server).orElseThrow(IllegalStateException::new);
+        NginxLoadBalancer(String fromPattern, int fromListen, String upstreamName, String upstreamPath) {
+            getOrCreateServer(fromPattern, fromListen, upstreamName, upstreamPath);
+            this.upstreamName = getOrCreateUpstream(upstreamName).getName();
         }
 
-        NginxLoadBalancer(String fromPattern, int fromListen, String upstreamName, String upstreamPath) {
-            this.server = getOrCreateServer(fromPattern, fromListen, upstreamName, upstreamPath);
-            this.upstream = getOrCreateUpstream(upstreamName);
+        private NginxUpstream upstream() { return upstreamNamed(index, upstreamName); }
+
+        private void editUpstream(Consumer<NginxUpstream> edit) {
+            NginxIndex index = edit();
+            index.editUpstream(upstreamNamed(index, upstreamName), edit);
         }
 
         @Override public String applicationName() {
-            String upstreamName = upstream.getName();
             assert upstreamName.endsWith(LB_SUFFIX);
             return upstreamName.substring(0, upstreamName.length() - LB_SUFFIX.length());
         }
 
-        @Override public String method() { return upstream.getMethod(); }
+        @Override public String method() { return upstream().getMethod(); }
 
         @Override public void updatePort(Endpoint endpoint, Integer newPort) {
             log.info("LB port doesn't match actual: " + endpoint + " -> " + newPort);
-            upstream.setPort(toHostPort(endpoint), newPort);
+            editUpstream(upstream -> upstream.setPort(toHostPort(endpoint), newPort));
         }
 
-        @Override public boolean hasHost(String host) { return upstream.hasHost(host); }
+        @Override public boolean hasHost(String host) { return upstream().hasHost(host); }
 
-        @Override public int indexOf(String host) { return upstream.indexOf(host); }
+        @Override public int indexOf(String host) { return upstream().indexOf(host); }
 
         @Override public void removeHost(String host) {
-            upstream.removeHost(host);
+            editUpstream(upstream -> upstream.removeHost(host));
+            NginxUpstream upstream = upstream();
             if (upstream.isEmpty())
-                remove();
+                remove(upstream);
         }
 
-        private void remove() {
-            nginxConfig.removeServer(server);
-            nginxConfig.removeUpstream(upstream);
+        private void remove(NginxUpstream upstream) {
+            index.serverFor(upstreamName).ifPresent(index::removeServer);
+            index.removeUpstream(upstream);
         }
 
         @Override public boolean hasEndpoint(Endpoint endpoint) { return endpoints().anyMatch(endpoint::equals); }
 
-        @Override public Stream<Endpoint> endpoints() { return upstream.hostPorts().map(NginxIngress::toEndpoint).collect(toList()).stream(); }
+        @Override public Stream<Endpoint> endpoints() { return upstream().hostPorts().map(NginxIngress::toEndpoint).collect(toList()).stream(); }
 
         @Override public void addOrUpdateEndpoint(Endpoint endpoint) {
-            if (upstream.hasHost(endpoint.getHost())) {
-                log.info("Update endpoint " + endpoint + " to LB " + upstream.getName());
-                upstream.updateHostPort(toHostPort(endpoint));
-            } else {
-                log.info("Add missing endpoint " + endpoint + " to LB " + upstream.getName());
-                upstream.addHostPort(toHostPort(endpoint));
-            }
+            editUpstream(upstream -> {
+                if (upstream.hasHost(endpoint.getHost())) {
+                    log.info("Update endpoint " + endpoint + " to LB " + upstreamName);
+                    upstream.updateHostPort(toHostPort(endpoint));
+                } else {
+                    log.info("Add missing endpoint " + endpoint + " to LB " + upstreamName);
+                    upstream.addHostPort(toHostPort(endpoint));
+                }
+            });
         }
     }
 
     private NginxServer getOrCreateServer(String fromPattern, int fromListen, String upstreamName, String upstreamPath) {
-        NginxServer server = nginxConfig.server(fromPattern, fromListen).orElseGet(() -> {
+        Optional<NginxServer> existing = index.server(fromPattern, fromListen).filter(server -> server.location("/").isPresent());
+        if (existing.isPresent())
+            return existing.get();
+        NginxIndex index = edit();
+        NginxServer server = index.server(fromPattern, fromListen).orElseGet(() -> {
             log.info("Create missing LB server: " + fromPattern);
             NginxServer newServer = NginxServer.named(fromPattern).setListen(fromListen);
-            nginxConfig.addServer(newServer);
+            index.addServer(newServer);
             return newServer;
         });
         server.location("/").orElseGet(() -> {
@@ -272,19 +359,23 @@ class NginxIngress implements Ingress {
                 .setProxyPass(URI.create("http://" + upstreamName + "/" + upstreamPath))
                 .setAfter("proxy_set_header Host      $host;\n" +
                     "            proxy_set_header X-Real-IP $remote_addr;");
-            server.addLocation(newLocation);
+            index.addLocation(server, newLocation);
             return newLocation;
         });
         return server;
     }
 
     private NginxUpstream getOrCreateUpstream(String upstreamName) {
-        return nginxConfig.upstream(upstreamName).orElseGet(() -> {
+        Optional<NginxUpstream> existing = index.upstream(upstreamName);
+        if (existing.isPresent())
+            return existing.get();
+        NginxIndex index = edit();
+        return index.upstream(upstreamName).orElseGet(() -> {
             log.info("Create missing LB upstream: " + upstreamName);
             NginxUpstream newUpstream = NginxUpstream
                 .named(upstreamName)
                 .setMethod("least_conn");
-            nginxConfig.addUpstream(newUpstream);
+            index.addUpstream(newUpstream);
             return newUpstream;
         });
     }
@@ -0,0 +1,140 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import com.github.t1.kubee.boundary.gateway.ingress.IngressReloader.Reload;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.java.Log;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Merges reload requests for the same {@link Reload#target() target}: the first request opens a debounce window,
+ * and all requests arriving before the reload actually starts wait for that one reload and share its result.
+ * There is at most one reload running per target; requests arriving while it runs get the next reload,
+ * as they may have to pick up a config that was written after the running reload started.
+ * <p>
+ * When a reload fails, the rollbacks of all merged requests run, the latest first, so each of them finds
+ * the config as its own change left it. Only then the requests complete.
+ * <p>
+ * The threads are started when needed and stop when they are idle for a while, so nothing is left running,
+ * e.g. when the application is undeployed; {@link #shutdown()} stops them right away.
+ */
+@Log
+class ReloadScheduler {
+    private static final long IDLE_SECONDS = 10;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static ScheduledThreadPoolExecutor scheduler;
+
+    private static final Map<String, Target> TARGETS = new ConcurrentHashMap<>();
+
+    /** Reload the target of the <code>reload</code> and return the error message or <code>null</code> */
+    static String reload(Reload reload, Duration debounce) { return join(request(reload, debounce, emptyList())); }
+
+    /** Request a reload of the target, and run the <code>rollbacks</code> (in reverse order) if it fails */
+    static CompletableFuture<String> request(Reload reload, Duration debounce, List<Runnable> rollbacks) {
+        return TARGETS.computeIfAbsent(reload.target(), Target::new).request(reload, debounce, rollbacks);
+    }
+
+    /** The error message or <code>null</code> */
+    static String join(CompletableFuture<String> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = new ScheduledThreadPoolExecutor(4, runnable -> {
+                Thread thread = new Thread(runnable, "ingress-reload-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.setKeepAliveTime(IDLE_SECONDS, SECONDS);
+            scheduler.allowCoreThreadTimeOut(true);
+        }
+        return scheduler;
+    }
+
+    /** Stop the threads after the pending reloads are done; a later request starts new ones */
+    static synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    private static class Group {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        final List<Runnable> rollbacks = new ArrayList<>();
+    }
+
+    @RequiredArgsConstructor
+    private static class Target {
+        private final String name;
+        private final Object running = new Object();
+        private Group pending;
+
+        synchronized CompletableFuture<String> request(Reload reload, Duration debounce, List<Runnable> rollbacks) {
+            if (pending == null) {
+                Group next = new Group();
+                pending = next;
+                scheduler().schedule(() -> run(reload, next), debounce.toNanos(), NANOSECONDS);
+            } else {
+                log.fine("merge reload request for " + name);
+            }
+            pending.rollbacks.addAll(rollbacks);
+            return pending.future;
+        }
+
+        private void run(Reload reload, Group group) {
+            synchronized (running) {
+                List<Runnable> rollbacks;
+                synchronized (this) {
+                    if (pending == group)
+                        pending = null; // later requests need a new reload
+                    rollbacks = new ArrayList<>(group.rollbacks);
+                }
+                log.fine("reload " + name);
+                try {
+                    String result = reload.reload();
+                    if (result != null)
+                        rollBack(rollbacks, null);
+                    group.future.complete(result);
+                } catch (RuntimeException e) {
+                    rollBack(rollbacks, e);
+                    group.future.completeExceptionally(e);
+                }
+            }
+        }
+
+        private void rollBack(List<Runnable> rollbacks, RuntimeException failure) {
+            log.fine("roll back " + rollbacks.size() + " changes for " + name);
+            for (int i = rollbacks.size() - 1; i >= 0; i--) {
+                try {
+                    rollbacks.get(i).run();
+                } catch (RuntimeException e) {
+                    log.log(WARNING, "rollback failed for " + name, e);
+                    if (failure != null)
+                        failure.addSuppressed(e);
+                }
+            }
+        }
+    }
+}
@@ -1,11 +1,12 @@
 /**
- * See {@link com.github.t1.kubee.boundary.gateway.ingress.NginxIngress}.
+ * See {@link com.github.t1.kubee.boundary.gateway.ingress.NginxIngress} and {@link com.github.t1.kubee.boundary.gateway.ingress.HaproxyIngress}.
  *
  * NOTE: This package is free of any library dependencies, so it can be used easily from the CLI boundary, too.
  */
 @DependsUpon(packagesOf = {
     com.github.t1.kubee.boundary.cli.reload.NginxReloadService.class,
     com.github.t1.kubee.entity.LoadBalancer.class,
+    com.github.t1.kubee.tools.files.AtomicFiles.class,
 
     com.github.t1.nginx.NginxConfig.class,
 })
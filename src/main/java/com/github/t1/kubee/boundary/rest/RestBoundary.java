@@ -2,15 +2,21 @@ package com.github.t1.kubee.boundary.rest;
 
 import com.github.t1.kubee.control.ClusterReconditioner;
 import com.github.t1.kubee.control.Controller;
+import com.github.t1.kubee.control.Jobs;
+import com.github.t1.kubee.control.Jobs.JobListener;
 import com.github.t1.kubee.entity.Cluster;
 import com.github.t1.kubee.entity.ClusterNode;
 import com.github.t1.kubee.entity.Deployment;
 import com.github.t1.kubee.entity.DeploymentId;
+import com.github.t1.kubee.entity.Job;
 import com.github.t1.kubee.entity.LoadBalancer;
 import com.github.t1.kubee.entity.ReverseProxy;
+import com.github.t1.kubee.entity.Rollout;
 import com.github.t1.kubee.entity.Slot;
 import com.github.t1.kubee.entity.Stage;
 import com.github.t1.kubee.entity.Version;
+import com.github.t1.kubee.tools.http.HttpClients;
+import com.github.t1.kubee.tools.http.HttpMetrics.HostMetrics;
 import com.github.t1.log.Logged;
 import lombok.Builder;
 import lombok.Data;
@@ -19,24 +25,34 @@ import lombok.extern.slf4j.Slf4j;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.ws.rs.BadRequestException;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Link;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
 import java.util.stream.Stream;
 
 import static com.github.t1.kubee.tools.http.ProblemDetail.badRequest;
 import static com.github.t1.log.LogLevel.INFO;
 import static java.util.Arrays.asList;
 import static java.util.Locale.US;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.stream.Collectors.toList;
+import static javax.ws.rs.core.MediaType.SERVER_SENT_EVENTS;
 
 @Logged(level = INFO)
 @Slf4j
@@ -47,6 +63,7 @@ public class RestBoundary {
 
     @Inject Controller controller;
     @Inject ClusterReconditioner reconditioner;
+    @Inject Jobs jobs;
 
     @GET public List<Link> getLinks() {
         return asList(
@@ -110,12 +127,9 @@ public class RestBoundary {
     private Stream<Stage> stages() { return controller.clusters().flatMap(Cluster::stages).distinct(); }
 
 
-    @GET @Path("/deployments") public List<Deployment> getDeployments() {
-        return controller.clusters().flatMap(this::deploymentsOnCluster).sorted().collect(toList());
-    }
-
-    private Stream<Deployment> deploymentsOnCluster(Cluster cluster) {
-        return cluster.stages().flatMap(stage -> stage.nodes(cluster)).flatMap(controller::fetchDeploymentsOn);
+    @GET @Path("/deployments") public CompletionStage<List<Deployment>> getDeployments() {
+        return controller.fetchDeploymentsAsync(controller.clusters().flatMap(Cluster::nodes))
+            .thenApply(deployments -> deployments.stream().sorted().collect(toList()));
     }
 
     @GET @Path("/deployments/{id}") public GetDeploymentResponse getDeployment(@PathParam("id") DeploymentId id) {
@@ -150,7 +164,11 @@ public class RestBoundary {
 
     public enum DeploymentMode {deploy, balance, unbalance, undeploy}
 
-    @POST @Path("/deployments/{id}") public void postDeployments(
+    /**
+     * Deploying takes a while, so it runs as a {@link Job}: we return <code>202 Accepted</code> with the job,
+     * and the client can follow its progress at <code>jobs/{id}/events</code>. The other modes are quick.
+     */
+    @POST @Path("/deployments/{id}") public Response postDeployments(
         @PathParam("id") DeploymentId id,
         @FormParam("version") String version,
         @FormParam("mode") DeploymentMode mode) {
@@ -162,8 +180,10 @@ public class RestBoundary {
             case deploy:
                 if (version == null)
                     throw badRequest().detail("version is a required parameter when deploying").exception();
-                controller.deploy(id, version);
-                break;
+                Job job = jobs.submit("deploy " + id + " @ " + version, progress -> controller.deploy(id, version, progress));
+                return Response.accepted(job)
+                    .location(uriInfo.getBaseUriBuilder().path(RestBoundary.class, "getJob").build(job.getId()))
+                    .build();
             case balance:
                 controller.balance(id);
                 break;
@@ -174,8 +194,96 @@ public class RestBoundary {
                 controller.undeploy(id);
                 break;
         }
+        return Response.noContent().build();
     }
 
+
+    @GET @Path("/jobs") public List<Job> getJobs() { return jobs.jobs().collect(toList()); }
+
+    @GET @Path("/jobs/{id}") public Job getJob(@PathParam("id") String id) {
+        return jobs.job(id).orElseThrow(() -> new NotFoundException("job not found: '" + id + "'"));
+    }
+
+    /**
+     * Every step of the job is a <code>step</code> event; the final event is named after the state, with the error, if any.
+     * When the client goes away, we stop listening to the job.
+     */
+    @GET @Path("/jobs/{id}/events") @Produces(SERVER_SENT_EVENTS)
+    public void getJobEvents(@PathParam("id") String id, @Context SseEventSink sink, @Context Sse sse) {
+        boolean found = jobs.subscribe(id, new JobListener() {
+            @Override public void step(String step) { send(sse.newEvent("step", step)); }
+
+            @Override public void finished(Job job) {
+                send(sse.newEvent(job.getState().name(), (job.getError() == null) ? "" : job.getError()))
+                    .whenComplete((result, e) -> sink.close());
+            }
+
+            private CompletionStage<?> send(OutboundSseEvent event) {
+                if (sink.isClosed()) {
+                    jobs.unsubscribe(id, this);
+                    return completedFuture(null);
+                }
+                return sink.send(event).whenComplete((result, e) -> {
+                    if (e != null) {
+                        log.debug("can't send event of job {}; unsubscribe: {}", id, e.toString());
+                        jobs.unsubscribe(id, this);
+                        sink.close();
+                    }
+                });
+            }
+        });
+        if (!found) {
+            sink.close();
+            throw new NotFoundException("job not found: '" + id + "'");
+        }
+    }
+
+
+    /**
+     * Roll the <code>version</code> of the <code>application</code> out to all nodes of a <code>stage</code>
+     * and/or <code>cluster</code>, or to all nodes, if neither is given. Like a deploy, this runs as a {@link Job};
+     * the job fails, if the rollout was aborted or some nodes were unreachable.
+     */
+    @POST @Path("/rollouts") public Response postRollouts(
+        @FormParam("application") String application,
+        @FormParam("version") String version,
+        @FormParam("stage") String stageName,
+        @FormParam("cluster") String clusterName,
+        @FormParam("batchSize") @DefaultValue("1") int batchSize,
+        @FormParam("maxUnavailable") @DefaultValue("1") int maxUnavailable) {
+        if (application == null)
+            throw badRequest().detail("application is a required parameter").exception();
+        if (version == null)
+            throw badRequest().detail("version is a required parameter").exception();
+        if (batchSize < 1 || maxUnavailable < 1)
+            throw badRequest().detail("batchSize and maxUnavailable must be at least 1").exception();
+        List<ClusterNode> nodes = controller.clusters()
+            .filter(cluster -> clusterName == null || cluster.getSimpleName().equals(clusterName))
+            .flatMap(Cluster::nodes)
+            .filter(node -> stageName == null || node.getStage().getName().equals(stageName))
+            .collect(toList());
+        if (nodes.isEmpty())
+            throw badRequest().detail("no nodes found for stage " + stageName + " and cluster " + clusterName).exception();
+        Job job = jobs.submit("roll out " + application + " @ " + version + " to " + nodes.size() + " nodes", progress -> {
+            Rollout rollout = controller.rollout(application, version, nodes, batchSize, maxUnavailable, progress);
+            if (!rollout.isComplete())
+                throw new IllegalStateException("rollout of " + application + " @ " + version + " is incomplete");
+        });
+        return Response.accepted(job)
+            .location(uriInfo.getBaseUriBuilder().path(RestBoundary.class, "getJob").build(job.getId()))
+            .build();
+    }
+
+
+    /**
+     * The requests we sent to every host: how many, how many failed, how many are still waiting for an answer,
+     * and how long they took. These are counts of requests, not statistics of the connection pool.
+     */
+    @GET @Path("/http-metrics") public List<HostMetrics> getHttpMetrics() {
+        return new ArrayList<>(HttpClients.metrics().snapshot().values());
+    }
+
+
     @POST @Path("/recondition") public void postRecondition() {
         reconditioner.run();
     }
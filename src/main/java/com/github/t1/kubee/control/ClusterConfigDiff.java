@@ -0,0 +1,120 @@
+package com.github.t1.kubee.control;
+
+import com.github.t1.kubee.entity.Cluster;
+import com.github.t1.kubee.entity.ClusterNode;
+import com.github.t1.kubee.entity.DeploymentStatus;
+import com.github.t1.kubee.entity.Stage;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.github.t1.kubee.entity.DeploymentStatus.running;
+
+/**
+ * The structural difference between two versions of the cluster config:
+ * the clusters that need a full recondition, because they are new or something besides the status changed,
+ * and the status changes of the other clusters, which only affect their load balancers.
+ * Removed clusters are not reconditioned; a full recondition doesn't clean them up, either.
+ */
+@Value
+public class ClusterConfigDiff {
+    public static ClusterConfigDiff between(List<Cluster> before, List<Cluster> after) {
+        Map<String, Cluster> beforeById = new HashMap<>();
+        before.forEach(cluster -> beforeById.put(cluster.id(), cluster));
+
+        List<Cluster> changedClusters = new ArrayList<>();
+        List<StatusChange> statusChanges = new ArrayList<>();
+        for (Cluster cluster : after) {
+            Cluster old = beforeById.get(cluster.id());
+            if (old == null || !isSameButStatus(old, cluster))
+                changedClusters.add(cluster);
+            else
+                addStatusChanges(old, cluster, statusChanges);
+        }
+        return new ClusterConfigDiff(changedClusters, statusChanges);
+    }
+
+    private static boolean isSameButStatus(Cluster before, Cluster after) {
+        if (!Objects.equals(before.getHost(), after.getHost())
+            || !Objects.equals(before.getSlot(), after.getSlot())
+            || !Objects.equals(before.getHealthConfig(), after.getHealthConfig()))
+            return false;
+        List<Stage> beforeStages = stages(before);
+        List<Stage> afterStages = stages(after);
+        if (beforeStages.size() != afterStages.size())
+            return false;
+        for (int i = 0; i < beforeStages.size(); i++)
+            if (!isSameButStatus(beforeStages.get(i), afterStages.get(i)))
+                return false;
+        return true;
+    }
+
+    private static List<Stage> stages(Cluster cluster) { return (cluster.getStages() == null) ? new ArrayList<>() : cluster.getStages(); }
+
+    private static boolean isSameButStatus(Stage before, Stage after) {
+        return Objects.equals(before.getName(), after.getName())
+            && Objects.equals(before.getProvider(), after.getProvider())
+            && Objects.equals(before.getDomainName(), after.getDomainName())
+            && Objects.equals(before.getNodes(), after.getNodes())
+            && before.getCount() == after.getCount()
+            && before.getIndexLength() == after.getIndexLength()
+            && Objects.equals(before.getPrefix(), after.getPrefix())
+            && Objects.equals(before.getSuffix(), after.getSuffix())
+            && Objects.equals(before.getPath(), after.getPath())
+            && Objects.equals(before.getLoadBalancerConfig(), after.getLoadBalancerConfig());
+    }
+
+    private static void addStatusChanges(Cluster before, Cluster cluster, List<StatusChange> statusChanges) {
+        List<Stage> beforeStages = stages(before);
+        List<Stage> afterStages = stages(cluster);
+        for (int i = 0; i < afterStages.size(); i++) {
+            Stage stage = afterStages.get(i);
+            Map<String, DeploymentStatus> beforeStatus = beforeStages.get(i).getStatus();
+            Map<String, DeploymentStatus> afterStatus = stage.getStatus();
+            Set<String> keys = new LinkedHashSet<>(beforeStatus.keySet());
+            keys.addAll(afterStatus.keySet());
+            for (String key : keys) {
+                DeploymentStatus from = beforeStatus.getOrDefault(key, running);
+                DeploymentStatus to = afterStatus.getOrDefault(key, running);
+                if (from == to)
+                    continue;
+                int colon = key.indexOf(':');
+                int number = (colon < 1) ? -1 : parseNumber(key.substring(0, colon));
+                if (number < 1 || number > stage.getCount())
+                    continue; // no such node
+                statusChanges.add(new StatusChange(stage.nodeAt(cluster, number), key.substring(colon + 1), from, to));
+            }
+        }
+    }
+
+    private static int parseNumber(String number) {
+        try {
+            return Integer.parseInt(number);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Clusters that are new or have a change besides the status */
+    List<Cluster> changedClusters;
+
+    /** Changes of the {@link Stage#getStatus() status} of applications in otherwise unchanged clusters */
+    List<StatusChange> statusChanges;
+
+    public boolean isEmpty() { return changedClusters.isEmpty() && statusChanges.isEmpty(); }
+
+    @Value public static class StatusChange {
+        ClusterNode node;
+        String application;
+        DeploymentStatus before;
+        DeploymentStatus after;
+
+        @Override public String toString() { return node + ":" + application + " " + before + " -> " + after; }
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.t1.kubee.control;
 
+import com.github.t1.kubee.boundary.config.ReconditionThreads;
 import com.github.t1.kubee.boundary.gateway.clusters.ClusterStore;
 import com.github.t1.kubee.boundary.gateway.container.ClusterStatus;
 import com.github.t1.kubee.boundary.gateway.container.ClusterStatusGateway;
@@ -7,6 +8,7 @@ import com.github.t1.kubee.boundary.gateway.deployer.DeployerGateway;
 import com.github.t1.kubee.boundary.gateway.ingress.Ingress;
 import com.github.t1.kubee.boundary.gateway.ingress.LoadBalancer;
 import com.github.t1.kubee.boundary.gateway.ingress.ReverseProxy;
+import com.github.t1.kubee.control.ClusterConfigDiff.StatusChange;
 import com.github.t1.kubee.entity.Cluster;
 import com.github.t1.kubee.entity.ClusterNode;
 import com.github.t1.kubee.entity.DeploymentStatus;
@@ -17,17 +19,39 @@ import lombok.NoArgsConstructor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.java.Log;
 
+import javax.annotation.Resource;
 import javax.inject.Inject;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 import static com.github.t1.kubee.boundary.gateway.ingress.IngressFactory.ingress;
+import static com.github.t1.kubee.boundary.gateway.ingress.IngressFactory.reloadOnce;
 import static com.github.t1.kubee.entity.DeploymentStatus.running;
 import static com.github.t1.kubee.entity.DeploymentStatus.unbalanced;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toList;
 
 /**
  * Takes the cluster-config and checks if the docker-compose is running as defined. If not, scale it up or down as specified.
  * Then look at the load balancer config, and update it as specified in the (updated) docker-compose file.
+ * <p>
+ * With more than one thread, all clusters and their stages are reconditioned at the same time;
+ * the {@link Ingress#batch(Runnable) ingress batch} of every stage locks the ingress config file,
+ * so stages sharing one config are still done one after the other.
+ * <p>
+ * A load balancer used by several stages is reloaded only once per cluster: one after the other, the stages
+ * {@link com.github.t1.kubee.boundary.gateway.ingress.IngressFactory#reloadOnce(Runnable) reload together} at the end;
+ * in parallel, their reloads are merged within the <code>reload-debounce</code> window.
  */
 @Log
 @AllArgsConstructor
@@ -36,21 +60,172 @@ public class ClusterReconditioner implements Runnable {
     @Inject ClusterStore clusterStore;
     @Inject DeployerGateway deployerGateway;
     @Inject ClusterStatusGateway clusterStatusGateway;
+    @Inject @ReconditionThreads int threads = 1;
+    /** Don't put back the nodes that the health monitor took out; <code>null</code> when there is none, e.g. in the cli */
+    @Inject HealthMonitor healthMonitor;
+    /** Runs the parallel reconditioning; <code>null</code> in the cli, where every parallel run has its own pool */
+    @Resource(lookup = "java:comp/DefaultManagedExecutorService") ExecutorService executor;
 
-    @Override public void run() { clusterStore.clusters().forEach(this::reconditionCluster); }
+    public ClusterReconditioner(ClusterStore clusterStore, DeployerGateway deployerGateway, ClusterStatusGateway clusterStatusGateway) {
+        this(clusterStore, deployerGateway, clusterStatusGateway, 1);
+    }
+
+    public ClusterReconditioner(ClusterStore clusterStore, DeployerGateway deployerGateway, ClusterStatusGateway clusterStatusGateway, int threads) {
+        this(clusterStore, deployerGateway, clusterStatusGateway, threads, null, null);
+    }
+
+    @Override public void run() { recondition(clusterStore.getClusters()); }
+
+    /**
+     * Only do what the changes require: fully recondition the changed clusters, but for clusters where only
+     * the status of an application changed, just add it to or remove it from the load balancer.
+     */
+    public void recondition(ClusterConfigDiff diff) {
+        log.fine("recondition " + diff.getChangedClusters().size() + " changed clusters"
+            + " and " + diff.getStatusChanges().size() + " status changes");
+        recondition(diff.getChangedClusters());
+        diff.getStatusChanges().stream()
+            .collect(groupingBy(change -> change.getNode().getCluster(), LinkedHashMap::new,
+                groupingBy(change -> change.getNode().getStage(), LinkedHashMap::new, toList())))
+            .forEach((cluster, changesByStage) -> changesByStage.forEach((stage, changes) -> {
+                try {
+                    Ingress ingress = ingress(stage);
+                    ingress.batch(() -> changes.forEach(change -> apply(ingress, change)));
+                } catch (RuntimeException e) {
+                    log.warning("can't apply status changes " + changes + " (" + e.getMessage() + "). "
+                        + "fall back to reconditioning cluster " + cluster.id());
+                    reconditionCluster(cluster);
+                }
+            }));
+    }
+
+    private void apply(Ingress ingress, StatusChange change) {
+        log.info("apply status change " + change);
+        ClusterNode node = change.getNode();
+        if (change.getAfter() == running) {
+            if (healthMonitor != null && healthMonitor.isEjected(node, change.getApplication()))
+                log.info("don't add " + node + " to the load balancer for " + change.getApplication()
+                    + ": the health monitor took it out");
+            else if (deployerGateway == null || deployerGateway.fetchVersion(node, change.getApplication()) != null)
+                ingress.addToLoadBalancer(change.getApplication(), node);
+        } else
+            ingress.removeFromLoadBalancer(change.getApplication(), node);
+    }
+
+    private void recondition(List<Cluster> clusters) {
+        if (threads > 1)
+            runParallel(clusters);
+        else
+            clusters.forEach(this::reconditionCluster);
+    }
 
     private void reconditionCluster(Cluster cluster) {
+        long start = System.nanoTime();
+        ClusterStatus clusterStatus = scale(cluster);
+
+        reloadOnce(() -> cluster.stages()
+            .map(stage -> new StageReconditioner(cluster, stage, clusterStatus))
+            .forEach(StageReconditioner::recondition));
+
+        logDuration(cluster, start, null);
+    }
+
+    private ClusterStatus scale(Cluster cluster) {
         log.fine("recondition cluster " + cluster.id());
         ClusterStatus clusterStatus = clusterStatusGateway.clusterStatus(cluster);
 
         log.fine("scale cluster " + cluster.id());
         clusterStatus.scale();
+        return clusterStatus;
+    }
 
-        cluster.stages()
-            .map(stage -> new StageReconditioner(cluster, stage, clusterStatus))
-            .forEach(StageReconditioner::recondition);
+    private void runParallel(List<Cluster> clusters) {
+        if (executor != null) {
+            runParallel(clusters, limited(executor));
+            return;
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "recondition-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            runParallel(clusters, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-        log.fine("reconditioned cluster " + cluster.id());
+    private void runParallel(List<Cluster> clusters, Executor executor) {
+        try {
+            CompletableFuture.allOf(clusters.stream()
+                .map(cluster -> reconditionClusterAsync(cluster, executor))
+                .toArray(CompletableFuture[]::new))
+                .join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /** Runs at most {@link #threads} tasks at the same time on the shared executor, without blocking any of its threads */
+    private Executor limited(Executor shared) {
+        Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        AtomicInteger running = new AtomicInteger();
+        return new Executor() {
+            @Override public void execute(Runnable task) {
+                queue.add(task);
+                drain();
+            }
+
+            private void drain() {
+                while (!queue.isEmpty()) {
+                    int count = running.get();
+                    if (count >= threads)
+                        return;
+                    if (running.compareAndSet(count, count + 1)) {
+                        try {
+                            shared.execute(this::work);
+                        } catch (RuntimeException e) {
+                            running.decrementAndGet();
+                            throw e;
+                        }
+                    }
+                }
+            }
+
+            private void work() {
+                try {
+                    for (Runnable task = queue.poll(); task != null; task = queue.poll())
+                        task.run();
+                } finally {
+                    running.decrementAndGet();
+                }
+                drain(); // a task may have been queued after our last poll
+            }
+        };
+    }
+
+    /** Never blocks a pool thread waiting for another task, so the pool size can't dead-lock */
+    private CompletableFuture<Void> reconditionClusterAsync(Cluster cluster, Executor executor) {
+        long start = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> scale(cluster), executor)
+            .thenCompose(clusterStatus -> CompletableFuture.allOf(cluster.stages()
+                .map(stage -> CompletableFuture.runAsync(() -> new StageReconditioner(cluster, stage, clusterStatus).recondition(), executor))
+                .toArray(CompletableFuture[]::new)))
+            .whenComplete((result, throwable) -> logDuration(cluster, start, throwable));
+    }
+
+    private void logDuration(Cluster cluster, long start, Throwable throwable) {
+        long millis = NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (throwable == null)
+            log.info("reconditioned cluster " + cluster.id() + " in " + millis + " ms");
+        else {
+            Throwable cause = (throwable instanceof CompletionException && throwable.getCause() != null) ? throwable.getCause() : throwable;
+            log.warning("failed to recondition cluster " + cluster.id() + " after " + millis + " ms: " + cause.getMessage());
+        }
     }
 
     private class StageReconditioner {
@@ -70,19 +245,16 @@ public class ClusterReconditioner implements Runnable {
         private String what() { return "[" + cluster.getHost() + ":" + stage.getName() + "]"; }
 
         void recondition() {
-            log.fine("recondition reverse proxies for " + what());
-            nodes().forEach(this::reconditionReverseProxy);
-
-            log.fine("recondition load balancers for " + what());
-            ingress.loadBalancers().forEach(this::reconditionLoadBalancer);
+            ingress.batch(() -> {
+                log.fine("recondition reverse proxies for " + what());
+                nodes().forEach(this::reconditionReverseProxy);
 
-            log.fine("cleanup ingress for " + what());
-            cleanupNext(stage.lastNodeIn(cluster));
+                log.fine("recondition load balancers for " + what());
+                ingress.loadBalancers().forEach(this::reconditionLoadBalancer);
 
-            if (ingress.hasChanged()) {
-                log.fine("apply ingress for [" + cluster.getHost() + "]");
-                ingress.apply(); // TODO only once even when one ingress is used for multiple stages
-            }
+                log.fine("cleanup ingress for " + what());
+                cleanupNext(stage.lastNodeIn(cluster));
+            });
         }
 
         private Stream<ClusterNode> nodes() {
@@ -159,9 +331,21 @@ public class ClusterReconditioner implements Runnable {
             private boolean needsEndpoint(Endpoint endpoint) {
                 return !loadBalancer.hasEndpoint(endpoint)
                     && getConfiguredDeploymentStatus(endpoint.getHost()) == running
+                    && !isEjected(endpoint)
                     && isDeployed(endpoint);
             }
 
+            private boolean isEjected(Endpoint endpoint) {
+                if (healthMonitor == null)
+                    return false;
+                ClusterNode node = findNode(endpoint.getHost());
+                boolean ejected = healthMonitor.isEjected(node, loadBalancer.applicationName());
+                if (ejected)
+                    log.info("don't add " + endpoint + " to the load balancer for " + loadBalancer.applicationName()
+                        + ": the health monitor took it out");
+                return ejected;
+            }
+
             private DeploymentStatus getConfiguredDeploymentStatus(String host) {
                 ClusterNode node = findNode(host);
                 return (node == null) ? null : node.getStatusOfApp(loadBalancer.applicationName());
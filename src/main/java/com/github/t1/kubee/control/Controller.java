@@ -1,8 +1,10 @@
 package com.github.t1.kubee.control;
 
+import com.github.t1.kubee.boundary.config.ReadinessTimeout;
 import com.github.t1.kubee.boundary.gateway.clusters.ClusterStore;
 import com.github.t1.kubee.boundary.gateway.deployer.DeployerGateway;
 import com.github.t1.kubee.boundary.gateway.health.HealthGateway;
+import com.github.t1.kubee.boundary.gateway.ingress.Ingress;
 import com.github.t1.kubee.entity.Audits;
 import com.github.t1.kubee.entity.Audits.Audit;
 import com.github.t1.kubee.entity.Audits.Audit.Change;
@@ -13,10 +15,13 @@ import com.github.t1.kubee.entity.DeploymentId;
 import com.github.t1.kubee.entity.Endpoint;
 import com.github.t1.kubee.entity.LoadBalancer;
 import com.github.t1.kubee.entity.ReverseProxy;
+import com.github.t1.kubee.entity.Rollout;
+import com.github.t1.kubee.entity.Rollout.Wave;
 import com.github.t1.kubee.entity.Stage;
 import com.github.t1.kubee.entity.Version;
 import com.github.t1.kubee.tools.http.WebApplicationApplicationException;
 import com.github.t1.kubee.tools.http.YamlHttpClient.BadGatewayException;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.ejb.Stateless;
@@ -26,9 +31,17 @@ import javax.ws.rs.ProcessingException;
 import java.net.ConnectException;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static com.github.t1.kubee.boundary.gateway.ingress.IngressFactory.ingress;
@@ -37,14 +50,22 @@ import static com.github.t1.kubee.entity.VersionStatus.deployed;
 import static com.github.t1.kubee.entity.VersionStatus.undeployed;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
 
 @Slf4j
 @Stateless
 public class Controller {
+    /** The time a readiness check may take on top of the readiness timeout, e.g. for a last slow poll */
+    private static final Duration READINESS_GRACE = Duration.ofSeconds(10);
+
     @Inject ClusterStore clusterStore;
     @Inject DeployerGateway deployer;
     @Inject HealthGateway healthGateway;
+    @Inject FanOut fanOut;
+    @Inject VersionCatalog versionCatalog;
+    @Inject NodeCircuitBreakers breakers;
+    @Inject @ReadinessTimeout Duration readinessTimeout;
 
 
     public Stream<Cluster> clusters() { return clusterStore.clusters(); }
@@ -66,6 +87,17 @@ public class Controller {
                 .build()));
     }
 
+    /**
+     * Fetch the deployments from all nodes at the same time, without blocking a thread for every node while waiting
+     * for the answers; nodes that fail or don't answer in time show up as error
+     */
+    public CompletionStage<List<Deployment>> fetchDeploymentsAsync(Stream<ClusterNode> nodes) {
+        return fanOut.mapAsync(nodes.collect(toList()),
+            node -> breakers.callAsync(node, () -> deployer.fetchDeployablesAsync(node)),
+            (node, e) -> singletonList(errorDeployment(node, e)))
+            .thenApply(lists -> lists.stream().flatMap(List::stream).collect(toList()));
+    }
+
     public Stream<Deployment> fetchDeploymentsOn(ClusterNode node) {
         log.debug("fetch deployments from {}:", node);
         return fetchDeployablesFrom(node)
@@ -74,23 +106,27 @@ public class Controller {
 
     private Stream<Deployment> fetchDeployablesFrom(ClusterNode node) {
         try {
-            return deployer.fetchDeployables(node);
+            return breakers.call(node, () -> deployer.fetchDeployables(node));
         } catch (Exception e) {
-            String error = errorString(e);
-            log.debug("GET from deployer on {} threw: {}", node, error);
-            return Stream.of(Deployment
-                .builder()
-                .name("-")
-                .groupId("-")
-                .artifactId("-")
-                .type("-")
-                .version("-")
-                .error(error)
-                .node(node)
-                .build());
+            return Stream.of(errorDeployment(node, e));
         }
     }
 
+    private Deployment errorDeployment(ClusterNode node, Throwable e) {
+        String error = errorString(e);
+        log.debug("GET from deployer on {} threw: {}", node, error);
+        return Deployment
+            .builder()
+            .name("-")
+            .groupId("-")
+            .artifactId("-")
+            .type("-")
+            .version("-")
+            .error(error)
+            .node(node)
+            .build();
+    }
+
     public List<Version> fetchVersions(ClusterNode node, Deployment deployment) {
         return doFetchVersions(node, deployment).stream().map(s -> toVersion(deployment, s)).collect(toList());
     }
@@ -99,7 +135,8 @@ public class Controller {
         String groupId = deployment.getGroupId();
         String artifactId = deployment.getArtifactId();
         try {
-            return deployer.fetchVersions(node, groupId, artifactId);
+            return versionCatalog.versions(groupId, artifactId,
+                () -> breakers.call(node, () -> deployer.fetchVersions(node, groupId, artifactId)));
         } catch (NotFoundException e) {
             log.info("no versions found for {}:{} on {}", groupId, artifactId, node);
             return singletonList(deployment.getVersion());
@@ -117,32 +154,41 @@ public class Controller {
     }
 
 
-    public void deploy(DeploymentId id, String versionAfter) {
+    public void deploy(DeploymentId id, String versionAfter) { deploy(id, versionAfter, step -> {}); }
+
+    /** Like {@link #deploy(DeploymentId, String)}, but report every step to the <code>progress</code> consumer */
+    public void deploy(DeploymentId id, String versionAfter, Consumer<String> progress) {
         ClusterNode node = id.node(clusters());
         String name = id.deploymentName();
-        deploy(node, name, versionAfter);
+        deploy(node, name, versionAfter, progress);
     }
 
-    private void deploy(ClusterNode node, String name, String versionAfter) {
+    private void deploy(ClusterNode node, String name, String versionAfter, Consumer<String> progress) {
         String versionBefore = deployer.fetchVersion(node, name);
 
         boolean healthyBefore = healthGateway.fetch(node, name);
+        progress.accept("version before: " + versionBefore + (healthyBefore ? " (healthy)" : " (not healthy)"));
         if (!healthyBefore)
             log.info("{}@{} on {} is not healthy before deploy", name, versionBefore, node);
 
         try {
             if (versionAfter.equals(versionBefore)) {
                 log.info("redeploy {} @ {} on {}", name, versionBefore, node);
+                progress.accept("undeploy to redeploy " + versionBefore);
                 undeploy(node, name);
             } else if (versionBefore != null) {
                 log.info("update {} on {} from {} to {}", name, node, versionBefore, versionAfter);
+                progress.accept("remove from load balancer");
                 ingress(node.getStage()).removeFromLoadBalancer(name, node);
             }
 
+            progress.accept("deploy " + versionAfter);
             Audits audits = deployer.deploy(node, name, versionAfter);
             checkAudits(audits, "deploy", name, versionAfter);
 
-            boolean healthyAfter = healthGateway.fetch(node, name);
+            progress.accept("await readiness");
+            boolean healthyAfter = healthGateway.awaitReady(node, name, readinessTimeout);
+            progress.accept(healthyAfter ? "healthy after deploy" : "not healthy after deploy");
             if (!healthyAfter) {
                 log.error("{}@{} on {} is not healthy after deploy", name, versionBefore, node);
                 if (healthyBefore)
@@ -152,14 +198,115 @@ public class Controller {
         } catch (RuntimeException e) {
             // TODO this log is wrong
             log.warn("rollback {} on {} to {} failed: {}", name, node, versionBefore, e.getMessage());
+            progress.accept("roll back to " + versionBefore + ": " + e.getMessage());
             deployer.undeploy(node, name);
             deployer.deploy(node, name, versionBefore);
             throw e;
         } finally {
             // TODO don't add when the deploy failed!
-            if (node.getStatusOfApp(name) == running)
+            if (node.getStatusOfApp(name) == running) {
+                progress.accept("add to load balancer");
                 ingress(node.getStage()).addToLoadBalancer(name, node);
+            }
+        }
+    }
+
+    /**
+     * Deploy the <code>version</code> of the application to all <code>nodes</code> that don't have it yet,
+     * in waves of <code>batchSize</code> nodes, but never more than <code>maxUnavailable</code> nodes
+     * out of the load balancer at the same time. The nodes of a wave are drained with one ingress batch,
+     * deployed concurrently, and as soon as all of them are ready (or the readiness timeout is reached), the healthy ones are re-balanced with another batch.
+     * The rollout stops after the first wave that is not healthy; the failed nodes stay out of the load balancer.
+     * Nodes that we can't ask for their current version are reported as unreachable and not touched.
+     */
+    public Rollout rollout(String name, String version, List<ClusterNode> nodes, int batchSize, int maxUnavailable,
+                           Consumer<String> progress) {
+        int waveSize = Math.max(1, Math.min(batchSize, maxUnavailable));
+        Rollout.RolloutBuilder rollout = Rollout.builder().application(name).version(version);
+
+        List<VersionBefore> versionsBefore = fanOut.map(nodes,
+            node -> new VersionBefore(breakers.call(node, () -> deployer.fetchVersion(node, name)), null),
+            (node, e) -> new VersionBefore(null, errorString(e))).collect(toList());
+        Map<Stage, List<ClusterNode>> pending = new LinkedHashMap<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            ClusterNode node = nodes.get(i);
+            VersionBefore before = versionsBefore.get(i);
+            if (before.getError() != null) {
+                progress.accept("skip unreachable " + node.id() + ": " + before.getError());
+                rollout.unreachableNode(node.id(), before.getError());
+            } else if (version.equals(before.getVersion())) {
+                progress.accept("skip " + node.id() + ": already on " + version);
+                rollout.skippedNode(node.id());
+            } else {
+                pending.computeIfAbsent(node.getStage(), stage -> new ArrayList<>()).add(node);
+            }
+        }
+
+        for (Map.Entry<Stage, List<ClusterNode>> stage : pending.entrySet()) {
+            List<ClusterNode> stageNodes = stage.getValue();
+            for (int from = 0; from < stageNodes.size(); from += waveSize) {
+                List<ClusterNode> waveNodes = stageNodes.subList(from, Math.min(from + waveSize, stageNodes.size()));
+                progress.accept("roll out to " + waveNodes.stream().map(ClusterNode::id).collect(joining(", ")));
+                Wave wave = rolloutWave(stage.getKey(), name, version, waveNodes);
+                rollout.wave(wave);
+                wave.getFailures().forEach((node, error) -> progress.accept("failed on " + node + ": " + error));
+                if (!wave.isHealthy()) {
+                    log.warn("abort rollout of {}@{}: {}", name, version, wave.getFailures());
+                    progress.accept("abort rollout");
+                    return rollout.aborted(true).build();
+                }
+            }
+        }
+        return rollout.build();
+    }
+
+    /** The version of the application on a node before the rollout, or the error, if we couldn't ask the node */
+    @Value private static class VersionBefore {
+        String version;
+        String error;
+    }
+
+    private Wave rolloutWave(Stage stage, String name, String version, List<ClusterNode> nodes) {
+        log.info("roll out {}@{} to {}", name, version, nodes);
+        Ingress stageIngress = ingress(stage);
+        stageIngress.batch(() -> nodes.forEach(node -> stageIngress.removeFromLoadBalancer(name, node)));
+
+        List<CompletableFuture<String>> deploys = nodes.stream()
+            .map(node -> breakers.callAsync(node, () -> deployer.deployAsync(node, name, version))
+                .thenApply(audits -> {
+                    checkAudits(audits, "deploy", name, version);
+                    return (String) null;
+                })
+                .exceptionally(Controller::errorString)
+                .toCompletableFuture())
+            .collect(toList());
+
+        Wave.WaveBuilder wave = Wave.builder();
+        List<ClusterNode> deployed = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            ClusterNode node = nodes.get(i);
+            String error = deploys.get(i).join();
+            wave.node(node.id());
+            if (error == null)
+                deployed.add(node);
+            else
+                wave.failure(node.id(), error);
+        }
+
+        List<Boolean> healthy = fanOut.map(deployed,
+            node -> healthGateway.awaitReady(node, name, readinessTimeout),
+            (node, e) -> false,
+            readinessTimeout.plus(READINESS_GRACE)).collect(toList());
+        List<ClusterNode> balanced = new ArrayList<>();
+        for (int i = 0; i < deployed.size(); i++) {
+            ClusterNode node = deployed.get(i);
+            if (!healthy.get(i))
+                wave.failure(node.id(), "not healthy after deploy");
+            else if (node.getStatusOfApp(name) == running)
+                balanced.add(node);
         }
+        stageIngress.batch(() -> balanced.forEach(node -> stageIngress.addToLoadBalancer(name, node)));
+        return wave.build();
     }
 
     public void undeploy(DeploymentId id) {
@@ -217,6 +364,7 @@ public class Controller {
             e = e.getCause();
         String out = e.toString();
         while (out.startsWith(ExecutionException.class.getName() + ": ")
+            || out.startsWith(TimeoutException.class.getName() + ": ")
             || out.startsWith(ConnectException.class.getName() + ": ")
             || out.startsWith(WebApplicationApplicationException.class.getName() + ": ")
             || out.startsWith(RuntimeException.class.getName() + ": "))
@@ -0,0 +1,141 @@
+package com.github.t1.kubee.control;
+
+import com.github.t1.kubee.boundary.config.FanOutDeadline;
+import com.github.t1.kubee.boundary.config.FanOutThreads;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+
+/**
+ * Calls a task for many items (e.g. cluster nodes) at the same time on the managed executor of the container,
+ * with no more than {@link FanOutThreads} threads per call.
+ * Every item has to answer within the deadline, so the total latency follows the slowest item that answers,
+ * not the sum of all of them.
+ */
+@Slf4j
+@ApplicationScoped
+@NoArgsConstructor
+public class FanOut {
+    @Resource(lookup = "java:comp/DefaultManagedExecutorService") ExecutorService executor;
+    @Resource(lookup = "java:comp/DefaultManagedScheduledExecutorService") ScheduledExecutorService timer;
+    @Inject @FanOutThreads int threads;
+    @Inject @FanOutDeadline Duration deadline;
+
+    public FanOut(ExecutorService executor, ScheduledExecutorService timer, int threads, Duration deadline) {
+        this.executor = executor;
+        this.timer = timer;
+        this.threads = threads;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Apply the <code>task</code> to all <code>items</code> concurrently and return the results in the same order.
+     * If a task fails or doesn't finish before the deadline, the <code>fallback</code> provides the result instead.
+     */
+    public <T, R> Stream<R> map(List<T> items, Function<T, R> task, BiFunction<T, Throwable, R> fallback) {
+        return map(items, task, fallback, deadline);
+    }
+
+    /** Like {@link #map(List, Function, BiFunction)}, but for tasks that need a different deadline, e.g. because they wait */
+    public <T, R> Stream<R> map(List<T> items, Function<T, R> task, BiFunction<T, Throwable, R> fallback, Duration deadline) {
+        long deadlineNanos = System.nanoTime() + deadline.toNanos();
+        List<CompletableFuture<R>> futures = items.stream().map(item -> new CompletableFuture<R>()).collect(toList());
+        AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            for (int i = next.getAndIncrement(); i < items.size() && System.nanoTime() < deadlineNanos; i = next.getAndIncrement())
+                complete(futures.get(i), items.get(i), task);
+        };
+        List<Future<?>> workers = range(0, Math.min(threads, items.size()))
+            .mapToObj(i -> executor.submit(worker))
+            .collect(toList());
+        try {
+            List<R> results = new ArrayList<>(items.size());
+            for (int i = 0; i < items.size(); i++)
+                results.add(await(items.get(i), futures.get(i), deadlineNanos, deadline, fallback));
+            return results.stream();
+        } finally {
+            workers.forEach(future -> future.cancel(true)); // interrupt the tasks that are still running after the deadline
+        }
+    }
+
+    /** Also an Error completes the future, so the caller doesn't wait for the deadline to find out */
+    private static <T, R> void complete(CompletableFuture<R> future, T item, Function<T, R> task) {
+        try {
+            future.complete(task.apply(item));
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private <T, R> R await(T item, Future<R> future, long deadlineNanos, Duration deadline, BiFunction<T, Throwable, R> fallback) {
+        try {
+            return future.get(Math.max(0, deadlineNanos - System.nanoTime()), NANOSECONDS);
+        } catch (TimeoutException e) {
+            log.debug("{} did not answer within {}", item, deadline);
+            return fallback.apply(item, new TimeoutException("no answer within " + deadline.toMillis() + " ms"));
+        } catch (ExecutionException e) {
+            return fallback.apply(item, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return fallback.apply(item, e);
+        }
+    }
+
+    /**
+     * Like {@link #map(List, Function, BiFunction)}, but for tasks that don't block a thread while they wait,
+     * e.g. async http requests: it returns immediately, and the results complete when all tasks
+     * have either answered or reached the deadline.
+     */
+    public <T, R> CompletionStage<List<R>> mapAsync(List<T> items, Function<T, CompletionStage<R>> task, BiFunction<T, Throwable, R> fallback) {
+        List<CompletableFuture<R>> futures = items.stream()
+            .map(item -> withDeadline(item, task, fallback))
+            .collect(toList());
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+            .thenApply(done -> futures.stream().map(CompletableFuture::join).collect(toList()));
+    }
+
+    private <T, R> CompletableFuture<R> withDeadline(T item, Function<T, CompletionStage<R>> task, BiFunction<T, Throwable, R> fallback) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = timer.schedule(() -> {
+            if (!future.isDone()) {
+                log.debug("{} did not answer within {}", item, deadline);
+                future.complete(fallback.apply(item, new TimeoutException("no answer within " + deadline.toMillis() + " ms")));
+            }
+        }, deadline.toNanos(), NANOSECONDS);
+        future.whenComplete((result, e) -> timeout.cancel(false));
+        try {
+            task.apply(item).whenComplete((result, e) -> {
+                if (e == null)
+                    future.complete(result);
+                else if (!future.isDone())
+                    future.complete(fallback.apply(item, (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e));
+            });
+        } catch (Throwable e) {
+            future.complete(fallback.apply(item, e));
+        }
+        return future;
+    }
+}
@@ -0,0 +1,299 @@
+package com.github.t1.kubee.control;
+
+import com.github.t1.kubee.boundary.config.HealthMonitorInterval;
+import com.github.t1.kubee.boundary.config.HealthMonitorSlowLatency;
+import com.github.t1.kubee.boundary.gateway.clusters.ClusterStore;
+import com.github.t1.kubee.boundary.gateway.health.HealthGateway;
+import com.github.t1.kubee.boundary.gateway.ingress.Ingress;
+import com.github.t1.kubee.entity.Cluster;
+import com.github.t1.kubee.entity.ClusterNode;
+import com.github.t1.kubee.entity.Stage;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import static com.github.t1.kubee.boundary.gateway.ingress.IngressFactory.ingress;
+import static com.github.t1.kubee.entity.DeploymentStatus.running;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.counting;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Probes the health of every application on every node in the load balancers in the background, and keeps
+ * the last results and latencies per node and application in memory. A node that fails several times in a row,
+ * or that is slow for most of the window, gets taken out of the load balancer; when it's healthy and fast again
+ * for several probes, it goes back in. All changes to the load balancers of a stage go into one reload per round.
+ * We never take the last node out of a load balancer, and we only put back nodes that we took out ourselves.
+ * The {@link ClusterReconditioner} asks {@link #isEjected(ClusterNode, String)}, so it doesn't put them back early.
+ */
+@Slf4j
+@ApplicationScoped
+@NoArgsConstructor
+public class HealthMonitor {
+    private static final int WINDOW_SIZE = 10;
+    private static final int EJECT_AFTER_FAILURES = 3;
+    private static final int RESTORE_AFTER_SUCCESSES = 3;
+
+    @Inject ClusterStore clusterStore;
+    @Inject HealthGateway healthGateway;
+    @Inject FanOut fanOut;
+    @Inject @HealthMonitorInterval Duration interval;
+    @Inject @HealthMonitorSlowLatency Duration slowLatency;
+    @Resource(lookup = "java:comp/DefaultManagedScheduledExecutorService") ScheduledExecutorService scheduler;
+
+    private final Map<Target, Window> windows = new HashMap<>();
+    /** A copy of the ejected targets that other threads can read without waiting for a probe round to finish */
+    private final Set<Target> ejected = ConcurrentHashMap.newKeySet();
+    private ScheduledFuture<?> schedule;
+
+    public HealthMonitor(ClusterStore clusterStore, HealthGateway healthGateway, FanOut fanOut,
+                         ScheduledExecutorService scheduler, Duration interval, Duration slowLatency) {
+        this.clusterStore = clusterStore;
+        this.healthGateway = healthGateway;
+        this.fanOut = fanOut;
+        this.scheduler = scheduler;
+        this.interval = interval;
+        this.slowLatency = slowLatency;
+        start();
+    }
+
+    /** Application scoped beans are created lazily, but we have to start probing without anybody asking */
+    void init(@Observes @Initialized(ApplicationScoped.class) Object event) {}
+
+    @PostConstruct void start() {
+        if (interval.isZero()) {
+            log.info("health monitor is disabled");
+            return;
+        }
+        this.schedule = scheduler.scheduleWithFixedDelay(this::probeSafely, interval.toNanos(), interval.toNanos(), NANOSECONDS);
+    }
+
+    /** The container owns the scheduler, so we only cancel our own task */
+    @PreDestroy void stop() {
+        if (schedule != null)
+            schedule.cancel(true);
+    }
+
+    /** Did we take this node out of the load balancer for this application, and not put it back yet? */
+    public boolean isEjected(ClusterNode node, String application) {
+        return ejected.contains(new Target(node, application));
+    }
+
+    /** Identified by the node id, so a change in the cluster config, e.g. of a status, doesn't start a new window */
+    @Value private static class Target {
+        String nodeId;
+        String application;
+        @EqualsAndHashCode.Exclude ClusterNode node;
+
+        private Target(ClusterNode node, String application) {
+            this.nodeId = node.id();
+            this.application = application;
+            this.node = node;
+        }
+
+        @Override public String toString() { return application + "@" + node; }
+    }
+
+    @Value private static class Sample {
+        boolean healthy;
+        Duration latency;
+    }
+
+    private static class Window {
+        private final Deque<Sample> samples = new ArrayDeque<>();
+        private boolean ejected;
+
+        private void add(Sample sample) {
+            samples.addLast(sample);
+            if (samples.size() > WINDOW_SIZE)
+                samples.removeFirst();
+        }
+
+        private boolean isFailing() {
+            return samples.size() >= EJECT_AFTER_FAILURES
+                && samples.stream().skip(samples.size() - EJECT_AFTER_FAILURES).noneMatch(Sample::isHealthy);
+        }
+
+        private boolean isSlow(Duration slowLatency) {
+            return samples.size() == WINDOW_SIZE
+                && samples.stream().filter(sample -> isSlow(sample, slowLatency)).count() > WINDOW_SIZE / 2;
+        }
+
+        private boolean isRecovered(Duration slowLatency) {
+            return samples.size() >= RESTORE_AFTER_SUCCESSES
+                && samples.stream().skip(samples.size() - RESTORE_AFTER_SUCCESSES)
+                .allMatch(sample -> sample.isHealthy() && !isSlow(sample, slowLatency));
+        }
+
+        private static boolean isSlow(Sample sample, Duration slowLatency) { return sample.getLatency().compareTo(slowLatency) > 0; }
+
+        /** Start over with fresh samples, so the old ones can't flip the decision right back */
+        private void setEjected(boolean ejected) {
+            this.ejected = ejected;
+            samples.clear();
+        }
+    }
+
+    private void probeSafely() {
+        try {
+            probe();
+        } catch (RuntimeException e) {
+            log.warn("health monitor round failed", e);
+        }
+    }
+
+    /** One round: probe all targets, then take out the bad ones and put back the recovered ones */
+    synchronized void probe() {
+        Map<Target, Boolean> targets = targets();
+        windows.keySet().retainAll(targets.keySet());
+        ejected.retainAll(targets.keySet());
+        List<Target> probed = new ArrayList<>(targets.keySet());
+        List<Sample> samples = fanOut.map(probed, this::sample, (target, e) -> {
+            log.debug("health probe of {} failed: {}", target, e.toString());
+            return new Sample(false, slowLatency);
+        }).collect(toList());
+
+        Map<Stage, List<Target>> ejections = new LinkedHashMap<>();
+        Map<Stage, List<Target>> restores = new LinkedHashMap<>();
+        for (int i = 0; i < probed.size(); i++) {
+            Target target = probed.get(i);
+            boolean balanced = targets.get(target);
+            Window window = windows.computeIfAbsent(target, t -> new Window());
+            if (window.ejected && balanced) {
+                log.info("{} was put back into the load balancer by somebody else", target);
+                setEjected(target, window, false);
+            }
+            window.add(samples.get(i));
+            if (!window.ejected && (window.isFailing() || window.isSlow(slowLatency)))
+                ejections.computeIfAbsent(target.node.getStage(), stage -> new ArrayList<>()).add(target);
+            else if (window.ejected && window.isRecovered(slowLatency))
+                restores.computeIfAbsent(target.node.getStage(), stage -> new ArrayList<>()).add(target);
+        }
+        keepLastNodes(ejections, targets);
+
+        for (Stage stage : union(ejections, restores))
+            apply(stage, ejections.getOrDefault(stage, new ArrayList<>()), restores.getOrDefault(stage, new ArrayList<>()));
+    }
+
+    /** The nodes currently in a load balancer (<code>true</code>), and the nodes we took out (<code>false</code>) */
+    private Map<Target, Boolean> targets() {
+        Map<Target, Boolean> targets = new LinkedHashMap<>();
+        List<ClusterNode> allNodes = clusterStore.clusters().flatMap(Cluster::nodes).collect(toList());
+        Map<Stage, List<ClusterNode>> nodesByStage = allNodes.stream()
+            .collect(groupingBy(ClusterNode::getStage, LinkedHashMap::new, toList()));
+        nodesByStage.forEach((stage, nodes) -> ingress(stage).loadBalancers().forEach(loadBalancer -> {
+            for (ClusterNode node : nodes)
+                if (loadBalancer.hasHost(node.host()))
+                    targets.put(new Target(node, loadBalancer.applicationName()), true);
+        }));
+        windows.forEach((target, window) -> {
+            if (window.ejected && !targets.containsKey(target))
+                allNodes.stream().filter(node -> node.id().equals(target.nodeId)).findFirst()
+                    .ifPresent(node -> targets.put(new Target(node, target.application), false));
+        });
+        return targets;
+    }
+
+    private Sample sample(Target target) {
+        long start = System.nanoTime();
+        boolean healthy;
+        try {
+            healthy = healthGateway.fetch(target.node, target.application);
+        } catch (RuntimeException e) {
+            log.debug("health probe of {} failed: {}", target, e.toString());
+            healthy = false;
+        }
+        return new Sample(healthy, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /** Don't eject the nodes that would leave a load balancer empty; a bad node is still better than no node */
+    private static void keepLastNodes(Map<Stage, List<Target>> ejections, Map<Target, Boolean> targets) {
+        ejections.forEach((stage, ejected) -> {
+            Map<String, Long> remaining = targets.entrySet().stream()
+                .filter(entry -> entry.getValue() && entry.getKey().node.getStage().equals(stage))
+                .filter(entry -> !ejected.contains(entry.getKey()))
+                .collect(groupingBy(entry -> entry.getKey().application, counting()));
+            for (Iterator<Target> iterator = ejected.iterator(); iterator.hasNext(); ) {
+                Target target = iterator.next();
+                if (remaining.getOrDefault(target.application, 0L) == 0) {
+                    log.warn("keep {} in the load balancer, as it's the last node left", target);
+                    iterator.remove();
+                    remaining.put(target.application, 1L);
+                }
+            }
+        });
+    }
+
+    private static List<Stage> union(Map<Stage, List<Target>> ejections, Map<Stage, List<Target>> restores) {
+        List<Stage> stages = new ArrayList<>(ejections.keySet());
+        restores.keySet().stream().filter(stage -> !stages.contains(stage)).forEach(stages::add);
+        return stages;
+    }
+
+    private void apply(Stage stage, List<Target> ejections, List<Target> restores) {
+        List<Target> restorable = restores.stream()
+            .filter(HealthMonitor::isBalancedInClusterConfig)
+            .collect(toList());
+        restores.stream().filter(target -> !restorable.contains(target)).forEach(target -> {
+            log.info("{} recovered, but it's not balanced in the cluster config anymore; forget it", target);
+            windows.remove(target);
+            ejected.remove(target);
+        });
+        if (ejections.isEmpty() && restorable.isEmpty())
+            return;
+        Ingress ingress = ingress(stage);
+        try {
+            ingress.batch(() -> {
+                for (Target target : ejections) {
+                    log.warn("take {} out of the load balancer: {}", target, windows.get(target).samples);
+                    ingress.removeFromLoadBalancer(target.application, target.node);
+                }
+                for (Target target : restorable) {
+                    log.info("put {} back into the load balancer", target);
+                    ingress.addToLoadBalancer(target.application, target.node);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.warn("can't update the load balancers of stage {}; retry in the next round", stage.getName(), e);
+            return;
+        }
+        ejections.forEach(target -> setEjected(target, windows.get(target), true));
+        restorable.forEach(target -> setEjected(target, windows.get(target), false));
+    }
+
+    private void setEjected(Target target, Window window, boolean ejected) {
+        window.setEjected(ejected);
+        if (ejected)
+            this.ejected.add(target);
+        else
+            this.ejected.remove(target);
+    }
+
+    /** An operator may have unbalanced the node while we had it ejected */
+    private static boolean isBalancedInClusterConfig(Target target) {
+        return target.node.getStatusOfApp(target.application) == running;
+    }
+}
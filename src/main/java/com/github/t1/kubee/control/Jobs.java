@@ -0,0 +1,164 @@
+package com.github.t1.kubee.control;
+
+import com.github.t1.kubee.boundary.config.JobHistorySize;
+import com.github.t1.kubee.entity.Job;
+import com.github.t1.kubee.entity.Job.JobState;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static com.github.t1.kubee.entity.Job.JobState.failed;
+import static com.github.t1.kubee.entity.Job.JobState.queued;
+import static com.github.t1.kubee.entity.Job.JobState.running;
+import static com.github.t1.kubee.entity.Job.JobState.succeeded;
+
+/**
+ * Runs long operations, e.g. deploys, on the managed executor of the container, so the http request can return
+ * immediately. Every job reports its progress step by step to its listeners, e.g. a Server-Sent Events stream.
+ * We keep the jobs in memory: all jobs that are not finished, and the last <code>historySize</code> finished ones.
+ */
+@Slf4j
+@ApplicationScoped
+@NoArgsConstructor
+public class Jobs {
+    @Resource(lookup = "java:comp/DefaultManagedExecutorService") Executor executor;
+    @Inject @JobHistorySize int historySize;
+
+    private final Map<String, JobRecord> records = new LinkedHashMap<>();
+
+    public Jobs(Executor executor, int historySize) {
+        this.executor = executor;
+        this.historySize = historySize;
+    }
+
+    public interface JobListener {
+        void step(String step);
+
+        void finished(Job job);
+    }
+
+    private static class JobRecord {
+        private final String id = UUID.randomUUID().toString();
+        private final String description;
+        private JobState state = queued;
+        private final List<String> steps = new ArrayList<>();
+        private String error;
+        /** Copy on write, as a listener may unsubscribe while it's called */
+        private final List<JobListener> listeners = new CopyOnWriteArrayList<>();
+
+        private JobRecord(String description) { this.description = description; }
+
+        private synchronized Job toJob() {
+            return Job.builder().id(id).description(description).state(state).steps(steps).error(error).build();
+        }
+
+        private synchronized void subscribe(JobListener listener) {
+            steps.forEach(listener::step);
+            if (isFinished())
+                listener.finished(toJob());
+            else
+                listeners.add(listener);
+        }
+
+        private synchronized void unsubscribe(JobListener listener) { listeners.remove(listener); }
+
+        private synchronized void step(String step) {
+            log.debug("job {}: {}", id, step);
+            steps.add(step);
+            listeners.forEach(listener -> listener.step(step));
+        }
+
+        private void run(Consumer<Consumer<String>> work) {
+            synchronized (this) {
+                state = running;
+            }
+            try {
+                work.accept(this::step);
+                finish(succeeded, null);
+            } catch (RuntimeException e) {
+                log.info("job {} failed: {}", id, e.toString());
+                finish(failed, (e.getMessage() == null) ? e.toString() : e.getMessage());
+            }
+        }
+
+        private synchronized void finish(JobState state, String error) {
+            this.state = state;
+            this.error = error;
+            Job job = toJob();
+            listeners.forEach(listener -> listener.finished(job));
+            listeners.clear();
+        }
+
+        private synchronized boolean isFinished() { return state == succeeded || state == failed; }
+    }
+
+    /** Start the <code>work</code> in the background; it can report its progress to the consumer it gets passed */
+    public Job submit(String description, Consumer<Consumer<String>> work) {
+        JobRecord record = new JobRecord(description);
+        synchronized (records) {
+            records.put(record.id, record);
+        }
+        log.info("submit job {}: {}", record.id, description);
+        executor.execute(() -> {
+            record.run(work);
+            evict(); // not within the lock of the record
+        });
+        return record.toJob();
+    }
+
+    public Optional<Job> job(String id) { return record(id).map(JobRecord::toJob); }
+
+    public Stream<Job> jobs() {
+        List<JobRecord> copy;
+        synchronized (records) {
+            copy = new ArrayList<>(records.values());
+        }
+        return copy.stream().map(JobRecord::toJob);
+    }
+
+    /**
+     * Pass the steps done so far and all future steps to the listener, and finally the finished job.
+     * Returns <code>false</code>, if the job is not known (anymore).
+     */
+    public boolean subscribe(String id, JobListener listener) {
+        Optional<JobRecord> record = record(id);
+        record.ifPresent(r -> r.subscribe(listener));
+        return record.isPresent();
+    }
+
+    public void unsubscribe(String id, JobListener listener) { record(id).ifPresent(r -> r.unsubscribe(listener)); }
+
+    private Optional<JobRecord> record(String id) {
+        synchronized (records) {
+            return Optional.ofNullable(records.get(id));
+        }
+    }
+
+    /** Drop the oldest finished jobs beyond the <code>historySize</code> */
+    private void evict() {
+        synchronized (records) {
+            long finished = records.values().stream().filter(JobRecord::isFinished).count();
+            for (Iterator<JobRecord> iterator = records.values().iterator(); finished > historySize && iterator.hasNext(); ) {
+                JobRecord record = iterator.next();
+                if (record.isFinished()) {
+                    iterator.remove();
+                    finished--;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.github.t1.kubee.control;
+
+import com.github.t1.kubee.boundary.config.CircuitBreakerOpenDuration;
+import com.github.t1.kubee.boundary.config.CircuitBreakerThreshold;
+import com.github.t1.kubee.boundary.config.NegativeDnsTtl;
+import com.github.t1.kubee.entity.ClusterNode;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.ProcessingException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static com.github.t1.kubee.control.NodeCircuitBreakers.State.CLOSED;
+import static com.github.t1.kubee.control.NodeCircuitBreakers.State.HALF_OPEN;
+import static com.github.t1.kubee.control.NodeCircuitBreakers.State.OPEN;
+
+/**
+ * A circuit breaker for every cluster node, so a node that is down doesn't make us wait for the connect timeout
+ * on every request. After <code>threshold</code> consecutive connection failures, the breaker opens,
+ * and calls fail immediately with a new ProcessingException caused by the last error. After the <code>openDuration</code>, it's half-open:
+ * the next call is tried, while other calls still fail immediately; if the trial succeeds, the breaker closes again.
+ * <p>
+ * A host name that can't be resolved is remembered in a negative DNS cache for the <code>negativeDnsTtl</code>,
+ * so calls to all nodes on that host fail immediately, without even waiting for the threshold.
+ * <p>
+ * Every fast failure is a new exception, so callers can add suppressed exceptions or stack traces without
+ * interfering with each other. The breakers are identified by the {@link ClusterNode#id() node id},
+ * so a changed node, e.g. with a new status, keeps its breaker, and there is never more than one per node.
+ * <p>
+ * Only failures to reach a node count, i.e. {@link ProcessingException}s and timeouts;
+ * e.g. a 404 is a perfectly valid answer.
+ */
+@Slf4j
+@ApplicationScoped
+@NoArgsConstructor
+public class NodeCircuitBreakers {
+    @Inject @CircuitBreakerThreshold int threshold;
+    @Inject @CircuitBreakerOpenDuration Duration openDuration;
+    @Inject @NegativeDnsTtl Duration negativeDnsTtl;
+
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+    private final Map<String, Unresolvable> unresolvableHosts = new ConcurrentHashMap<>();
+
+    public NodeCircuitBreakers(int threshold, Duration openDuration, Duration negativeDnsTtl) {
+        this.threshold = threshold;
+        this.openDuration = openDuration;
+        this.negativeDnsTtl = negativeDnsTtl;
+    }
+
+    enum State {CLOSED, OPEN, HALF_OPEN}
+
+    @Value private static class Unresolvable {
+        long until;
+        RuntimeException error;
+    }
+
+    State state(ClusterNode node) {
+        Breaker breaker = breakers.get(node.id());
+        return (breaker == null) ? CLOSED : breaker.state();
+    }
+
+    public <T> T call(ClusterNode node, Supplier<T> call) {
+        Breaker breaker = breaker(node);
+        breaker.acquire();
+        T result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            failed(node, breaker, e);
+            throw e;
+        }
+        breaker.succeeded();
+        return result;
+    }
+
+    public <T> CompletionStage<T> callAsync(ClusterNode node, Supplier<CompletionStage<T>> call) {
+        Breaker breaker;
+        try {
+            breaker = breaker(node);
+            breaker.acquire();
+        } catch (RuntimeException e) {
+            return failedStage(e);
+        }
+        CompletionStage<T> stage;
+        try {
+            stage = call.get();
+        } catch (RuntimeException e) {
+            failed(node, breaker, e);
+            return failedStage(e);
+        }
+        return stage.whenComplete((result, e) -> {
+            if (e == null)
+                breaker.succeeded();
+            else
+                failed(node, breaker, (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e);
+        });
+    }
+
+    private static <T> CompletionStage<T> failedStage(Throwable e) {
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+    }
+
+    private Breaker breaker(ClusterNode node) {
+        Unresolvable unresolvable = unresolvableHosts.get(node.host());
+        if (unresolvable != null) {
+            if (System.nanoTime() - unresolvable.until < 0) {
+                log.debug("host of {} is known to be unresolvable", node);
+                throw new ProcessingException("host " + node.host() + " is unresolvable", unresolvable.error);
+            }
+            unresolvableHosts.remove(node.host(), unresolvable);
+        }
+        return breakers.computeIfAbsent(node.id(), id -> new Breaker(node.toString()));
+    }
+
+    private void failed(ClusterNode node, Breaker breaker, Throwable e) {
+        if (isUnknownHost(e) && e instanceof RuntimeException) {
+            log.info("remember unresolvable host {} for {}", node.host(), negativeDnsTtl);
+            unresolvableHosts.put(node.host(), new Unresolvable(System.nanoTime() + negativeDnsTtl.toNanos(), (RuntimeException) e));
+        }
+        if (isConnectionFailure(e) && e instanceof RuntimeException)
+            breaker.failed((RuntimeException) e);
+        else
+            breaker.succeeded(); // the node answered
+    }
+
+    private static boolean isUnknownHost(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause())
+            if (cause instanceof UnknownHostException)
+                return true;
+        return false;
+    }
+
+    private static boolean isConnectionFailure(Throwable e) {
+        return e instanceof ProcessingException || e.getCause() instanceof TimeoutException;
+    }
+
+    private class Breaker {
+        private final String name;
+        private State state = CLOSED;
+        private int failures;
+        private long openedAt;
+        private RuntimeException lastError;
+        private boolean trying;
+
+        Breaker(String name) { this.name = name; }
+
+        synchronized State state() { return state; }
+
+        /** Throw a new exception caused by the last error, if the node should not be called now */
+        synchronized void acquire() {
+            if (state == OPEN && System.nanoTime() - openedAt >= openDuration.toNanos()) {
+                log.debug("circuit breaker for {} is half-open", name);
+                state = HALF_OPEN;
+            }
+            if (state == OPEN || (state == HALF_OPEN && trying)) {
+                log.debug("circuit breaker for {} is {}", name, state);
+                throw new ProcessingException("circuit " + state + " for " + name, lastError);
+            }
+            if (state == HALF_OPEN)
+                trying = true;
+        }
+
+        synchronized void succeeded() {
+            if (state != CLOSED)
+                log.info("close circuit breaker for {}", name);
+            state = CLOSED;
+            failures = 0;
+            trying = false;
+        }
+
+        synchronized void failed(RuntimeException e) {
+            lastError = e;
+            trying = false;
+            if (state == HALF_OPEN || ++failures >= threshold) {
+                if (state != OPEN)
+                    log.info("open circuit breaker for {} after {}", name, e.toString());
+                state = OPEN;
+                openedAt = System.nanoTime();
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.t1.kubee.control;
+
+import com.github.t1.kubee.boundary.config.VersionCatalogSize;
+import com.github.t1.kubee.boundary.config.VersionCatalogTtl;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * The versions of the artifacts in the repository. All nodes use the same repository,
+ * so we can share the versions by <code>groupId:artifactId</code>, no matter which node we asked.
+ * Concurrent callers for the same artifact share one single load in flight, and we keep only
+ * the {@link VersionCatalogSize most recently used} artifacts.
+ * When the versions get older than the TTL, we still return them, but refresh them in the background.
+ * Failures are not cached, so the caller can handle them.
+ */
+@Slf4j
+@ApplicationScoped
+@NoArgsConstructor
+public class VersionCatalog {
+    @Resource(lookup = "java:comp/DefaultManagedExecutorService") Executor refresher;
+    @Inject @VersionCatalogTtl Duration ttl;
+    @Inject @VersionCatalogSize int maxSize;
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) { return size() > maxSize; }
+    };
+
+    public VersionCatalog(Executor refresher, Duration ttl, int maxSize) {
+        this.refresher = refresher;
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+    }
+
+    @Value private static class Key {
+        String groupId;
+        String artifactId;
+
+        @Override public String toString() { return groupId + ":" + artifactId; }
+    }
+
+    private static class Entry {
+        private final CompletableFuture<List<String>> future = new CompletableFuture<>();
+        private final long loadedAt = System.nanoTime();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        boolean isStale(Duration ttl) { return future.isDone() && System.nanoTime() - loadedAt >= ttl.toNanos(); }
+    }
+
+    public List<String> versions(String groupId, String artifactId, Supplier<List<String>> loader) {
+        Key key = new Key(groupId, artifactId);
+        Entry entry;
+        boolean loading = false;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+                loading = true;
+            }
+        }
+        if (loading) {
+            log.debug("load versions of {}", key);
+            load(key, entry, loader);
+        } else if (entry.isStale(ttl) && entry.refreshing.compareAndSet(false, true)) {
+            Entry stale = entry;
+            refresher.execute(() -> refresh(key, stale, loader));
+        }
+        return join(entry.future);
+    }
+
+    private void load(Key key, Entry entry, Supplier<List<String>> loader) {
+        try {
+            entry.future.complete(loader.get());
+        } catch (RuntimeException e) {
+            synchronized (entries) {
+                entries.remove(key, entry); // don't cache failures
+            }
+            entry.future.completeExceptionally(e);
+        }
+    }
+
+    private void refresh(Key key, Entry stale, Supplier<List<String>> loader) {
+        log.debug("refresh versions of {}", key);
+        Entry fresh = new Entry();
+        try {
+            fresh.future.complete(loader.get());
+        } catch (RuntimeException e) {
+            log.info("can't refresh versions of {}; keep the stale versions: {}", key, e.toString());
+            stale.refreshing.set(false); // retry on the next call
+            return;
+        }
+        synchronized (entries) {
+            entries.replace(key, stale, fresh);
+        }
+    }
+
+    private static List<String> join(CompletableFuture<List<String>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import lombok.Singular;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.Reader;
 import java.io.StringReader;
 import java.util.List;
 import java.util.Map;
@@ -87,9 +88,11 @@ public class Audits {
     /**
      * We want to be generic for the types of audits, but I didn't find a way to parse that out of the yaml tags with Jackson
      */
-    public static Audits parseYaml(String yaml) {
+    public static Audits parseYaml(String yaml) { return parseYaml(new StringReader(yaml)); }
+
+    public static Audits parseYaml(Reader yaml) {
         Audits audits = new Audits();
-        YamlDocument document = YamlDocument.from(new StringReader(yaml));
+        YamlDocument document = YamlDocument.from(yaml);
         document.asMapping()
             .mapString("processState", audits::setProcessState)
             .mapSequence("warnings", audits::setWarnings, Warning::from)
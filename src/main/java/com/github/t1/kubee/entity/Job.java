@@ -0,0 +1,23 @@
+package com.github.t1.kubee.entity;
+
+import lombok.Builder;
+import lombok.Singular;
+import lombok.Value;
+
+import java.util.List;
+
+/** A snapshot of a long running operation, e.g. a deploy, that runs in the background */
+@Value
+@Builder(toBuilder = true)
+public class Job {
+    String id;
+    String description;
+    JobState state;
+    /** The progress so far, one line per step */
+    @Singular List<String> steps;
+    String error;
+
+    public boolean isFinished() { return state == JobState.succeeded || state == JobState.failed; }
+
+    public enum JobState {queued, running, succeeded, failed}
+}
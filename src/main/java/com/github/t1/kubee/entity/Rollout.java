@@ -0,0 +1,40 @@
+package com.github.t1.kubee.entity;
+
+import lombok.Builder;
+import lombok.Singular;
+import lombok.Value;
+
+import java.util.List;
+import java.util.Map;
+
+/** The result of rolling a version of an application out to many nodes in waves */
+@Value
+@Builder
+public class Rollout {
+    String application;
+    String version;
+
+    /** The ids of the nodes that already had the version */
+    @Singular List<String> skippedNodes;
+
+    /** The ids of the nodes that we couldn't ask for their version, with the error; they are not touched */
+    @Singular Map<String, String> unreachableNodes;
+
+    @Singular("wave") List<Wave> waves;
+
+    /** True, if a wave was not healthy, so the remaining nodes were not touched */
+    boolean aborted;
+
+    /** True, if all nodes have the version now */
+    public boolean isComplete() { return !aborted && unreachableNodes.isEmpty(); }
+
+    /** The nodes that were deployed together, and the error for every node that failed */
+    @Value
+    @Builder
+    public static class Wave {
+        @Singular List<String> nodes;
+        @Singular Map<String, String> failures;
+
+        public boolean isHealthy() { return failures.isEmpty(); }
+    }
+}
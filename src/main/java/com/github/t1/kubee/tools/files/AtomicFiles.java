@@ -0,0 +1,79 @@
+package com.github.t1.kubee.tools.files;
+
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Replace files by writing a temp file next to them and renaming it, so a reader never sees a half written file.
+ * <p>
+ * Note that a rename shows up as an <code>ENTRY_CREATE</code> in a {@link java.nio.file.WatchService}, not as a modify.
+ */
+@Log
+public final class AtomicFiles {
+    private AtomicFiles() {}
+
+    public static void write(Path path, byte[] bytes) throws IOException {
+        Path staged = stage(path, bytes);
+        try {
+            commit(staged, path);
+        } finally {
+            discard(staged);
+        }
+    }
+
+    /** Write the bytes to a temp file next to the path and flush it to disk, so it can be checked before it's committed */
+    public static Path stage(Path path, byte[] bytes) throws IOException {
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), "." + path.getFileName(), ".tmp");
+        try {
+            copyPermissions(path, temp);
+            try (FileChannel channel = FileChannel.open(temp, WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                channel.force(true);
+            }
+            return temp;
+        } catch (IOException | RuntimeException e) {
+            discard(temp);
+            throw e;
+        }
+    }
+
+    /** Rename the staged file to the path, atomically if the file system supports it */
+    public static void commit(Path staged, Path path) throws IOException {
+        try {
+            Files.move(staged, path, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            log.warning("atomic move not supported for " + path + ". fall back to replacing it");
+            Files.move(staged, path, REPLACE_EXISTING);
+        }
+    }
+
+    /** Delete the staged file, if it's still there */
+    public static void discard(Path staged) {
+        try {
+            Files.deleteIfExists(staged);
+        } catch (IOException e) {
+            log.warning("can't delete staged file " + staged + ": " + e);
+        }
+    }
+
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        try {
+            if (Files.exists(from))
+                Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (UnsupportedOperationException e) {
+            // not a posix file system: keep the defaults
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.t1.kubee.tools.http;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * Settings for the shared HTTP {@link javax.ws.rs.client.Client}. The builder starts with the defaults,
+ * which can be overridden with config properties, e.g. <code>com.github.t1.kubee.httpReadTimeout=PT30S</code>.
+ */
+@Value
+@Builder(toBuilder = true)
+public class HttpClientConfig {
+    /** How long to wait for a TCP connection, so a node that is down fails fast */
+    @Builder.Default Duration connectTimeout = Duration.ofSeconds(2);
+
+    /** How long to wait for a response, so a hung node fails fast */
+    @Builder.Default Duration readTimeout = Duration.ofSeconds(10);
+
+    /** The size of the connection pool */
+    @Builder.Default int maxConnections = 200;
+
+    /** The number of kept-alive connections to one host */
+    @Builder.Default int maxConnectionsPerHost = 8;
+
+    /**
+     * How long a pooled connection may be reused. Keep it shorter than the keep-alive timeout of the servers,
+     * or we may send a request on a connection that the server has already closed.
+     */
+    @Builder.Default Duration connectionTimeToLive = Duration.ofSeconds(30);
+
+    /** The maximum number of bytes we read from a response, so a broken or hostile server can't exhaust our memory */
+    @Builder.Default long maxBodySize = 10 * 1024 * 1024;
+
+    /** The number of URIs for which we remember the validators and the parsed response for conditional requests */
+    @Builder.Default int maxValidatedResponses = 1000;
+}
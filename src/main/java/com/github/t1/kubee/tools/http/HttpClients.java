@@ -0,0 +1,87 @@
+package com.github.t1.kubee.tools.http;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Disposes;
+import javax.enterprise.inject.Produces;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Produces the one JAX-RS {@link Client} shared by all gateways, so connections to a host are kept alive and reused,
+ * e.g. when fanning out to many deployers, instead of every gateway opening its own connections.
+ * The {@link ResponseValidators} and the {@link Retrier} are shared as well, as their state spans all requests.
+ * <p>
+ * The timeouts are standard JAX-RS 2.1. The pool settings are only supported by RESTEasy, our runtime;
+ * we call them reflectively, so we don't depend on it. Other implementations, e.g. Jersey in the tests,
+ * use the keep-alive of the JDK; we log a warning, as the pool limits are not applied then.
+ * The pool itself is internal to RESTEasy, so the {@link HttpMetrics} can only count requests, not connections.
+ */
+@Slf4j
+@ApplicationScoped
+public class HttpClients {
+    private static final HttpMetrics METRICS = new HttpMetrics();
+
+    public static HttpMetrics metrics() { return METRICS; }
+
+    @Inject HttpClientConfig config;
+    @Inject RetryPolicy retryPolicy;
+    @Resource(lookup = "java:comp/DefaultManagedScheduledExecutorService") ScheduledExecutorService scheduler;
+
+    @Produces @Singleton Client shared() { return build(config); }
+
+    void close(@Disposes Client client) { client.close(); }
+
+    @Produces @Singleton ResponseValidators validators() { return new ResponseValidators(config.getMaxValidatedResponses()); }
+
+    @Produces @Singleton Retrier retrier() { return new Retrier(retryPolicy, scheduler); }
+
+    void close(@Disposes Retrier retrier) { retrier.close(); }
+
+    public static Client build(HttpClientConfig config) {
+        log.debug("build http client {}", config);
+        ClientBuilder builder = ClientBuilder.newBuilder()
+            .connectTimeout(config.getConnectTimeout().toMillis(), MILLISECONDS)
+            .readTimeout(config.getReadTimeout().toMillis(), MILLISECONDS);
+        List<String> unsupported = new ArrayList<>();
+        invoke(builder, unsupported, "connectionPoolSize", int.class, config.getMaxConnections());
+        invoke(builder, unsupported, "maxPooledPerRoute", int.class, config.getMaxConnectionsPerHost());
+        invoke(builder, unsupported, "connectionTTL", long.class, TimeUnit.class, config.getConnectionTimeToLive().toMillis(), MILLISECONDS);
+        invoke(builder, unsupported, "connectionCheckoutTimeout", long.class, TimeUnit.class, config.getConnectTimeout().toMillis(), MILLISECONDS);
+        if (!unsupported.isEmpty())
+            log.warn("{} doesn't support the connection pool settings {}; the pool limits are not applied",
+                builder.getClass().getName(), unsupported);
+        return builder.build();
+    }
+
+    private static void invoke(ClientBuilder builder, List<String> unsupported, String methodName, Class<?> type, Object arg) {
+        invoke(builder, unsupported, methodName, new Class<?>[]{type}, arg);
+    }
+
+    private static void invoke(ClientBuilder builder, List<String> unsupported, String methodName,
+                               Class<?> type1, Class<?> type2, Object arg1, Object arg2) {
+        invoke(builder, unsupported, methodName, new Class<?>[]{type1, type2}, arg1, arg2);
+    }
+
+    private static void invoke(ClientBuilder builder, List<String> unsupported, String methodName, Class<?>[] types, Object... args) {
+        try {
+            Method method = builder.getClass().getMethod(methodName, types);
+            method.invoke(builder, args);
+        } catch (NoSuchMethodException e) {
+            unsupported.add(methodName);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("can't configure {} on {}: {}", methodName, builder.getClass().getName(), e.toString());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.t1.kubee.tools.http;
+
+import lombok.Value;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Counts the requests per host: how many are in flight, how many failed (e.g. by a timeout), and how long they took.
+ * These are counts of requests, not statistics of the connection pool: e.g. a request waiting for a pooled connection
+ * is already in flight. They are exposed as <code>GET /http-metrics</code>.
+ */
+public class HttpMetrics {
+    private final Map<String, HostCounters> hosts = new ConcurrentHashMap<>();
+
+    private static class HostCounters {
+        final LongAdder requests = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final AtomicLong inFlight = new AtomicLong();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+    }
+
+    @Value public static class HostMetrics {
+        String host;
+        long requests;
+        long failures;
+        long inFlight;
+        long averageMillis;
+        long maxMillis;
+    }
+
+    public <T> T time(URI uri, Supplier<T> request) {
+        HostCounters counters = start(uri);
+        long start = System.nanoTime();
+        try {
+            return request.get();
+        } catch (RuntimeException e) {
+            counters.failures.increment();
+            throw e;
+        } finally {
+            done(counters, start);
+        }
+    }
+
+    /** Like {@link #time(URI, Supplier)}, but the request is finished when the returned stage completes */
+    public <T> CompletionStage<T> timeAsync(URI uri, Supplier<CompletionStage<T>> request) {
+        HostCounters counters = start(uri);
+        long start = System.nanoTime();
+        CompletionStage<T> stage;
+        try {
+            stage = request.get();
+        } catch (RuntimeException e) {
+            counters.failures.increment();
+            done(counters, start);
+            throw e;
+        }
+        return stage.whenComplete((result, e) -> {
+            if (e != null)
+                counters.failures.increment();
+            done(counters, start);
+        });
+    }
+
+    private HostCounters start(URI uri) {
+        HostCounters counters = hosts.computeIfAbsent(uri.getHost() + ":" + uri.getPort(), host -> new HostCounters());
+        counters.requests.increment();
+        counters.inFlight.incrementAndGet();
+        return counters;
+    }
+
+    private void done(HostCounters counters, long start) {
+        long nanos = System.nanoTime() - start;
+        counters.inFlight.decrementAndGet();
+        counters.totalNanos.add(nanos);
+        counters.maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /** The metrics by host, sorted by host */
+    public Map<String, HostMetrics> snapshot() {
+        Map<String, HostMetrics> snapshot = new TreeMap<>();
+        hosts.forEach((host, counters) -> {
+            long requests = counters.requests.sum();
+            snapshot.put(host, new HostMetrics(host, requests, counters.failures.sum(), counters.inFlight.get(),
+                (requests == 0) ? 0 : NANOSECONDS.toMillis(counters.totalNanos.sum() / requests),
+                NANOSECONDS.toMillis(counters.maxNanos.get())));
+        });
+        return snapshot;
+    }
+}
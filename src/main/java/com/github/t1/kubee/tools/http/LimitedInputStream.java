@@ -0,0 +1,49 @@
+package com.github.t1.kubee.tools.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Fails when reading more than <code>limit</code> bytes, so a huge response can't exhaust the memory */
+class LimitedInputStream extends FilterInputStream {
+    private final long limit;
+    private long count;
+    private boolean exceeded;
+
+    LimitedInputStream(InputStream in, long limit) {
+        super(in);
+        this.limit = limit;
+    }
+
+    boolean isExceeded() { return exceeded; }
+
+    @Override public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0)
+            count(1);
+        return b;
+    }
+
+    @Override public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0)
+            count(read);
+        return read;
+    }
+
+    @Override public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override public boolean markSupported() { return false; }
+
+    private void count(long bytes) throws IOException {
+        count += bytes;
+        if (count > limit) {
+            exceeded = true;
+            throw new IOException("body exceeds " + limit + " bytes");
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.t1.kubee.tools.http;
+
+import lombok.Value;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The <code>ETag</code> and <code>Last-Modified</code> validators of the last response for a URI,
+ * together with the value parsed from it, so a <code>304 Not Modified</code> can be answered without parsing anything.
+ * The least recently used entries are dropped when there are more than <code>maxSize</code>.
+ */
+public class ResponseValidators {
+    @Value static class Validated {
+        String etag;
+        String lastModified;
+        Object value;
+    }
+
+    private final Map<URI, Validated> entries;
+
+    public ResponseValidators(int maxSize) {
+        this.entries = new LinkedHashMap<URI, Validated>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<URI, Validated> eldest) { return size() > maxSize; }
+        };
+    }
+
+    synchronized Validated get(URI uri) { return entries.get(uri); }
+
+    synchronized void put(URI uri, Validated validated) { entries.put(uri, validated); }
+
+    public synchronized void forget(URI uri) { entries.remove(uri); }
+
+    public synchronized int size() { return entries.size(); }
+}
@@ -0,0 +1,128 @@
+package com.github.t1.kubee.tools.http;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Repeats requests that failed with a {@link RetryPolicy#isRetryable(Throwable) retryable} exception.
+ * The retries are scheduled, so no thread sleeps while waiting, and they are spread with a random jitter.
+ * Every retry is taken from a budget per host and from an overall budget; when one of them is used up,
+ * the request fails with the last error, so many failing requests don't keep a recovering node down.
+ * <p>
+ * In the container, the retries are scheduled on the managed scheduled executor; otherwise, e.g. in tests,
+ * the retrier has its own scheduler thread, which {@link #close()} shuts down.
+ */
+@Slf4j
+public class Retrier {
+    private final RetryPolicy policy;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownScheduler;
+    private final Budget budget;
+    private final Map<String, Budget> hostBudgets = new ConcurrentHashMap<>();
+
+    public Retrier(RetryPolicy policy) { this(policy, scheduler(), true); }
+
+    public Retrier(RetryPolicy policy, ScheduledExecutorService scheduler) { this(policy, scheduler, false); }
+
+    private Retrier(RetryPolicy policy, ScheduledExecutorService scheduler, boolean ownScheduler) {
+        this.policy = policy;
+        this.scheduler = scheduler;
+        this.ownScheduler = ownScheduler;
+        this.budget = new Budget(policy.getBudget());
+    }
+
+    private static ScheduledExecutorService scheduler() {
+        return new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "http-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public RetryPolicy policy() { return policy; }
+
+    /** Shuts down the scheduler, if it's our own; pending retries are dropped */
+    public void close() {
+        if (ownScheduler)
+            scheduler.shutdownNow();
+    }
+
+    /** Call the request and repeat it, if it fails and the policy and the budgets allow it */
+    public <T> CompletionStage<T> retry(String host, Supplier<CompletionStage<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(host, request, 1, result);
+        return result;
+    }
+
+    private <T> void attempt(String host, Supplier<CompletionStage<T>> request, int attempt, CompletableFuture<T> result) {
+        CompletionStage<T> stage;
+        try {
+            stage = request.get();
+        } catch (RuntimeException e) {
+            failed(host, request, attempt, result, e);
+            return;
+        }
+        stage.whenComplete((value, e) -> {
+            if (e == null)
+                result.complete(value);
+            else
+                failed(host, request, attempt, result, (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e);
+        });
+    }
+
+    private <T> void failed(String host, Supplier<CompletionStage<T>> request, int attempt, CompletableFuture<T> result, Throwable e) {
+        if (!policy.isRetryable(e)) {
+            result.completeExceptionally(e);
+        } else if (attempt >= policy.getMaxAttempts()) {
+            log.warn("{} failed {} times: {}", host, attempt, e.toString());
+            result.completeExceptionally(e);
+        } else if (!hostBudget(host).take()) {
+            log.warn("retry budget for {} exhausted: {}", host, e.toString());
+            result.completeExceptionally(e);
+        } else if (!budget.take()) {
+            log.warn("overall retry budget exhausted: {}", e.toString());
+            result.completeExceptionally(e);
+        } else {
+            long delay = policy.delay(attempt).toMillis();
+            log.info("{}. retry {} of {} in {} ms", e.toString(), attempt, policy.getMaxAttempts() - 1, delay);
+            scheduler.schedule(() -> attempt(host, request, attempt + 1, result), delay, MILLISECONDS);
+        }
+    }
+
+    private Budget hostBudget(String host) {
+        return hostBudgets.computeIfAbsent(host, h -> new Budget(policy.getBudgetPerHost()));
+    }
+
+    /** A token bucket that refills the whole <code>size</code> within the <code>budgetWindow</code> */
+    private class Budget {
+        private final int size;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        Budget(int size) {
+            this.size = size;
+            this.tokens = size;
+        }
+
+        synchronized boolean take() {
+            long now = System.nanoTime();
+            long window = policy.getBudgetWindow().toNanos();
+            tokens = (window <= 0) ? size : Math.min(size, tokens + (double) size * (now - refilledAt) / window);
+            refilledAt = now;
+            if (tokens < 1)
+                return false;
+            tokens--;
+            return true;
+        }
+    }
+}
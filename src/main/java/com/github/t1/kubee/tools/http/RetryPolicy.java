@@ -0,0 +1,65 @@
+package com.github.t1.kubee.tools.http;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.Arrays.asList;
+
+/**
+ * When and how often the {@link Retrier} repeats a failed request. The builder starts with the defaults,
+ * which can be overridden with config properties, e.g. <code>com.github.t1.kubee.retryBaseDelay=PT1S</code>,
+ * or <code>com.github.t1.kubee.retryOn=java.net.ConnectException,java.net.SocketTimeoutException</code>.
+ * <p>
+ * Synchronous callers, e.g. a deploy from the REST boundary, wait for all retries, so the defaults keep the
+ * total delay at a few seconds: at most about 8 seconds, on average half of that.
+ */
+@Value
+@Builder(toBuilder = true)
+public class RetryPolicy {
+    /** How often we try at most, including the first attempt */
+    @Builder.Default int maxAttempts = 10;
+
+    /** The delay before the first retry; it doubles with every further retry */
+    @Builder.Default Duration baseDelay = Duration.ofMillis(250);
+
+    /** The upper limit for the doubling delay */
+    @Builder.Default Duration maxDelay = Duration.ofSeconds(1);
+
+    /** How many retries we send to one host within the <code>budgetWindow</code>, so we don't overload a recovering node */
+    @Builder.Default int budgetPerHost = 20;
+
+    /** How many retries we send to all hosts together within the <code>budgetWindow</code> */
+    @Builder.Default int budget = 100;
+
+    @Builder.Default Duration budgetWindow = Duration.ofMinutes(1);
+
+    /**
+     * The fully qualified names of the exceptions that are worth a retry, i.e. where the request has not been processed.
+     * They are matched against the whole cause chain including the super classes, so we don't need them on the classpath.
+     */
+    @Builder.Default Set<String> retryOn = new HashSet<>(asList("java.net.ConnectException", "org.apache.http.NoHttpResponseException"));
+
+    public boolean isRetryable(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause())
+            for (Class<?> type = cause.getClass(); type != null; type = type.getSuperclass())
+                if (retryOn.contains(type.getName()))
+                    return true;
+        return false;
+    }
+
+    /**
+     * The delay before the retry number <code>retry</code> (starting with 1): exponential backoff with full jitter,
+     * i.e. a random value up to the doubled delay, so many requests that failed together don't retry in lockstep.
+     */
+    public Duration delay(int retry) {
+        long cap = maxDelay.toMillis();
+        long exponential = baseDelay.toMillis() << Math.min(retry - 1, 30);
+        long upper = (exponential < 0) ? cap : Math.min(exponential, cap); // overflow
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(upper + 1));
+    }
+}
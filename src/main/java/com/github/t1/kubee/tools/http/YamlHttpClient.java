@@ -1,31 +1,51 @@
 package com.github.t1.kubee.tools.http;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.github.t1.kubee.tools.http.ResponseValidators.Validated;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.inject.Inject;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.ServerErrorException;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.CompletionStageRxInvoker;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.Invocation.Builder;
 import javax.ws.rs.core.Form;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URI;
+import java.util.concurrent.CompletionStage;
 import java.util.function.Function;
 
 import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
 import static com.github.t1.kubee.tools.http.ProblemDetail.badGateway;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.ws.rs.core.HttpHeaders.ETAG;
+import static javax.ws.rs.core.HttpHeaders.IF_MODIFIED_SINCE;
+import static javax.ws.rs.core.HttpHeaders.IF_NONE_MATCH;
+import static javax.ws.rs.core.HttpHeaders.LAST_MODIFIED;
 import static javax.ws.rs.core.Response.Status.BAD_GATEWAY;
 import static javax.ws.rs.core.Response.Status.Family.SUCCESSFUL;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.Status.NOT_MODIFIED;
 
 /**
  * Wraps a JAX-RS {@link Client} with requesting and parsing the response as YAML and proper error handling.
+ * The response body is parsed directly from the stream, i.e. without copying it into a String first,
+ * and it may not be bigger than the {@link HttpClientConfig#getMaxBodySize() max body size},
+ * so besides the parsed result, a request only needs small buffers, regardless of the size of the response.
+ * <p>
+ * GETs for a type are conditional: when the last response had an <code>ETag</code> or <code>Last-Modified</code> header,
+ * we send them as <code>If-None-Match</code> or <code>If-Modified-Since</code>, and a <code>304 Not Modified</code>
+ * returns the value parsed from the last response.
  */
 @SuppressWarnings({"SameParameterValue", "WeakerAccess"})
 @Slf4j
@@ -36,50 +56,160 @@ public class YamlHttpClient {
 
     private static final MediaType APPLICATION_YAML_TYPE = MediaType.valueOf("application/yaml");
 
-    private final Client httpClient = ClientBuilder.newClient();
+    private final Client httpClient;
+    private final long maxBodySize;
+    private final ResponseValidators validators;
+
+    @Inject public YamlHttpClient(Client httpClient, HttpClientConfig config, ResponseValidators validators) {
+        this(httpClient, config.getMaxBodySize(), validators);
+    }
+
+    public YamlHttpClient(Client httpClient, long maxBodySize, ResponseValidators validators) {
+        this.httpClient = httpClient;
+        this.maxBodySize = maxBodySize;
+        this.validators = validators;
+    }
+
+    public <T> T GET(URI uri, Class<T> type) {
+        Validated previous = validators.get(uri);
+        return HttpClients.metrics().time(uri, () -> {
+            try (Response response = conditional(request(uri), previous).get()) {
+                return readValidated(uri, response, type, previous);
+            }
+        });
+    }
+
+    public <T> T GET(URI uri, Function<Reader, T> responseParser) {
+        return requestYaml(uri, Builder::get, body -> responseParser.apply(reader(body)));
+    }
 
-    public <T> T GET(URI uri, Class<T> type) { return GET(uri, yaml -> parse(yaml, type)); }
 
-    public <T> T GET(URI uri, Function<String, T> responseParser) {
-        String responseYaml = requestYaml(uri, Builder::get);
-        return responseParser.apply(responseYaml);
+    public <T> T POST(URI uri, Form form, Function<Reader, T> responseParser) {
+        return requestYaml(uri, i -> i.post(Entity.form(form)), body -> responseParser.apply(reader(body)));
     }
 
 
-    public <T> T POST(URI uri, Form form, Function<String, T> responseParser) {
-        String responseYaml = requestYaml(uri, i -> i.post(Entity.form(form)));
-        return responseParser.apply(responseYaml);
+    public <T> CompletionStage<T> GETAsync(URI uri, Class<T> type) {
+        Validated previous = validators.get(uri);
+        return HttpClients.metrics().timeAsync(uri, () -> conditional(request(uri), previous).rx().get()
+            .thenApply(response -> {
+                try (Response closing = response) {
+                    return readValidated(uri, closing, type, previous);
+                }
+            }));
     }
 
-    private String requestYaml(URI uri, Function<Builder, Response> method) {
-        Invocation.Builder invocation = httpClient
+    /** Like {@link #POST(URI, Form, Function)}, but without blocking the calling thread */
+    public <T> CompletionStage<T> POSTAsync(URI uri, Form form, Function<Reader, T> responseParser) {
+        return requestYamlAsync(uri, rx -> rx.post(Entity.form(form)), body -> responseParser.apply(reader(body)));
+    }
+
+    private <T> T requestYaml(URI uri, Function<Builder, Response> method, Function<InputStream, T> bodyParser) {
+        return HttpClients.metrics().time(uri, () -> {
+            try (Response response = method.apply(request(uri))) {
+                return readYaml(uri, response, bodyParser);
+            }
+        });
+    }
+
+    private <T> CompletionStage<T> requestYamlAsync(URI uri, Function<CompletionStageRxInvoker, CompletionStage<Response>> method,
+                                                    Function<InputStream, T> bodyParser) {
+        return HttpClients.metrics().timeAsync(uri, () -> method.apply(request(uri).rx())
+            .thenApply(response -> {
+                try (Response closing = response) {
+                    return readYaml(uri, closing, bodyParser);
+                }
+            }));
+    }
+
+    private Invocation.Builder request(URI uri) {
+        return httpClient
             .target(uri)
             .request()
             .accept(APPLICATION_YAML_TYPE);
-        try (Response response = method.apply(invocation)) {
-            String contentType = response.getHeaderString("Content-Type");
-            String body = response.readEntity(String.class).replace("\r\n", "\n");
-            if (NOT_FOUND.getStatusCode() == response.getStatus()) {
-                log.info("{} returns 404 Not Found: {}", uri, body);
-                throw new NotFoundException();
-            }
-            if (BAD_GATEWAY.getStatusCode() == response.getStatus()) {
-                log.info("{} returns 502 Bad Gateway: {}", uri, body);
-                throw new BadGatewayException(body);
-            }
-            if (response.getStatusInfo().getFamily() != SUCCESSFUL)
-                throw badGateway().detail("got " + statusInfo(response) + " from " + uri + ": " + body).exception();
-            if (!APPLICATION_YAML_TYPE.toString().equals(contentType))
-                throw badGateway().detail("expected " + APPLICATION_YAML_TYPE + " but got " + contentType + ": " + body).exception();
-            return body;
+    }
+
+    private static Invocation.Builder conditional(Invocation.Builder request, Validated previous) {
+        if (previous != null) {
+            if (previous.getEtag() != null)
+                request.header(IF_NONE_MATCH, previous.getEtag());
+            if (previous.getLastModified() != null)
+                request.header(IF_MODIFIED_SINCE, previous.getLastModified());
+        }
+        return request;
+    }
+
+    private <T> T readValidated(URI uri, Response response, Class<T> type, Validated previous) {
+        if (NOT_MODIFIED.getStatusCode() == response.getStatus() && previous != null && type.isInstance(previous.getValue())) {
+            log.debug("{} not modified", uri);
+            return type.cast(previous.getValue());
+        }
+        T value = readYaml(uri, response, body -> parse(body, type));
+        String etag = response.getHeaderString(ETAG);
+        String lastModified = response.getHeaderString(LAST_MODIFIED);
+        if (etag != null || lastModified != null)
+            validators.put(uri, new Validated(etag, lastModified, value));
+        else if (previous != null)
+            validators.forget(uri);
+        return value;
+    }
+
+    private <T> T readYaml(URI uri, Response response, Function<InputStream, T> bodyParser) {
+        if (NOT_FOUND.getStatusCode() == response.getStatus()) {
+            log.info("{} returns 404 Not Found: {}", uri, bodyString(uri, response));
+            throw new NotFoundException();
+        }
+        if (BAD_GATEWAY.getStatusCode() == response.getStatus()) {
+            String body = bodyString(uri, response);
+            log.info("{} returns 502 Bad Gateway: {}", uri, body);
+            throw new BadGatewayException(body);
+        }
+        if (response.getStatusInfo().getFamily() != SUCCESSFUL)
+            throw badGateway().detail("got " + statusInfo(response) + " from " + uri + ": " + bodyString(uri, response)).exception();
+        String contentType = response.getHeaderString("Content-Type");
+        if (!APPLICATION_YAML_TYPE.toString().equals(contentType))
+            throw badGateway().detail("expected " + APPLICATION_YAML_TYPE + " but got " + contentType + ": " + bodyString(uri, response)).exception();
+        if (response.getLength() > maxBodySize)
+            throw tooLarge(uri, response.getLength() + " bytes");
+        LimitedInputStream body = new LimitedInputStream(response.readEntity(InputStream.class), maxBodySize);
+        try {
+            return bodyParser.apply(body);
+        } catch (RuntimeException e) {
+            if (body.isExceeded()) // the parsers wrap the exception in very different ways
+                throw tooLarge(uri, "more than " + maxBodySize + " bytes");
+            throw e;
         }
     }
 
-    private <T> T parse(String string, Class<T> type) {
+    private WebApplicationException tooLarge(URI uri, String size) {
+        return badGateway().detail("response from " + uri + " is too large: " + size).exception();
+    }
+
+    /** Only for error messages, so we cut it off instead of failing */
+    private String bodyString(URI uri, Response response) {
+        try (InputStream body = response.readEntity(InputStream.class)) {
+            if (body == null)
+                return "";
+            byte[] bytes = new byte[(int) Math.min(maxBodySize, MAX_ERROR_BODY_SIZE)];
+            int length = 0;
+            for (int read; length < bytes.length && (read = body.read(bytes, length, bytes.length - length)) > 0; )
+                length += read;
+            return new String(bytes, 0, length, UTF_8).replace("\r\n", "\n");
+        } catch (IOException | RuntimeException e) {
+            log.debug("can't read error body from {}: {}", uri, e.toString());
+            return "";
+        }
+    }
+
+    private static final int MAX_ERROR_BODY_SIZE = 64 * 1024;
+
+    private static Reader reader(InputStream body) { return new InputStreamReader(body, UTF_8); }
+
+    private <T> T parse(InputStream body, Class<T> type) {
         try {
-            return YAML.readValue(string, type);
-        } catch (JsonProcessingException e) {
-            log.debug("{}: {} from deserialize to {} string\n{}", e.getClass().getSimpleName(), e.getMessage(), type, string);
+            return YAML.readValue(body, type);
+        } catch (IOException e) {
+            log.debug("{}: {} from deserialize to {}", e.getClass().getSimpleName(), e.getMessage(), type);
             throw new RuntimeException("can't deserialize to " + type, e);
         }
     }
@@ -1,8 +1,11 @@
 'use strict';
 
 const DEPLOYMENTS_RESOURCE = baseUri + 'deployments/';
+const JOBS_RESOURCE = baseUri + 'jobs/';
+const ACCEPTED = 202;
 const NO_CONTENT = 204;
 const FADE_OUT_TIME = 1000;
+const VERSIONS_CACHE_MILLIS = 60 * 1000;
 
 class DeploymentMenu extends React.Component {
     render() {
@@ -95,7 +98,45 @@ function click_handler(event) {
         });
 }
 
+/**
+ * The promised version names by `groupId:artifactId`: all nodes share the same repository,
+ * so opening the menu of the same artifact on any node doesn't have to wait for the server again.
+ * The status of the versions is specific to the cell, so we derive it from the version the cell shows.
+ */
+const versionsCache = {};
+
 function fetchVersions(where) {
+    const deployedVersion = $id(where).find('.version-name').text();
+    return fetchVersionNames(where)
+        .then(names => names && {
+            available: names.map(name => ({name: name, status: (name === deployedVersion) ? 'deployed' : 'undeployed'}))
+        });
+}
+
+function fetchVersionNames(where) {
+    const artifact = artifactOf(where);
+    const cached = versionsCache[artifact];
+    if (cached && Date.now() - cached.time < VERSIONS_CACHE_MILLIS)
+        return cached.names;
+    const names = doFetchVersions(where)
+        .then(data => {
+            if (!data) { // failed: don't cache
+                delete versionsCache[artifact];
+                return data;
+            }
+            return data.available.map(version => version.name);
+        });
+    versionsCache[artifact] = {time: Date.now(), names: names};
+    return names;
+}
+
+/** The title of a cell is the `groupId:artifactId:version` of the deployment */
+function artifactOf(where) {
+    const gav = $id(where).attr('title');
+    return (gav) ? gav.split(':').slice(0, 2).join(':') : where;
+}
+
+function doFetchVersions(where) {
     console.debug('fetchVersions', where);
 
     return fetch(DEPLOYMENTS_RESOURCE + where, {
@@ -178,10 +219,14 @@ function post(where, body, icon, status, faded) {
     })
         .then(response => {
             console.debug('got response', response);
+            if (response.status === ACCEPTED)
+                return response.json().then(job => awaitJob(job));
             if (response.status !== NO_CONTENT) {
                 response.json().then(json => console.debug('error detail', json));
                 throw new Error('unexpected response: ' + response.status);
             }
+        })
+        .then(() => {
             icon.className = versionIconClasses({status: status});
         })
         .then(() => {
@@ -192,6 +237,25 @@ function post(where, body, icon, status, faded) {
         });
 }
 
+function awaitJob(job) {
+    return new Promise((resolve, reject) => {
+        const events = new EventSource(JOBS_RESOURCE + job.id + '/events');
+        events.addEventListener('step', event => console.debug('job ' + job.id + ': ' + event.data));
+        events.addEventListener('succeeded', () => {
+            events.close();
+            resolve();
+        });
+        events.addEventListener('failed', event => {
+            events.close();
+            reject(new Error('job ' + job.id + ' failed: ' + event.data));
+        });
+        events.onerror = error => {
+            events.close();
+            reject(error);
+        };
+    });
+}
+
 function cellIcon(id, status) {
     const parent = $id(id).find('.dropdown > .dropdown-toggle');
     let icon = getOrCreateCellIcon(parent);
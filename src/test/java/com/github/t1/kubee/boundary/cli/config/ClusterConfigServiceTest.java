@@ -1,5 +1,6 @@
 package com.github.t1.kubee.boundary.cli.config;
 
+import com.github.t1.kubee.boundary.gateway.clusters.ClusterStore;
 import com.github.t1.kubee.tools.ContainersFixture;
 import com.github.t1.testtools.MockLogger;
 import lombok.SneakyThrows;
@@ -11,9 +12,11 @@ import org.junit.jupiter.api.io.TempDir;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.stream.Stream;
 
 import static com.github.t1.kubee.TestData.PROD01;
 import static java.util.logging.Level.INFO;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.logging.Level.SEVERE;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -56,7 +59,8 @@ class ClusterConfigServiceTest {
         assertThat(mockLogger.getMessages(SEVERE)).isEqualTo("Usage:\n" +
             "    `--once`: to run only once and exit. Otherwise: loop until stopped.\n" +
             "    `--cluster-config=<path>`: with the <path> to the `cluster-config.yaml`\n" +
-            "    `--docker-compose-dir=<path>`: with the <path> to the directory containing the `docker-compose.yaml`\n");
+            "    `--docker-compose-dir=<path>`: with the <path> to the directory containing the `docker-compose.yaml`\n" +
+            "    `--parallel=<threads>`: to recondition clusters and stages with <threads> at the same time. Default: 1\n");
     }
 
     @Test void shouldRunOnce() {
@@ -91,5 +95,33 @@ class ClusterConfigServiceTest {
             "reconditioning done");
     }
 
+    @Test void shouldReconditionWhenClusterStoreReplacesTheConfig() throws Exception {
+        containers.given(PROD01);
+        ClusterConfigService service = new ClusterConfigService(clusterConfig, containers.getDockerComposeDir(), true);
+        Thread loop = new Thread(service::loop, "loop");
+        loop.start();
+        try {
+            awaitReconditions(1);
+
+            new ClusterStore(clusterConfig).unbalance(PROD01, "foo");
+
+            awaitReconditions(2);
+        } finally {
+            service.stop();
+            loop.join(SECONDS.toMillis(5));
+        }
+    }
+
+    private void awaitReconditions(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SECONDS.toMillis(10);
+        while (reconditions() < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertThat(reconditions()).describedAs("reconditions").isEqualTo(count);
+    }
+
+    private long reconditions() {
+        return Stream.of(mockLogger.getMessages(INFO).split("\n")).filter(line -> line.startsWith("recondition from ")).count();
+    }
+
     // TODO make the DeployerGateway work from the CLI, too (JAX-RS client is not on the classpath)
 }
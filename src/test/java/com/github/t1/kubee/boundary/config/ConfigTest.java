@@ -1,5 +1,7 @@
 package com.github.t1.kubee.boundary.config;
 
+import com.github.t1.kubee.tools.http.HttpClientConfig;
+import com.github.t1.kubee.tools.http.RetryPolicy;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,10 +12,15 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashSet;
 import java.util.Optional;
 
 import static com.github.t1.kubee.boundary.config.Config.CONFIG_PROPERTY_PREFIX;
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 
 @ExtendWith(MockitoExtension.class)
@@ -31,6 +38,10 @@ class ConfigTest {
         given(mpConfig.getOptionalValue(CONFIG_PROPERTY_PREFIX + name, String.class)).willReturn(empty);
     }
 
+    private void givenNoOtherMicroprofileConfig() {
+        given(mpConfig.getOptionalValue(anyString(), eq(String.class))).willReturn(Optional.empty());
+    }
+
     @Test void shouldGetConfiguredDockerComposeDir() {
         givenMicroprofileConfig("dockerComposeDir", Optional.of(PATH));
 
@@ -71,4 +82,140 @@ class ConfigTest {
 
         assertThat(path).isEqualTo(Paths.get(System.getProperty("user.dir")).resolve("cluster-config.yaml"));
     }
+
+    @Test void shouldGetDefaultFanOutThreads() {
+        givenMicroprofileConfig("fanOutThreads", Optional.empty());
+
+        int threads = config.fanOutThreads();
+
+        assertThat(threads).isEqualTo(16);
+    }
+
+    @Test void shouldGetConfiguredFanOutDeadline() {
+        givenMicroprofileConfig("fanOutDeadline", Optional.of("PT0.5S"));
+
+        Duration deadline = config.fanOutDeadline();
+
+        assertThat(deadline).isEqualTo(Duration.ofMillis(500));
+    }
+
+    @Test void shouldGetDefaultDeployerCacheTtl() {
+        givenMicroprofileConfig("deployerCacheTtl", Optional.empty());
+
+        Duration ttl = config.deployerCacheTtl();
+
+        assertThat(ttl).isEqualTo(Duration.ofSeconds(10));
+    }
+
+    @Test void shouldGetConfiguredVersionCatalogTtl() {
+        givenMicroprofileConfig("versionCatalogTtl", Optional.of("PT5M"));
+
+        Duration ttl = config.versionCatalogTtl();
+
+        assertThat(ttl).isEqualTo(Duration.ofMinutes(5));
+    }
+
+    @Test void shouldGetDefaultVersionCatalogSize() {
+        givenMicroprofileConfig("versionCatalogSize", Optional.empty());
+
+        int size = config.versionCatalogSize();
+
+        assertThat(size).isEqualTo(1000);
+    }
+
+    @Test void shouldGetConfiguredVersionCatalogSize() {
+        givenMicroprofileConfig("versionCatalogSize", Optional.of("50"));
+
+        int size = config.versionCatalogSize();
+
+        assertThat(size).isEqualTo(50);
+    }
+
+    @Test void shouldGetDefaultCircuitBreakerThreshold() {
+        givenMicroprofileConfig("circuitBreakerThreshold", Optional.empty());
+
+        int threshold = config.circuitBreakerThreshold();
+
+        assertThat(threshold).isEqualTo(3);
+    }
+
+    @Test void shouldGetConfiguredNegativeDnsTtl() {
+        givenMicroprofileConfig("negativeDnsTtl", Optional.of("PT10S"));
+
+        Duration ttl = config.negativeDnsTtl();
+
+        assertThat(ttl).isEqualTo(Duration.ofSeconds(10));
+    }
+
+    @Test void shouldGetDefaultJobHistorySize() {
+        givenMicroprofileConfig("jobHistorySize", Optional.empty());
+
+        int size = config.jobHistorySize();
+
+        assertThat(size).isEqualTo(100);
+    }
+
+    @Test void shouldGetConfiguredReadinessTimeout() {
+        givenMicroprofileConfig("readinessTimeout", Optional.of("PT30S"));
+
+        Duration timeout = config.readinessTimeout();
+
+        assertThat(timeout).isEqualTo(Duration.ofSeconds(30));
+    }
+
+    @Test void shouldGetDefaultHealthMonitorInterval() {
+        givenMicroprofileConfig("healthMonitorInterval", Optional.empty());
+
+        Duration interval = config.healthMonitorInterval();
+
+        assertThat(interval).isEqualTo(Duration.ofSeconds(10));
+    }
+
+    @Test void shouldGetConfiguredHealthMonitorSlowLatency() {
+        givenMicroprofileConfig("healthMonitorSlowLatency", Optional.of("PT0.5S"));
+
+        Duration latency = config.healthMonitorSlowLatency();
+
+        assertThat(latency).isEqualTo(Duration.ofMillis(500));
+    }
+
+    @Test void shouldGetDefaultHttpClientConfig() {
+        HttpClientConfig httpClientConfig = config.httpClientConfig();
+
+        assertThat(httpClientConfig).isEqualTo(HttpClientConfig.builder().build());
+        assertThat(httpClientConfig.getReadTimeout()).isEqualTo(Duration.ofSeconds(10));
+    }
+
+    @Test void shouldGetConfiguredHttpClientConfig() {
+        givenNoOtherMicroprofileConfig();
+        givenMicroprofileConfig("httpReadTimeout", Optional.of("PT30S"));
+        givenMicroprofileConfig("httpMaxBodySize", Optional.of("1000"));
+
+        HttpClientConfig httpClientConfig = config.httpClientConfig();
+
+        assertThat(httpClientConfig).isEqualTo(HttpClientConfig.builder()
+            .readTimeout(Duration.ofSeconds(30))
+            .maxBodySize(1000)
+            .build());
+    }
+
+    @Test void shouldGetDefaultRetryPolicy() {
+        RetryPolicy retryPolicy = config.retryPolicy();
+
+        assertThat(retryPolicy).isEqualTo(RetryPolicy.builder().build());
+        assertThat(retryPolicy.getMaxAttempts()).isEqualTo(10);
+    }
+
+    @Test void shouldGetConfiguredRetryPolicy() {
+        givenNoOtherMicroprofileConfig();
+        givenMicroprofileConfig("retryMaxAttempts", Optional.of("3"));
+        givenMicroprofileConfig("retryOn", Optional.of("java.net.ConnectException,java.net.SocketTimeoutException"));
+
+        RetryPolicy retryPolicy = config.retryPolicy();
+
+        assertThat(retryPolicy).isEqualTo(RetryPolicy.builder()
+            .maxAttempts(3)
+            .retryOn(new HashSet<>(asList("java.net.ConnectException", "java.net.SocketTimeoutException")))
+            .build());
+    }
 }
@@ -11,6 +11,7 @@ import org.junit.jupiter.api.io.TempDir;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -71,6 +72,37 @@ class ClusterStoreTest {
         assertThat(stream).containsExactly(CLUSTER);
     }
 
+    @Test void shouldNotParseUnchangedConfigAgain() {
+        givenClusterConfig(YAML);
+        List<Cluster> first = clusterStore.getClusters();
+
+        List<Cluster> second = clusterStore.getClusters();
+
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test void shouldParseChangedConfigAgain() {
+        givenClusterConfig(YAML);
+        List<Cluster> first = clusterStore.getClusters();
+        givenClusterConfig(YAML.replace("count: 3", "count: 5"));
+
+        List<Cluster> second = clusterStore.getClusters();
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.get(0).getStages().get(0).getCount()).isEqualTo(5);
+    }
+
+    @Test void shouldPublishWrittenConfig() {
+        givenClusterConfig(YAML);
+        List<Cluster> before = clusterStore.getClusters();
+
+        clusterStore.unbalance(PROD01, "app-name");
+        List<Cluster> after = clusterStore.getClusters();
+
+        assertThat(after).isNotSameAs(before);
+        assertThat(clusterStore.getClusters()).isSameAs(after);
+    }
+
     @Test void shouldFailToReadMissingClusters() {
         Throwable throwable = catchThrowable(clusterStore::clusters);
 
@@ -118,6 +150,18 @@ class ClusterStoreTest {
         assertThat(contentOf(configFile.toFile())).isEqualTo(UNBALANCED_YAML);
     }
 
+    @Test void shouldReplaceConfigFileWithoutLeavingTempFiles() throws IOException {
+        givenClusterConfig(YAML);
+        Object fileKeyBefore = Files.readAttributes(configFile, BasicFileAttributes.class).fileKey();
+
+        clusterStore.unbalance(PROD01, "app-name");
+
+        assertThat(Files.readAttributes(configFile, BasicFileAttributes.class).fileKey()).isNotEqualTo(fileKeyBefore);
+        try (Stream<Path> files = Files.list(tmp)) {
+            assertThat(files).containsExactly(configFile);
+        }
+    }
+
     @Test void shouldFailToWriteConfigFile() throws IOException {
         givenClusterConfig(YAML);
         Files.setPosixFilePermissions(configFile, singleton(OWNER_READ)); // not write
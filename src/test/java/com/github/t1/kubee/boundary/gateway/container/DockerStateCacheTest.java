@@ -0,0 +1,154 @@
+package com.github.t1.kubee.boundary.gateway.container;
+
+import com.github.t1.kubee.entity.Endpoint;
+import com.github.t1.kubee.tools.ContainersFixture;
+import com.github.t1.kubee.tools.cli.Script;
+import com.github.t1.kubee.tools.cli.Script.Result;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.t1.kubee.TestData.CLUSTER;
+import static com.github.t1.kubee.TestData.PROD;
+import static com.github.t1.kubee.TestData.PROD01;
+import static com.github.t1.kubee.TestData.PROD02;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class DockerStateCacheTest {
+    @RegisterExtension ContainersFixture containers = new ContainersFixture();
+
+    private final FakeDockerEventSource events = new FakeDockerEventSource();
+    private final ScheduledExecutorService restarter = mock(ScheduledExecutorService.class);
+    private final DockerStateCache state = new DockerStateCache(events, restarter);
+    private final ClusterStatusGateway gateway = new ClusterStatusGateway(containers.getDockerComposeDir(), state);
+    private final AtomicInteger dockerPsCount = new AtomicInteger();
+
+    @BeforeEach void countDockerPs() {
+        Script.Invoker mock = Script.Invoker.INSTANCE;
+        Script.Invoker.INSTANCE = new Script.Invoker() {
+            @Override public Result invoke(String commandline, Path workingDirectory, int timeout) {
+                if (commandline.startsWith("docker ps "))
+                    dockerPsCount.incrementAndGet();
+                return mock.invoke(commandline, workingDirectory, timeout);
+            }
+        };
+        state.start();
+    }
+
+    private List<Endpoint> endpoints() { return gateway.clusterStatus(CLUSTER).endpoints().collect(toList()); }
+
+    @Test void shouldReadDockerStateOnlyOnce() {
+        containers.given(PROD01, PROD02);
+
+        List<Endpoint> first = endpoints();
+        List<Endpoint> second = endpoints();
+
+        assertThat(first).containsExactlyElementsOf(containers.endpointsIn(PROD));
+        assertThat(second).containsExactlyElementsOf(first);
+        assertThat(dockerPsCount).hasValue(1);
+    }
+
+    @Test void shouldReadDockerStateAgainAfterStartEvent() {
+        containers.given(PROD01);
+        endpoints();
+        containers.given(PROD02);
+
+        events.emit("start", "docker_worker_2");
+        List<Endpoint> endpoints = endpoints();
+
+        assertThat(endpoints).containsExactlyElementsOf(containers.endpointsIn(PROD));
+        assertThat(dockerPsCount).hasValue(2);
+    }
+
+    @Test void shouldReadDockerStateOnlyOnceAfterBurstOfEvents() {
+        containers.given(PROD01, PROD02);
+        endpoints();
+
+        events.emit("die", "docker_worker_1");
+        events.emit("stop", "docker_worker_1");
+        events.emit("start", "docker_worker_1");
+        endpoints();
+        endpoints();
+
+        assertThat(dockerPsCount).hasValue(2);
+    }
+
+    @Test void shouldIgnoreIrrelevantEvents() {
+        containers.given(PROD01);
+        endpoints();
+
+        events.emit("exec_start: sh", "docker_worker_1");
+        events.emit("health_status: healthy", "docker_worker_1");
+        endpoints();
+
+        assertThat(dockerPsCount).hasValue(1);
+    }
+
+    @Test void shouldReadDockerStateAgainAfterScale() {
+        containers.given(PROD01);
+        ClusterStatus status = gateway.clusterStatus(CLUSTER);
+
+        status.scale();
+        List<Endpoint> endpoints = gateway.clusterStatus(CLUSTER).endpoints(PROD).collect(toList());
+
+        assertThat(endpoints).hasSize(3).containsExactlyElementsOf(containers.endpointsIn(PROD));
+    }
+
+    @Test void shouldReadDockerStateForEveryClusterStatusWhenEventStreamIsClosed() {
+        containers.given(PROD01);
+
+        events.close();
+        endpoints();
+        endpoints();
+
+        assertThat(state.isWatching()).isFalse();
+        assertThat(dockerPsCount).hasValue(2);
+    }
+
+    @Test void shouldRestartClosedEventStream() {
+        containers.given(PROD01);
+        events.close();
+        ArgumentCaptor<Runnable> restart = ArgumentCaptor.forClass(Runnable.class);
+        verify(restarter).schedule(restart.capture(), eq(1000L), eq(MILLISECONDS));
+        endpoints();
+
+        restart.getValue().run();
+        endpoints();
+        endpoints();
+
+        assertThat(events.starts).isEqualTo(2);
+        assertThat(state.isWatching()).isTrue();
+        assertThat(dockerPsCount).hasValue(2);
+    }
+
+    @Test void shouldBackOffWhenEventStreamKeepsClosing() {
+        ArgumentCaptor<Runnable> restart = ArgumentCaptor.forClass(Runnable.class);
+        events.close();
+        verify(restarter).schedule(restart.capture(), eq(1000L), eq(MILLISECONDS));
+
+        restart.getValue().run();
+        events.close();
+
+        verify(restarter).schedule(any(Runnable.class), eq(2000L), eq(MILLISECONDS));
+    }
+
+    @Test void shouldNotRestartEventStreamWhenStopped() {
+        state.stop();
+
+        verify(restarter, never()).schedule(any(Runnable.class), any(Long.class), any());
+        assertThat(state.isWatching()).isFalse();
+    }
+}
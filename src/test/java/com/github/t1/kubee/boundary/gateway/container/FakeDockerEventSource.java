@@ -0,0 +1,27 @@
+package com.github.t1.kubee.boundary.gateway.container;
+
+import java.util.function.Consumer;
+
+/** Lets tests emit docker events without a docker daemon */
+class FakeDockerEventSource implements DockerEventSource {
+    private Consumer<DockerEvent> listener;
+    private Runnable closed;
+    int starts;
+
+    @Override public void start(Consumer<DockerEvent> listener, Runnable closed) {
+        starts++;
+        this.listener = listener;
+        this.closed = closed;
+    }
+
+    @Override public void stop() { close(); }
+
+    void emit(String action, String containerName) { listener.accept(new DockerEvent(action, containerName)); }
+
+    void close() {
+        if (closed != null)
+            closed.run();
+        listener = null;
+        closed = null;
+    }
+}
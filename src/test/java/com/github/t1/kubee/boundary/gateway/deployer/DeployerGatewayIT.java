@@ -1,19 +1,45 @@
 package com.github.t1.kubee.boundary.gateway.deployer;
 
 import com.github.t1.jaxrsclienttest.JaxRsTestExtension;
+import com.github.t1.kubee.tools.http.HttpClientConfig;
+import com.github.t1.kubee.tools.http.HttpClients;
+import com.github.t1.kubee.tools.http.ResponseValidators;
+import com.github.t1.kubee.tools.http.Retrier;
+import com.github.t1.kubee.tools.http.RetryPolicy;
 import com.github.t1.kubee.tools.http.YamlHttpClient;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import java.time.Duration;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 
 class DeployerGatewayIT {
-    @RegisterExtension static JaxRsTestExtension rest = new JaxRsTestExtension(new DeployerMock());
+    private static final DeployerMock DEPLOYER = new DeployerMock();
+    @RegisterExtension static JaxRsTestExtension rest = new JaxRsTestExtension(DEPLOYER);
+    private static final HttpClientConfig CONFIG = HttpClientConfig.builder().build();
+    private static final Client CLIENT = HttpClients.build(CONFIG);
+    private static final Retrier RETRIER = new Retrier(RetryPolicy.builder().build());
+
+    private final DeployerGateway conditional = new DeployerGateway(
+        new YamlHttpClient(CLIENT, 10_000, new ResponseValidators(10)),
+        new DeployerInventoryCache(Duration.ZERO, 10), RETRIER);
+
+    @AfterEach void resetDeployer() {
+        DEPLOYER.setDummyVersion("1.2.3");
+        DEPLOYER.fullResponses.set(0);
+        DEPLOYER.bytesSent.set(0);
+        DEPLOYER.notModifiedResponses.set(0);
+    }
 
     @Test void shouldFetchDeployables() {
-        List<Deployable> deployables = new DeployerGateway(new YamlHttpClient()).fetchDeploymentsFrom(rest.baseUri());
+        List<Deployable> deployables = new DeployerGateway(new YamlHttpClient(CLIENT, CONFIG, new ResponseValidators(10)),
+            new DeployerInventoryCache(Duration.ZERO, 10), RETRIER).fetchDeploymentsFrom(rest.baseUri());
 
         assertThat(deployables).containsExactly(
             Deployable.builder()
@@ -32,4 +58,39 @@ class DeployerGatewayIT {
                 .build()
         );
     }
+
+    @Test void shouldFailToFetchDeployablesBiggerThanMaxBodySize() {
+        YamlHttpClient client = new YamlHttpClient(CLIENT, 100, new ResponseValidators(10));
+        DeployerGateway gateway = new DeployerGateway(client, new DeployerInventoryCache(Duration.ZERO, 10), RETRIER);
+
+        Throwable thrown = catchThrowable(() -> gateway.fetchDeploymentsFrom(rest.baseUri()));
+
+        assertThat(thrown).isInstanceOf(WebApplicationException.class)
+            .hasMessageContaining("is too large");
+    }
+
+    @Test void shouldAnswerUnchangedDeployablesFromNotModified() {
+        List<Deployable> first = conditional.fetchDeploymentsFrom(rest.baseUri());
+        long bytesOfFirst = DEPLOYER.bytesSent.get();
+
+        List<Deployable> second = conditional.fetchDeploymentsFrom(rest.baseUri());
+        List<Deployable> third = conditional.fetchDeploymentsFrom(rest.baseUri());
+
+        assertThat(second).isEqualTo(first);
+        assertThat(third).isEqualTo(first);
+        assertThat(DEPLOYER.fullResponses).hasValue(1);
+        assertThat(DEPLOYER.notModifiedResponses).hasValue(2);
+        assertThat(DEPLOYER.bytesSent).hasValue(bytesOfFirst);
+    }
+
+    @Test void shouldFetchChangedDeployablesAgain() {
+        conditional.fetchDeploymentsFrom(rest.baseUri());
+        DEPLOYER.setDummyVersion("1.2.4");
+
+        List<Deployable> deployables = conditional.fetchDeploymentsFrom(rest.baseUri());
+
+        assertThat(deployables).extracting(Deployable::getVersion).containsExactly("2.9.2", "1.2.4");
+        assertThat(DEPLOYER.fullResponses).hasValue(2);
+        assertThat(DEPLOYER.notModifiedResponses).hasValue(0);
+    }
 }
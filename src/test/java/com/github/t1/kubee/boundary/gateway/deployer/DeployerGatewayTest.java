@@ -2,24 +2,38 @@ package com.github.t1.kubee.boundary.gateway.deployer;
 
 import com.github.t1.kubee.entity.Audits;
 import com.github.t1.kubee.entity.Deployment;
+import com.github.t1.kubee.tools.http.Retrier;
+import com.github.t1.kubee.tools.http.RetryPolicy;
 import com.github.t1.kubee.tools.http.YamlHttpClient;
 import org.junit.jupiter.api.Test;
 
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.core.Form;
+import java.net.ConnectException;
 import java.net.URI;
+import java.time.Duration;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 import static com.github.t1.kubee.TestData.PROD01;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 class DeployerGatewayTest {
     private static final String APP_NAME = "app-name";
@@ -65,7 +79,9 @@ class DeployerGatewayTest {
 
     private final YamlHttpClient yamlClient = mock(YamlHttpClient.class);
 
-    private final DeployerGateway gateway = new DeployerGateway(yamlClient);
+    private final Retrier retrier = new Retrier(RetryPolicy.builder().build());
+
+    private final DeployerGateway gateway = new DeployerGateway(yamlClient, new DeployerInventoryCache(Duration.ofMinutes(1), 10), retrier);
 
     private DeployerResponse deployables() {
         DeployerResponse deployables = new DeployerResponse();
@@ -110,10 +126,10 @@ class DeployerGatewayTest {
 
     @Test
     void shouldDeploy() {
-        given(yamlClient.POST(eq(DEPLOYER_URI), any(), any())).will(i -> {
+        given(yamlClient.POSTAsync(eq(DEPLOYER_URI), any(), any())).will(i -> {
             Form form = i.getArgument(1);
             assertThat(form.asMap()).containsExactly(entry(APP_NAME + ".version", singletonList("1.0.3")));
-            return DEPLOY_AUDITS;
+            return completedFuture(DEPLOY_AUDITS);
         });
 
         Audits audits = gateway.deploy(PROD01, APP_NAME, "1.0.3");
@@ -123,14 +139,186 @@ class DeployerGatewayTest {
 
     @Test
     void shouldUndeploy() {
-        given(yamlClient.POST(eq(DEPLOYER_URI), any(), any())).will(i -> {
+        given(yamlClient.POSTAsync(eq(DEPLOYER_URI), any(), any())).will(i -> {
             Form form = i.getArgument(1);
             assertThat(form.asMap()).containsExactly(entry(APP_NAME + ".state", singletonList("undeployed")));
-            return UNDEPLOY_AUDITS;
+            return completedFuture(UNDEPLOY_AUDITS);
         });
 
         Audits audits = gateway.undeploy(PROD01, APP_NAME);
 
         assertThat(audits).isEqualTo(UNDEPLOY_AUDITS);
     }
+
+    @Test
+    void shouldRetryDeployWhenConnectionIsRefused() {
+        RetryPolicy policy = RetryPolicy.builder().baseDelay(Duration.ZERO).build();
+        DeployerGateway retrying = new DeployerGateway(yamlClient, new DeployerInventoryCache(Duration.ofMinutes(1), 10), new Retrier(policy));
+        given(yamlClient.<Audits>POSTAsync(eq(DEPLOYER_URI), any(), any()))
+            .willReturn(failed(new ProcessingException(new ConnectException("refused"))))
+            .willReturn(completedFuture(DEPLOY_AUDITS));
+
+        Audits audits = retrying.deploy(PROD01, APP_NAME, "1.0.3");
+
+        assertThat(audits).isEqualTo(DEPLOY_AUDITS);
+        verify(yamlClient, times(2)).POSTAsync(eq(DEPLOYER_URI), any(), any());
+    }
+
+    @Test
+    void shouldNotRetryDeployOnOtherFailure() {
+        ProcessingException failure = new ProcessingException("dummy");
+        given(yamlClient.<Audits>POSTAsync(eq(DEPLOYER_URI), any(), any())).willReturn(failed(failure));
+
+        Throwable thrown = catchThrowable(() -> gateway.deploy(PROD01, APP_NAME, "1.0.3"));
+
+        assertThat(thrown).isSameAs(failure);
+        verify(yamlClient, times(1)).POSTAsync(eq(DEPLOYER_URI), any(), any());
+    }
+
+    @Test
+    void shouldFetchInventoryOnlyOnceForManyVersions() {
+        given(yamlClient.GET(DEPLOYER_URI, DeployerResponse.class)).willReturn(deployables());
+
+        String version1 = gateway.fetchVersion(PROD01, APP_NAME);
+        String version2 = gateway.fetchVersion(PROD01, "unknown-app");
+        List<Deployment> deployments = gateway.fetchDeployables(PROD01).collect(toList());
+
+        assertThat(version1).isEqualTo("1.0.2");
+        assertThat(version2).isNull();
+        assertThat(deployments).containsExactly(DEPLOYMENT);
+        verify(yamlClient, times(1)).GET(DEPLOYER_URI, DeployerResponse.class);
+    }
+
+    @Test
+    void shouldFetchInventoryAgainAfterDeploy() {
+        given(yamlClient.GET(DEPLOYER_URI, DeployerResponse.class)).willReturn(deployables());
+        given(yamlClient.POSTAsync(eq(DEPLOYER_URI), any(), any())).willReturn(completedFuture(DEPLOY_AUDITS));
+        gateway.fetchVersion(PROD01, APP_NAME);
+
+        gateway.deploy(PROD01, APP_NAME, "1.0.3");
+        gateway.fetchVersion(PROD01, APP_NAME);
+
+        verify(yamlClient, times(2)).GET(DEPLOYER_URI, DeployerResponse.class);
+    }
+
+    @Test
+    void shouldFetchInventoryAgainAfterTtl() {
+        DeployerGateway uncached = new DeployerGateway(yamlClient, new DeployerInventoryCache(Duration.ZERO, 10), retrier);
+        given(yamlClient.GET(DEPLOYER_URI, DeployerResponse.class)).willReturn(deployables());
+
+        uncached.fetchVersion(PROD01, APP_NAME);
+        uncached.fetchVersion(PROD01, APP_NAME);
+
+        verify(yamlClient, times(2)).GET(DEPLOYER_URI, DeployerResponse.class);
+    }
+
+    @Test
+    void shouldStartTtlWhenFetchCompletes() throws Exception {
+        DeployerInventoryCache cache = new DeployerInventoryCache(Duration.ofMillis(100), 10);
+        CompletableFuture<DeployerResponse> slow = new CompletableFuture<>();
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<DeployerResponse> first = cache.getAsync(DEPLOYER_URI, uri -> {
+            loads.incrementAndGet();
+            return slow;
+        });
+        Thread.sleep(150);
+        slow.complete(deployables());
+        first.join();
+
+        cache.get(DEPLOYER_URI, uri -> {
+            loads.incrementAndGet();
+            return deployables();
+        });
+
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void shouldNotShareCachedInventoryBetweenCallers() {
+        DeployerInventoryCache cache = new DeployerInventoryCache(Duration.ofMinutes(1), 10);
+        DeployerResponse first = cache.get(DEPLOYER_URI, uri -> deployables());
+
+        first.getDeployables().get(APP_NAME).setVersion("changed");
+        first.getDeployables().remove(APP_NAME);
+        DeployerResponse second = cache.get(DEPLOYER_URI, uri -> deployables());
+
+        assertThat(second.getDeployables().get(APP_NAME).getVersion()).isEqualTo("1.0.2");
+    }
+
+    @Test
+    void shouldNotCacheFailedFetch() {
+        given(yamlClient.GET(DEPLOYER_URI, DeployerResponse.class))
+            .willThrow(new RuntimeException("connection refused"))
+            .willReturn(deployables());
+
+        Throwable thrown = catchThrowable(() -> gateway.fetchVersion(PROD01, APP_NAME));
+        String version = gateway.fetchVersion(PROD01, APP_NAME);
+
+        assertThat(thrown).hasMessage("connection refused");
+        assertThat(version).isEqualTo("1.0.2");
+    }
+
+    @Test
+    void shouldFetchDeployablesAsync() {
+        given(yamlClient.GETAsync(DEPLOYER_URI, DeployerResponse.class)).willReturn(completedFuture(deployables()));
+
+        CompletionStage<List<Deployment>> deployments = gateway.fetchDeployablesAsync(PROD01);
+
+        assertThat(deployments.toCompletableFuture().join()).containsExactly(DEPLOYMENT);
+    }
+
+    @Test
+    void shouldFetchDeployablesAsyncFromCachedInventory() {
+        given(yamlClient.GET(DEPLOYER_URI, DeployerResponse.class)).willReturn(deployables());
+        gateway.fetchVersion(PROD01, APP_NAME);
+
+        List<Deployment> deployments = gateway.fetchDeployablesAsync(PROD01).toCompletableFuture().join();
+
+        assertThat(deployments).containsExactly(DEPLOYMENT);
+        verify(yamlClient, never()).GETAsync(DEPLOYER_URI, DeployerResponse.class);
+    }
+
+    @Test
+    void shouldNotCacheFailedFetchAsync() {
+        given(yamlClient.GETAsync(DEPLOYER_URI, DeployerResponse.class))
+            .willReturn(failed(new RuntimeException("connection refused")))
+            .willReturn(completedFuture(deployables()));
+
+        Throwable thrown = catchThrowable(() -> gateway.fetchDeployablesAsync(PROD01).toCompletableFuture().join());
+        List<Deployment> deployments = gateway.fetchDeployablesAsync(PROD01).toCompletableFuture().join();
+
+        assertThat(thrown).hasRootCauseMessage("connection refused");
+        assertThat(deployments).containsExactly(DEPLOYMENT);
+    }
+
+    @Test
+    void shouldDeployAsync() {
+        given(yamlClient.POSTAsync(eq(DEPLOYER_URI), any(), any())).will(i -> {
+            Form form = i.getArgument(1);
+            assertThat(form.asMap()).containsExactly(entry(APP_NAME + ".version", singletonList("1.0.3")));
+            return completedFuture(DEPLOY_AUDITS);
+        });
+
+        Audits audits = gateway.deployAsync(PROD01, APP_NAME, "1.0.3").toCompletableFuture().join();
+
+        assertThat(audits).isEqualTo(DEPLOY_AUDITS);
+    }
+
+    @Test
+    void shouldFetchInventoryAgainAfterDeployAsync() {
+        given(yamlClient.GET(DEPLOYER_URI, DeployerResponse.class)).willReturn(deployables());
+        given(yamlClient.POSTAsync(eq(DEPLOYER_URI), any(), any())).willReturn(completedFuture(DEPLOY_AUDITS));
+        gateway.fetchVersion(PROD01, APP_NAME);
+
+        gateway.deployAsync(PROD01, APP_NAME, "1.0.3").toCompletableFuture().join();
+        gateway.fetchVersion(PROD01, APP_NAME);
+
+        verify(yamlClient, times(2)).GET(DEPLOYER_URI, DeployerResponse.class);
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable throwable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
 }
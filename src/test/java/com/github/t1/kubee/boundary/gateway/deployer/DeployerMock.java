@@ -1,27 +1,40 @@
 package com.github.t1.kubee.boundary.gateway.deployer;
 
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.UriInfo;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 @Slf4j
 @Path("/")
 public class DeployerMock {
-    private final String dummyVersion;
+    @Setter private String dummyVersion;
+
+    /** To measure conditional GETs: the number of full responses, of bytes sent, and of <code>304 Not Modified</code> */
+    final AtomicInteger fullResponses = new AtomicInteger();
+    final AtomicLong bytesSent = new AtomicLong();
+    final AtomicInteger notModifiedResponses = new AtomicInteger();
 
     public DeployerMock() { this("1.2.3"); }
 
     public DeployerMock(String dummyVersion) { this.dummyVersion = dummyVersion; }
 
-    @GET public Response get(@Context UriInfo uriInfo) {
+    @GET public Response get(@Context UriInfo uriInfo, @Context Request request) {
         log.info("serve dummy deployable version {} on {}", dummyVersion, uriInfo.getRequestUri());
-        return yaml(""
+        return validated(request, ""
             + "deployables:\n"
             + "  deployer:\n"
             + "    group-id: com.github.t1\n"
@@ -37,6 +50,18 @@ public class DeployerMock {
             + "");
     }
 
+    private Response validated(Request request, String entity) {
+        EntityTag etag = new EntityTag(Integer.toHexString(entity.hashCode()));
+        ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            notModifiedResponses.incrementAndGet();
+            return notModified.build();
+        }
+        fullResponses.incrementAndGet();
+        bytesSent.addAndGet(entity.getBytes(UTF_8).length);
+        return Response.ok(entity).type(MediaType.valueOf("application/yaml")).tag(etag).build();
+    }
+
     private Response yaml(String entity) {
         return Response.ok(entity).type(MediaType.valueOf("application/yaml")).build();
     }
@@ -5,6 +5,8 @@ import com.github.t1.kubee.entity.Cluster;
 import com.github.t1.kubee.entity.Cluster.HealthConfig;
 import com.github.t1.kubee.entity.Slot;
 import com.github.t1.kubee.entity.Stage;
+import com.github.t1.kubee.tools.http.HttpClientConfig;
+import com.github.t1.kubee.tools.http.HttpClients;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
@@ -12,6 +14,7 @@ import org.junit.jupiter.api.extension.RegisterExtension;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.core.Response;
+import java.time.Duration;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -19,7 +22,7 @@ public class HealthGatewayIT {
     @RegisterExtension
     static final JaxRsTestExtension SERVICE = new JaxRsTestExtension(new HealthMockBoundary());
 
-    private static boolean healthy = true;
+    private static volatile boolean healthy = true;
 
     @Path("/system")
     public static class HealthMockBoundary {
@@ -42,7 +45,7 @@ public class HealthGatewayIT {
     }
 
 
-    private HealthGateway gateway = new HealthGateway();
+    private HealthGateway gateway = new HealthGateway(HttpClients.build(HttpClientConfig.builder().build()));
 
     @Test void shouldNotFetchHealthWithoutHealthConfig() {
         Cluster clusterWithoutConfig = CLUSTER.toBuilder().healthConfig(null).build();
@@ -69,4 +72,45 @@ public class HealthGatewayIT {
 
         assertThat(healthy).isFalse();
     }
+
+    @Test void shouldAwaitReady() throws Exception {
+        boolean ready;
+        try {
+            HealthGatewayIT.healthy = false;
+            Thread starting = new Thread(() -> {
+                sleep(300);
+                HealthGatewayIT.healthy = true;
+            });
+            starting.start();
+
+            ready = gateway.awaitReady(CLUSTER.node(DEV, 1), "/system", Duration.ofSeconds(5));
+            starting.join();
+        } finally {
+            HealthGatewayIT.healthy = true;
+        }
+
+        assertThat(ready).isTrue();
+    }
+
+    @Test void shouldGiveUpAwaitingReady() {
+        boolean ready;
+        long start = System.nanoTime();
+        try {
+            HealthGatewayIT.healthy = false;
+            ready = gateway.awaitReady(CLUSTER.node(DEV, 1), "/system", Duration.ofMillis(500));
+        } finally {
+            HealthGatewayIT.healthy = true;
+        }
+
+        assertThat(ready).isFalse();
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(3));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
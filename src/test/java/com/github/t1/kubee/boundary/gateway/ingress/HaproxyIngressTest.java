@@ -0,0 +1,275 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import com.github.t1.kubee.entity.Endpoint;
+import com.github.t1.kubee.entity.Stage;
+import com.github.t1.nginx.HostPort;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.github.t1.kubee.TestData.APPLICATION_NAME;
+import static com.github.t1.kubee.TestData.PROD01;
+import static com.github.t1.kubee.TestData.PROD02;
+import static com.github.t1.kubee.TestData.PROD03;
+import static com.github.t1.kubee.TestData.SLOT_0;
+import static com.github.t1.kubee.TestData.WORKER01;
+import static com.github.t1.kubee.TestData.WORKER02;
+import static com.github.t1.kubee.boundary.gateway.ingress.HaproxyIngress.HAPROXY_ETC;
+import static com.github.t1.kubee.boundary.gateway.ingress.IngressFactory.ingress;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.tuple;
+
+class HaproxyIngressTest {
+    private static final String SHOW_SERVERS_STATE = "show servers state";
+
+    private final HaproxyRuntimeMock runtime = new HaproxyRuntimeMock();
+    private final Stage stage = Stage.builder().name("PROD").prefix("").suffix("").count(3).indexLength(2)
+        .loadBalancerConfig("type", "haproxy")
+        .loadBalancerConfig("stats-socket", runtime.socket())
+        .loadBalancerConfig("reload", "custom")
+        .loadBalancerConfig("class", ReloadMock.class.getName())
+        .build();
+
+    private Path origEtc;
+    @TempDir Path haproxyEtc;
+    private Path configPath;
+
+    @BeforeEach void setUp() {
+        origEtc = HAPROXY_ETC;
+        HAPROXY_ETC = haproxyEtc;
+        configPath = haproxyEtc.resolve("haproxy.cfg");
+    }
+
+    @AfterEach void tearDown() throws IOException {
+        HAPROXY_ETC = origEtc;
+        ReloadMock.reset();
+        runtime.close();
+    }
+
+    /** Write the base config and start the runtime with the same servers */
+    @SneakyThrows(IOException.class)
+    private void givenHaproxy(HostPort... workers) {
+        HaproxyConfig config = new HaproxyConfig();
+        HaproxyConfig.Backend loadBalancer = config.addBackend("dummy-app-lb", "dummy-app", 80);
+        loadBalancer.setBalance("leastconn");
+        for (int i = 0; i < workers.length; i++) {
+            HostPort worker = workers[i];
+            String address = "10.0.0." + (i + 1);
+            loadBalancer.getServers().add(new HaproxyConfig.Server(worker.getHost(), worker.getHost(), worker.getPort(), true, null));
+            runtime.givenServer("dummy-app-lb", worker.getHost(), address, worker.getPort(), true);
+            config.addBackend(worker.getHost(), worker.getHost(), SLOT_0.getHttp()).getServers()
+                .add(new HaproxyConfig.Server(worker.getHost(), worker.getHost(), worker.getPort(), true, null));
+            runtime.givenServer(worker.getHost(), worker.getHost(), address, worker.getPort(), true);
+        }
+        Files.write(configPath, config.render(runtime.socket()).getBytes(UTF_8));
+    }
+
+    @SneakyThrows(IOException.class)
+    private String actualConfig() { return new String(Files.readAllBytes(configPath), UTF_8); }
+
+    /** The requests after reading the state */
+    private Object[] changeRequests() { return runtime.requests.stream().filter(request -> !request.equals(SHOW_SERVERS_STATE)).toArray(); }
+
+    private void verifyReloaded() { assertThat(ReloadMock.calls).isEqualTo(1); }
+
+    private void verifyNotReloaded() { assertThat(ReloadMock.calls).isEqualTo(0); }
+
+
+    @Test void shouldBeSelectedByType() {
+        givenHaproxy(WORKER01);
+
+        assertThat(ingress(stage)).isInstanceOf(HaproxyIngress.class);
+    }
+
+    @Test void shouldNotReadStateWhenCreated() {
+        givenHaproxy(WORKER01);
+
+        Ingress ingress = ingress(stage);
+
+        assertThat(runtime.requests).isEmpty();
+        assertThat(ingress.hasReverseProxyFor(PROD01)).isTrue();
+        assertThat(runtime.requests).containsExactly(SHOW_SERVERS_STATE);
+    }
+
+    @Test void shouldRejectStatsSocketOnNonLoopbackAddress() {
+        Stage exposed = Stage.builder().name("PROD").prefix("").suffix("").count(3).indexLength(2)
+            .loadBalancerConfig("type", "haproxy")
+            .loadBalancerConfig("stats-socket", "0.0.0.0:9999")
+            .build();
+
+        Throwable thrown = catchThrowable(() -> ingress(exposed));
+
+        assertThat(thrown).isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("expected stats socket on a loopback address but got 0.0.0.0:9999");
+    }
+
+    @Test void shouldGetLoadBalancersFromRuntimeState() {
+        givenHaproxy(WORKER01, WORKER02);
+        runtime.servers.get("dummy-app-lb/worker02").enabled = false;
+
+        Ingress ingress = ingress(stage);
+
+        assertThat(ingress.loadBalancers().collect(toList())).extracting(LoadBalancer::applicationName, LoadBalancer::method)
+            .containsExactly(tuple(APPLICATION_NAME, "leastconn"));
+        LoadBalancer loadBalancer = ingress.loadBalancers().findFirst().orElseThrow(IllegalStateException::new);
+        assertThat(loadBalancer.endpoints()).containsExactly(new Endpoint("worker01", 10001));
+        assertThat(loadBalancer.hasHost("worker02")).isFalse();
+    }
+
+    @Test void shouldGetReverseProxiesFromRuntimeState() {
+        givenHaproxy(WORKER01, WORKER02);
+        runtime.servers.get("worker02/worker02").port = 10012;
+
+        Ingress ingress = ingress(stage);
+
+        assertThat(ingress.reverseProxies().collect(toList()))
+            .extracting(ReverseProxy::name, ReverseProxy::listen, ReverseProxy::getPort)
+            .containsExactly(tuple("worker01", 8080, 10001), tuple("worker02", 8080, 10012));
+    }
+
+    @Test void shouldRemoveFromLoadBalancerWithoutReload() {
+        givenHaproxy(WORKER01, WORKER02);
+        String before = actualConfig();
+
+        ingress(stage).removeFromLoadBalancer(APPLICATION_NAME, PROD02);
+
+        assertThat(changeRequests()).containsExactly("disable server dummy-app-lb/worker02");
+        assertThat(runtime.servers.get("dummy-app-lb/worker02").enabled).isFalse();
+        assertThat(actualConfig()).isEqualTo(before);
+        verifyNotReloaded();
+    }
+
+    @Test void shouldAddDisabledNodeBackToLoadBalancerWithoutReload() {
+        givenHaproxy(WORKER01, WORKER02);
+        runtime.servers.get("dummy-app-lb/worker02").enabled = false;
+
+        ingress(stage).addToLoadBalancer(APPLICATION_NAME, PROD02);
+
+        assertThat(changeRequests()).containsExactly("enable server dummy-app-lb/worker02");
+        assertThat(runtime.servers.get("dummy-app-lb/worker02").enabled).isTrue();
+        verifyNotReloaded();
+    }
+
+    @Test void shouldNotSendAnythingWhenAddingNodeThatIsAlreadyInLoadBalancer() {
+        givenHaproxy(WORKER01, WORKER02);
+
+        ingress(stage).addToLoadBalancer(APPLICATION_NAME, PROD02);
+
+        assertThat(changeRequests()).isEmpty();
+        verifyNotReloaded();
+    }
+
+    @Test void shouldSetPortOfReverseProxyWithoutReload() {
+        givenHaproxy(WORKER01, WORKER02);
+        Ingress ingress = ingress(stage);
+
+        ingress.getOrCreateReverseProxyFor(PROD01).setPort(10011);
+        ingress.apply();
+
+        assertThat(changeRequests()).containsExactly("set server worker01/worker01 addr 10.0.0.1 port 10011");
+        assertThat(runtime.servers.get("worker01/worker01").port).isEqualTo(10011);
+        verifyNotReloaded();
+    }
+
+    @Test void shouldSendAllCommandsOfBatchInOneRequest() {
+        givenHaproxy(WORKER01, WORKER02);
+        runtime.servers.get("dummy-app-lb/worker02").enabled = false;
+        Ingress ingress = ingress(stage);
+
+        ingress.batch(() -> {
+            ingress.removeFromLoadBalancer(APPLICATION_NAME, PROD01);
+            ingress.addToLoadBalancer(APPLICATION_NAME, PROD02);
+        });
+
+        assertThat(changeRequests()).containsExactly("disable server dummy-app-lb/worker01; enable server dummy-app-lb/worker02");
+        verifyNotReloaded();
+    }
+
+    @Test void shouldRewriteBaseConfigAndReloadForNewNode() {
+        givenHaproxy(WORKER01, WORKER02);
+        runtime.servers.get("dummy-app-lb/worker02").enabled = false;
+        Ingress ingress = ingress(stage);
+
+        ingress.batch(() -> {
+            ingress.getOrCreateReverseProxyFor(PROD03).setPort(10003);
+            ingress.addToLoadBalancer(APPLICATION_NAME, PROD03);
+        });
+
+        assertThat(changeRequests()).isEmpty();
+        verifyReloaded();
+        assertThat(actualConfig()).isEqualTo("" +
+            "# generated by kub-ee: servers are changed with the runtime api;\n" +
+            "# this file is only rewritten, when backends or servers are added or removed\n" +
+            "global\n" +
+            "    stats socket ipv4@" + runtime.socket() + " level admin\n" +
+            "\n" +
+            "defaults\n" +
+            "    mode http\n" +
+            "    option forwardfor\n" +
+            "    timeout connect 5s\n" +
+            "    timeout client 1m\n" +
+            "    timeout server 1m\n" +
+            "    default-server init-addr last,libc,none\n" +
+            "\n" +
+            "frontend listen-80\n" +
+            "    bind :80\n" +
+            "    use_backend dummy-app-lb if { req.hdr(host),field(1,:) -i dummy-app }\n" +
+            "\n" +
+            "frontend listen-8080\n" +
+            "    bind :8080\n" +
+            "    use_backend worker01 if { req.hdr(host),field(1,:) -i worker01 }\n" +
+            "    use_backend worker02 if { req.hdr(host),field(1,:) -i worker02 }\n" +
+            "    use_backend worker03 if { req.hdr(host),field(1,:) -i worker03 }\n" +
+            "\n" +
+            "backend dummy-app-lb\n" +
+            "    balance leastconn\n" +
+            "    server worker01 worker01:10001\n" +
+            "    server worker02 worker02:10002 disabled\n" +
+            "    server worker03 worker03:10003\n" +
+            "\n" +
+            "backend worker01\n" +
+            "    server worker01 worker01:10001\n" +
+            "\n" +
+            "backend worker02\n" +
+            "    server worker02 worker02:10002\n" +
+            "\n" +
+            "backend worker03\n" +
+            "    server worker03 worker03:10003\n");
+    }
+
+    @Test void shouldRestoreBaseConfigWhenReloadFails() {
+        givenHaproxy(WORKER01);
+        String before = actualConfig();
+        ReloadMock.error = "foo";
+        Ingress ingress = ingress(stage);
+
+        Throwable thrown = catchThrowable(() -> ingress.batch(() -> {
+            ingress.getOrCreateReverseProxyFor(PROD02).setPort(10002);
+            ingress.addToLoadBalancer(APPLICATION_NAME, PROD02);
+        }));
+
+        assertThat(thrown).hasMessage("failed to reload load balancer: foo");
+        assertThat(actualConfig()).isEqualTo(before);
+    }
+
+    @Test void shouldFailWhenRuntimeApiFails() {
+        givenHaproxy(WORKER01, WORKER02);
+        runtime.servers.remove("dummy-app-lb/worker02");
+        Ingress ingress = ingress(stage);
+        ingress.loadBalancers().findFirst().orElseThrow(IllegalStateException::new).removeHost("worker02");
+
+        Throwable thrown = catchThrowable(ingress::apply);
+
+        assertThat(thrown).hasMessage("haproxy runtime api failed: No such server.");
+        verifyNotReloaded();
+    }
+}
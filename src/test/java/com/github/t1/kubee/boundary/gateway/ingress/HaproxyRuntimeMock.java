@@ -0,0 +1,101 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import lombok.AllArgsConstructor;
+import lombok.SneakyThrows;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** A stand-in for the runtime API of HAProxy on a local socket: it keeps the state of the servers and records the requests */
+class HaproxyRuntimeMock implements AutoCloseable {
+    @AllArgsConstructor static class Server {
+        String address;
+        int port;
+        boolean enabled;
+    }
+
+    /** One line per connection, i.e. the commands separated by <code>;</code> */
+    final List<String> requests = new CopyOnWriteArrayList<>();
+    final Map<String, Server> servers = new ConcurrentHashMap<>();
+    private final ServerSocket serverSocket;
+
+    @SneakyThrows(IOException.class)
+    HaproxyRuntimeMock() {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(this::serve, "haproxy-runtime-mock");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String socket() { return "127.0.0.1:" + serverSocket.getLocalPort(); }
+
+    HaproxyRuntimeMock givenServer(String backend, String name, String address, int port, boolean enabled) {
+        servers.put(backend + "/" + name, new Server(address, port, enabled));
+        return this;
+    }
+
+    @Override public void close() throws IOException { serverSocket.close(); }
+
+    private void serve() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                String line = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8)).readLine();
+                if (line == null)
+                    continue;
+                requests.add(line);
+                StringBuilder out = new StringBuilder();
+                for (String command : line.split(";"))
+                    out.append(handle(command.trim().split(" ")));
+                socket.getOutputStream().write(out.toString().getBytes(UTF_8));
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private String handle(String... words) {
+        if (words.length == 3 && words[0].equals("show") && words[1].equals("servers") && words[2].equals("state"))
+            return state();
+        if (words.length == 3 && (words[0].equals("enable") || words[0].equals("disable")) && words[1].equals("server")) {
+            Server server = servers.get(words[2]);
+            if (server == null)
+                return "No such server.\n\n";
+            server.enabled = words[0].equals("enable");
+            return "\n";
+        }
+        if (words.length == 7 && words[0].equals("set") && words[1].equals("server") && words[3].equals("addr") && words[5].equals("port")) {
+            Server server = servers.get(words[2]);
+            if (server == null)
+                return "No such server.\n\n";
+            String message = "IP changed from '" + server.address + "' to '" + words[4] + "', "
+                + "port changed from '" + server.port + "' to '" + words[6] + "' by 'stats socket command'\n\n";
+            server.address = words[4];
+            server.port = Integer.parseInt(words[6]);
+            return message;
+        }
+        return "Unknown command. Please enter one of the following commands only :\n  help : this message\n\n";
+    }
+
+    private String state() {
+        StringBuilder out = new StringBuilder("1\n# be_id be_name srv_id srv_name srv_addr srv_op_state srv_admin_state srv_uweight"
+            + " srv_iweight srv_time_since_last_change srv_check_status srv_check_result srv_check_health srv_check_state"
+            + " srv_agent_state bk_f_forced_id srv_f_forced_id srv_fqdn srv_port srvrecord\n");
+        servers.forEach((key, server) -> {
+            String[] names = key.split("/");
+            out.append("3 ").append(names[0]).append(" 1 ").append(names[1]).append(" ").append(server.address)
+                .append(server.enabled ? " 2 0" : " 0 1").append(" 1 1 100 1 0 2 0 0 0 0 ")
+                .append(names[1]).append(" ").append(server.port).append(" -\n");
+        });
+        return out.append("\n").toString();
+    }
+}
@@ -2,6 +2,7 @@ package com.github.t1.kubee.boundary.gateway.ingress;
 
 import com.github.t1.kubee.TestData;
 import com.github.t1.kubee.entity.ClusterNode;
+import com.github.t1.kubee.entity.Stage;
 import com.github.t1.nginx.HostPort;
 import com.github.t1.nginx.NginxConfig;
 import com.github.t1.nginx.NginxConfig.NginxServer;
@@ -14,9 +15,11 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.stream.Stream;
 
@@ -29,6 +32,7 @@ import static com.github.t1.kubee.TestData.WORKER02;
 import static com.github.t1.kubee.boundary.gateway.ingress.IngressFactory.ingress;
 import static com.github.t1.kubee.boundary.gateway.ingress.NginxIngress.NGINX_ETC;
 import static com.github.t1.kubee.boundary.gateway.ingress.NginxIngress.toEndpoint;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
@@ -37,6 +41,21 @@ import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.assertj.core.api.Assertions.tuple;
 
 class NginxIngressTest {
+    private static final Stage SPLIT = Stage.builder().name("PROD").prefix("").suffix("").count(3).indexLength(2)
+        .loadBalancerConfig("reload", "custom")
+        .loadBalancerConfig("class", ReloadMock.class.getName())
+        .loadBalancerConfig("layout", "split")
+        .loadBalancerConfig("validate", "custom")
+        .loadBalancerConfig("validate-class", ValidateMock.class.getName())
+        .build();
+    private static final Stage VALIDATED = Stage.builder().name("PROD").prefix("").suffix("").count(3).indexLength(2)
+        .loadBalancerConfig("reload", "custom")
+        .loadBalancerConfig("class", ReloadMock.class.getName())
+        .loadBalancerConfig("validate", "custom")
+        .loadBalancerConfig("validate-class", ValidateMock.class.getName())
+        .build();
+    private static final FileTime OLD = FileTime.fromMillis(0);
+
     private Path origConfigPath;
     @TempDir Path nginxEtc;
     private Path configPath;
@@ -84,6 +103,25 @@ class NginxIngressTest {
     }
 
 
+    @SneakyThrows(IOException.class)
+    private Path givenSplitNginx(HostPort... workers) {
+        Path dir = Files.createDirectories(nginxEtc.resolve("conf.d"));
+        NginxConfig loadBalancer = NginxConfig.create()
+            .addUpstream(NginxUpstream.named("dummy-app-lb").setMethod("least_conn").setHostPorts(new ArrayList<>(asList(workers))))
+            .addServer(NginxServer.named("dummy-app").setListen(80)
+                .addLocation(NginxServerLocation.named("/").setProxyPass(URI.create("http://dummy-app-lb/dummy-app")).setAfter(PROXY_SETTINGS)));
+        givenUnit(dir.resolve("dummy-app-lb.conf"), loadBalancer);
+        for (HostPort worker : workers)
+            givenUnit(dir.resolve(worker.getHost() + ".conf"), addReverseProxy(NginxConfig.create(), worker));
+        return dir;
+    }
+
+    @SneakyThrows(IOException.class)
+    private void givenUnit(Path file, NginxConfig config) {
+        Files.write(file, singletonList(config.toString()));
+        Files.setLastModifiedTime(file, OLD);
+    }
+
     private NginxConfig actualNginxConfig() { return NginxConfig.readFrom(configPath.toUri()); }
 
     private void verifyReloaded() { assertThat(ReloadMock.calls).isEqualTo(1); }
@@ -94,6 +132,7 @@ class NginxIngressTest {
     void tearDown() {
         NGINX_ETC = origConfigPath;
         ReloadMock.reset();
+        ValidateMock.reset();
     }
 
 
@@ -175,4 +214,249 @@ class NginxIngressTest {
         assertThat(actualNginxConfig()).isEqualTo(nginxConfig(WORKER01, WORKER02));
         verifyReloaded();
     }
+
+    @Test void shouldNotShareUnappliedChanges() {
+        givenNginx(WORKER01, WORKER02);
+        Ingress editing = ingress(PROD);
+
+        editing.removeReverseProxyFor(PROD02);
+        Stream<ReverseProxy> reverseProxies = ingress(PROD).reverseProxies();
+
+        assertThat(editing.hasChanged()).isTrue();
+        assertThat(reverseProxies).extracting(ReverseProxy::name).containsExactly("worker01", "worker02");
+    }
+
+    @Test void shouldReadChangedConfig() {
+        givenNginx(WORKER01);
+        assertThat(ingress(PROD).reverseProxies()).extracting(ReverseProxy::name).containsExactly("worker01");
+        givenNginx(WORKER01, WORKER02);
+
+        Stream<ReverseProxy> reverseProxies = ingress(PROD).reverseProxies();
+
+        assertThat(reverseProxies).extracting(ReverseProxy::name).containsExactly("worker01", "worker02");
+    }
+
+    @Test void shouldWriteConfigWithoutLeavingTempFiles() throws IOException {
+        givenNginx(WORKER01, WORKER02);
+
+        ingress(PROD).removeFromLoadBalancer("dummy-app", PROD02);
+
+        try (Stream<Path> files = Files.list(nginxEtc)) {
+            assertThat(files).containsExactly(configPath);
+        }
+        assertThat(ingress(PROD).loadBalancers().flatMap(LoadBalancer::endpoints)).containsExactly(toEndpoint(WORKER01));
+    }
+
+    @Test void shouldApplyBatchWithOneReload() {
+        givenNginx(WORKER01, WORKER02);
+        Ingress ingress = ingress(PROD);
+
+        ingress.batch(() -> {
+            ingress.removeFromLoadBalancer("dummy-app", PROD02);
+            ingress.addToLoadBalancer("dummy-app", PROD01);
+        });
+
+        assertThat(actualNginxConfig()).isEqualTo(removeNode(nginxConfig(WORKER01, WORKER02), PROD02));
+        verifyReloaded();
+    }
+
+    @Test void shouldReloadOnlyOnceForChangesOfStagesSharingOneConfig() {
+        givenNginx(WORKER01, WORKER02);
+
+        IngressFactory.reloadOnce(() -> {
+            ingress(PROD).removeFromLoadBalancer("dummy-app", PROD01);
+            ingress(PROD).removeFromLoadBalancer("dummy-app", PROD02);
+        });
+
+        assertThat(actualNginxConfig()).isEqualTo(addReverseProxy(NginxConfig.create(), WORKER01, WORKER02));
+        verifyReloaded();
+    }
+
+    @Test void shouldRestoreAllChangesWhenTheSharedReloadFails() {
+        givenNginx(WORKER01, WORKER02);
+        ReloadMock.error = "dummy-error";
+
+        Throwable throwable = catchThrowable(() -> IngressFactory.reloadOnce(() -> {
+            ingress(PROD).removeFromLoadBalancer("dummy-app", PROD01);
+            ingress(PROD).removeFromLoadBalancer("dummy-app", PROD02);
+        }));
+
+        assertThat(throwable).hasMessage("failed to reload load balancer: dummy-error");
+        assertThat(actualNginxConfig()).isEqualTo(nginxConfig(WORKER01, WORKER02));
+        verifyReloaded();
+    }
+
+    @Test void shouldNotReloadWhenBatchChangesNothing() {
+        givenNginx(WORKER01, WORKER02);
+        Ingress ingress = ingress(PROD);
+
+        ingress.batch(() -> {
+            ingress.removeFromLoadBalancer("dummy-app", PROD02);
+            ingress.addToLoadBalancer("dummy-app", PROD02);
+        });
+
+        assertThat(actualNginxConfig()).isEqualTo(nginxConfig(WORKER01, WORKER02));
+        verifyNotReloaded();
+    }
+
+    @Test void shouldNotApplyFailedBatch() {
+        givenNginx(WORKER01, WORKER02);
+        Ingress ingress = ingress(PROD);
+
+        Throwable throwable = catchThrowable(() -> ingress.batch(() -> {
+            ingress.removeFromLoadBalancer("dummy-app", PROD02);
+            throw new RuntimeException("dummy-error");
+        }));
+
+        assertThat(throwable).hasMessage("dummy-error");
+        assertThat(actualNginxConfig()).isEqualTo(nginxConfig(WORKER01, WORKER02));
+        verifyNotReloaded();
+    }
+
+    @Test void shouldFindEditsMadeWithinBatch() {
+        givenNginx(WORKER01);
+        Ingress ingress = ingress(PROD);
+
+        ingress.batch(() -> {
+            ingress.getOrCreateReverseProxyFor(PROD02).setPort(WORKER02.getPort());
+            ingress.removeReverseProxyFor(PROD01);
+            assertThat(ingress.hasReverseProxyFor(PROD01)).isFalse();
+            assertThat(ingress.hasReverseProxyFor(PROD02)).isTrue();
+        });
+
+        assertThat(ingress.reverseProxies())
+            .extracting(ReverseProxy::name, ReverseProxy::listen, ReverseProxy::getPort)
+            .containsExactly(tuple("worker02", 8080, 10002));
+        verifyReloaded();
+    }
+
+    @Test void shouldNotReloadWhenAddingNodeThatIsAlreadyInLoadBalancer() {
+        givenNginx(WORKER01, WORKER02);
+        Ingress ingress = ingress(PROD);
+
+        ingress.batch(() -> {
+            ingress.addToLoadBalancer("dummy-app", PROD01);
+            assertThat(ingress.hasChanged()).isFalse();
+        });
+
+        verifyNotReloaded();
+    }
+
+    @Test void shouldReadSplitConfig() {
+        givenSplitNginx(WORKER01, WORKER02);
+
+        Ingress ingress = ingress(SPLIT);
+
+        assertThat(ingress.reverseProxies()).extracting(ReverseProxy::name).containsExactly("worker01", "worker02");
+        assertThat(ingress.loadBalancers().flatMap(LoadBalancer::endpoints))
+            .containsExactly(toEndpoint(WORKER01), toEndpoint(WORKER02));
+    }
+
+    @Test void shouldWriteOnlyChangedFileOfSplitConfig() throws IOException {
+        Path dir = givenSplitNginx(WORKER01, WORKER02);
+
+        ingress(SPLIT).removeFromLoadBalancer("dummy-app", PROD02);
+
+        assertThat(ingress(SPLIT).loadBalancers().flatMap(LoadBalancer::endpoints)).containsExactly(toEndpoint(WORKER01));
+        assertThat(Files.getLastModifiedTime(dir.resolve("dummy-app-lb.conf"))).isNotEqualTo(OLD);
+        assertThat(Files.getLastModifiedTime(dir.resolve("worker01.conf"))).isEqualTo(OLD);
+        assertThat(Files.getLastModifiedTime(dir.resolve("worker02.conf"))).isEqualTo(OLD);
+        verifyReloaded();
+    }
+
+    @Test void shouldDeleteFileOfRemovedLoadBalancerInSplitConfig() {
+        Path dir = givenSplitNginx(WORKER01);
+
+        ingress(SPLIT).removeFromLoadBalancer("dummy-app", PROD01);
+
+        assertThat(dir.resolve("dummy-app-lb.conf")).doesNotExist();
+        assertThat(dir.resolve("worker01.conf")).exists();
+        assertThat(ingress(SPLIT).reverseProxies()).extracting(ReverseProxy::name).containsExactly("worker01");
+        verifyReloaded();
+    }
+
+    @Test void shouldRestoreChangedFileOfSplitConfigWhenReloadFails() throws IOException {
+        Path dir = givenSplitNginx(WORKER01, WORKER02);
+        String before = new String(Files.readAllBytes(dir.resolve("dummy-app-lb.conf")), UTF_8);
+        ReloadMock.error = "dummy-error";
+
+        Throwable throwable = catchThrowable(() -> ingress(SPLIT).removeFromLoadBalancer("dummy-app", PROD02));
+
+        assertThat(throwable).hasMessageContaining("dummy-error");
+        assertThat(new String(Files.readAllBytes(dir.resolve("dummy-app-lb.conf")), UTF_8)).isEqualTo(before);
+    }
+
+    @Test void shouldRestoreWrittenFilesOfSplitConfigWhenWritingAnotherFails() throws IOException {
+        Path dir = givenSplitNginx(WORKER01, WORKER02);
+        String before = new String(Files.readAllBytes(dir.resolve("dummy-app-lb.conf")), UTF_8);
+        ValidateMock.afterValidate = () -> replaceWithNonEmptyDirectory(dir.resolve("worker01.conf"));
+        Ingress ingress = ingress(SPLIT);
+
+        Throwable throwable = catchThrowable(() -> ingress.batch(() -> {
+            ingress.removeFromLoadBalancer("dummy-app", PROD02);
+            ingress.getOrCreateReverseProxyFor(PROD01).setPort(10011);
+        }));
+
+        assertThat(throwable).isInstanceOf(UncheckedIOException.class).hasMessageContaining("worker01.conf");
+        assertThat(new String(Files.readAllBytes(dir.resolve("dummy-app-lb.conf")), UTF_8)).isEqualTo(before);
+        verifyNotReloaded();
+    }
+
+    /** So the staged file can't be moved there */
+    @SneakyThrows(IOException.class)
+    private static void replaceWithNonEmptyDirectory(Path file) {
+        Files.delete(file);
+        Files.createDirectories(file.resolve("blocker"));
+    }
+
+    @Test void shouldValidateStagedConfigBeforeApplying() {
+        givenNginx(WORKER01, WORKER02);
+
+        ingress(VALIDATED).removeFromLoadBalancer("dummy-app", PROD02);
+
+        NginxConfig expected = removeNode(nginxConfig(WORKER01, WORKER02), PROD02);
+        assertThat(ValidateMock.configs).containsExactly(expected.toString());
+        assertThat(actualNginxConfig()).isEqualTo(expected);
+        verifyReloaded();
+    }
+
+    @Test void shouldNeitherWriteNorReloadInvalidConfig() throws IOException {
+        givenNginx(WORKER01, WORKER02);
+        ValidateMock.error = "dummy-error";
+
+        Throwable throwable = catchThrowable(() -> ingress(VALIDATED).removeFromLoadBalancer("dummy-app", PROD02));
+
+        assertThat(throwable).hasMessage("invalid load balancer config: dummy-error");
+        assertThat(actualNginxConfig()).isEqualTo(nginxConfig(WORKER01, WORKER02));
+        try (Stream<Path> files = Files.list(nginxEtc)) {
+            assertThat(files).containsExactly(configPath);
+        }
+        verifyNotReloaded();
+    }
+
+    @Test void shouldValidateChangedFilesOfSplitConfig() {
+        Path dir = givenSplitNginx(WORKER01, WORKER02);
+
+        ingress(SPLIT).removeFromLoadBalancer("dummy-app", PROD02);
+
+        assertThat(ValidateMock.configs).hasSize(1);
+        assertThat(ValidateMock.configs.get(0))
+            .startsWith("events {\n}\n\nhttp {\n    include " + dir.toAbsolutePath().resolve(".dummy-app-lb.conf"))
+            .doesNotContain("worker01.conf");
+    }
+
+    @Test void shouldNeitherWriteNorReloadInvalidSplitConfig() throws IOException {
+        Path dir = givenSplitNginx(WORKER01, WORKER02);
+        ValidateMock.error = "dummy-error";
+
+        Throwable throwable = catchThrowable(() -> ingress(SPLIT).removeFromLoadBalancer("dummy-app", PROD02));
+
+        assertThat(throwable).hasMessage("invalid load balancer config: dummy-error");
+        assertThat(Files.getLastModifiedTime(dir.resolve("dummy-app-lb.conf"))).isEqualTo(OLD);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files).extracting(file -> file.getFileName().toString())
+                .containsExactlyInAnyOrder("dummy-app-lb.conf", "worker01.conf", "worker02.conf");
+        }
+        verifyNotReloaded();
+    }
 }
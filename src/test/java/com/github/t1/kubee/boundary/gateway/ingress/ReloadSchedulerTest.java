@@ -0,0 +1,104 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import com.github.t1.kubee.boundary.gateway.ingress.IngressReloader.Reload;
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReloadSchedulerTest {
+    @RequiredArgsConstructor
+    private static class CountingReload implements Reload {
+        private final String target;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+
+        @Override public String target() { return target; }
+
+        @Override public String reload() {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            return "result-" + calls.incrementAndGet();
+        }
+    }
+
+    private static List<String> reloadConcurrently(int count, Reload reload, Duration debounce) {
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            List<CompletableFuture<String>> futures = IntStream.range(0, count)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> ReloadScheduler.reload(reload, debounce), executor))
+                .collect(toList());
+            return futures.stream().map(CompletableFuture::join).collect(toList());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test void shouldMergeReloadsWithinDebounceWindow() {
+        CountingReload reload = new CountingReload("merge");
+
+        List<String> results = reloadConcurrently(3, reload, Duration.ofMillis(200));
+
+        assertThat(reload.calls).hasValue(1);
+        assertThat(results).containsOnly("result-1");
+    }
+
+    @Test void shouldReloadAgainAfterReloadFinished() {
+        CountingReload reload = new CountingReload("sequential");
+
+        String first = ReloadScheduler.reload(reload, Duration.ZERO);
+        String second = ReloadScheduler.reload(reload, Duration.ZERO);
+
+        assertThat(first).isEqualTo("result-1");
+        assertThat(second).isEqualTo("result-2");
+    }
+
+    @Test void shouldNotMergeDifferentTargets() {
+        CountingReload reload1 = new CountingReload("target-1");
+        CountingReload reload2 = new CountingReload("target-2");
+
+        String result1 = ReloadScheduler.reload(reload1, Duration.ofMillis(10));
+        String result2 = ReloadScheduler.reload(reload2, Duration.ofMillis(10));
+
+        assertThat(result1).isEqualTo("result-1");
+        assertThat(result2).isEqualTo("result-1");
+    }
+
+    @Test void shouldRunOnlyOneReloadPerTargetAtATime() {
+        CountingReload reload = new CountingReload("one-at-a-time");
+
+        reloadConcurrently(8, reload, Duration.ZERO);
+
+        assertThat(reload.maxRunning).hasValue(1);
+        assertThat(reload.calls.get()).isBetween(1, 8);
+    }
+
+    @Test void shouldRollBackMergedRequestsLatestFirstWhenReloadFails() {
+        CountingReload reload = new CountingReload("rollback"); // any result is an error message
+        List<String> rolledBack = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<String> first = ReloadScheduler.request(reload, Duration.ofMillis(200), singletonList(() -> rolledBack.add("first")));
+        CompletableFuture<String> second = ReloadScheduler.request(reload, Duration.ofMillis(200), singletonList(() -> rolledBack.add("second")));
+
+        assertThat(ReloadScheduler.join(first)).isEqualTo("result-1");
+        assertThat(ReloadScheduler.join(second)).isEqualTo("result-1");
+        assertThat(rolledBack).containsExactly("second", "first");
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.t1.kubee.boundary.gateway.ingress;
+
+import com.github.t1.kubee.boundary.gateway.ingress.IngressValidator.Validate;
+import lombok.SneakyThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class ValidateMock implements Validate {
+    static void reset() {
+        configs.clear();
+        error = null;
+        afterValidate = null;
+    }
+
+    static final List<String> configs = new ArrayList<>();
+    static String error = null;
+    /** Runs after the validation, i.e. right before the staged files are committed */
+    static Runnable afterValidate = null;
+
+    @SneakyThrows(IOException.class)
+    @Override public String validate(Path config) {
+        configs.add(new String(Files.readAllBytes(config), UTF_8));
+        if (afterValidate != null)
+            afterValidate.run();
+        return error;
+    }
+}
@@ -4,13 +4,20 @@ import com.github.t1.kubee.boundary.rest.RestBoundary.DeployableNotFoundExceptio
 import com.github.t1.kubee.boundary.rest.RestBoundary.GetDeploymentResponse;
 import com.github.t1.kubee.control.ClusterReconditioner;
 import com.github.t1.kubee.control.Controller;
+import com.github.t1.kubee.control.Jobs;
+import com.github.t1.kubee.control.Jobs.JobListener;
 import com.github.t1.kubee.entity.Cluster;
+import com.github.t1.kubee.entity.ClusterNode;
 import com.github.t1.kubee.entity.Deployment;
 import com.github.t1.kubee.entity.DeploymentId;
+import com.github.t1.kubee.entity.Job;
 import com.github.t1.kubee.entity.LoadBalancer;
 import com.github.t1.kubee.entity.ReverseProxy;
+import com.github.t1.kubee.entity.Rollout;
 import com.github.t1.kubee.entity.Slot;
 import com.github.t1.kubee.entity.Stage;
+import com.github.t1.kubee.tools.http.HttpClients;
+import com.github.t1.kubee.tools.http.HttpMetrics.HostMetrics;
 import com.github.t1.kubee.tools.http.ProblemDetail;
 import com.github.t1.kubee.tools.http.WebApplicationApplicationException;
 import org.glassfish.jersey.uri.internal.JerseyUriBuilder;
@@ -22,9 +29,18 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.core.Link;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.io.IOException;
 import java.net.URI;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static com.github.t1.kubee.TestData.ALL_STAGES;
@@ -39,22 +55,35 @@ import static com.github.t1.kubee.boundary.rest.RestBoundary.DeploymentMode.bala
 import static com.github.t1.kubee.boundary.rest.RestBoundary.DeploymentMode.deploy;
 import static com.github.t1.kubee.boundary.rest.RestBoundary.DeploymentMode.unbalance;
 import static com.github.t1.kubee.boundary.rest.RestBoundary.DeploymentMode.undeploy;
+import static com.github.t1.kubee.entity.Job.JobState.queued;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.toList;
+import static javax.ws.rs.core.Response.Status.ACCEPTED;
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.NO_CONTENT;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
-import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 @ExtendWith(MockitoExtension.class)
 class RestBoundaryTest {
     private static final LoadBalancer LOAD_BALANCER = LoadBalancer.builder().name("foo").method("bar").server("baz").build();
+    private static final Job JOB = Job.builder().id("job-id").description("dummy").state(queued).build();
     private static final ReverseProxy REVERSE_PROXY = ReverseProxy.builder().from(URI.create("/foo-bar")).to(123).build();
 
     @Mock UriInfo uriInfo;
     @Mock Controller controller;
     @Mock ClusterReconditioner reconditioner;
+    @Mock Jobs jobs;
+    @Mock SseEventSink sink;
+    @Mock Sse sse;
 
     @InjectMocks RestBoundary boundary;
 
@@ -176,11 +205,13 @@ class RestBoundaryTest {
 
     @Test void shouldGetDeployments() {
         given(controller.clusters()).willReturn(Stream.of(CLUSTER));
-        // fetchDeployments is called multiple times and all but this one should return an empty stream
-        // but Mockito throws PotentialStubbingProblem if not lenient
-        lenient().when(controller.fetchDeploymentsOn(PROD01)).then(i -> Stream.of(DEPLOYMENT));
+        given(controller.fetchDeploymentsAsync(any())).will(i -> {
+            Stream<ClusterNode> nodes = i.getArgument(0);
+            assertThat(nodes).containsExactlyElementsOf(CLUSTER.nodes().collect(toList()));
+            return completedFuture(singletonList(DEPLOYMENT));
+        });
 
-        List<Deployment> deployments = boundary.getDeployments();
+        List<Deployment> deployments = boundary.getDeployments().toCompletableFuture().join();
 
         assertThat(deployments).containsExactly(DEPLOYMENT);
     }
@@ -228,15 +259,25 @@ class RestBoundaryTest {
         assertThat(detail.getDetail()).isEqualTo("version is a required parameter when deploying");
     }
 
-    @Test void shouldPostDeploymentDeploy() {
-        boundary.postDeployments(DEPLOYMENT.id(), VERSION_101, deploy);
+    @Test void shouldPostDeploymentDeployAsJob() {
+        given(uriInfo.getBaseUriBuilder()).will(i -> new JerseyUriBuilder());
+        given(jobs.submit(eq("deploy " + DEPLOYMENT.id() + " @ " + VERSION_101), any())).will(i -> {
+            i.<Consumer<Consumer<String>>>getArgument(1).accept(step -> {});
+            return JOB;
+        });
+
+        Response response = boundary.postDeployments(DEPLOYMENT.id(), VERSION_101, deploy);
 
-        verify(controller).deploy(DEPLOYMENT.id(), VERSION_101);
+        assertThat(response.getStatus()).isEqualTo(ACCEPTED.getStatusCode());
+        assertThat(response.getEntity()).isEqualTo(JOB);
+        assertThat(response.getLocation()).hasPath("/jobs/" + JOB.getId());
+        verify(controller).deploy(eq(DEPLOYMENT.id()), eq(VERSION_101), any());
     }
 
     @Test void shouldPostDeploymentBalance() {
-        boundary.postDeployments(DEPLOYMENT.id(), VERSION_101, balance);
+        Response response = boundary.postDeployments(DEPLOYMENT.id(), VERSION_101, balance);
 
+        assertThat(response.getStatus()).isEqualTo(NO_CONTENT.getStatusCode());
         verify(controller).balance(DEPLOYMENT.id());
     }
 
@@ -252,6 +293,122 @@ class RestBoundaryTest {
         verify(controller).undeploy(DEPLOYMENT.id());
     }
 
+    @Test void shouldFailToPostRolloutWithoutVersion() {
+        Throwable throwable = catchThrowable(() -> boundary.postRollouts("foo", null, null, null, 1, 1));
+
+        ProblemDetail detail = ((WebApplicationApplicationException) throwable).getDetail();
+        assertThat(detail.getStatus()).isEqualTo(BAD_REQUEST);
+        assertThat(detail.getDetail()).isEqualTo("version is a required parameter");
+    }
+
+    @Test void shouldPostRolloutToStageAsJob() {
+        given(uriInfo.getBaseUriBuilder()).will(i -> new JerseyUriBuilder());
+        given(controller.clusters()).willReturn(Stream.of(CLUSTER));
+        List<ClusterNode> nodes = CLUSTER.nodes().filter(node -> node.getStage().equals(PROD)).collect(toList());
+        given(controller.rollout(eq("foo"), eq(VERSION_101), eq(nodes), eq(2), eq(1), any()))
+            .willReturn(Rollout.builder().application("foo").version(VERSION_101).build());
+        given(jobs.submit(eq("roll out foo @ " + VERSION_101 + " to " + nodes.size() + " nodes"), any())).will(i -> {
+            i.<Consumer<Consumer<String>>>getArgument(1).accept(step -> {});
+            return JOB;
+        });
+
+        Response response = boundary.postRollouts("foo", VERSION_101, "PROD", null, 2, 1);
+
+        assertThat(response.getStatus()).isEqualTo(ACCEPTED.getStatusCode());
+        assertThat(response.getEntity()).isEqualTo(JOB);
+        assertThat(response.getLocation()).hasPath("/jobs/" + JOB.getId());
+        verify(controller).rollout(eq("foo"), eq(VERSION_101), eq(nodes), eq(2), eq(1), any());
+    }
+
+    @Test void shouldFailRolloutJobWithUnreachableNode() {
+        given(uriInfo.getBaseUriBuilder()).will(i -> new JerseyUriBuilder());
+        given(controller.clusters()).willReturn(Stream.of(CLUSTER));
+        given(controller.rollout(eq("foo"), eq(VERSION_101), any(), eq(1), eq(1), any()))
+            .willReturn(Rollout.builder().application("foo").version(VERSION_101)
+                .unreachableNode(PROD01.id(), "connection refused").build());
+        given(jobs.submit(any(), any())).will(i -> {
+            Throwable thrown = catchThrowable(() -> i.<Consumer<Consumer<String>>>getArgument(1).accept(step -> {}));
+            assertThat(thrown).hasMessage("rollout of foo @ " + VERSION_101 + " is incomplete");
+            return JOB;
+        });
+
+        boundary.postRollouts("foo", VERSION_101, null, null, 1, 1);
+
+        verify(jobs).submit(any(), any());
+    }
+
+    @Test void shouldGetJob() {
+        given(jobs.job(JOB.getId())).willReturn(Optional.of(JOB));
+
+        Job job = boundary.getJob(JOB.getId());
+
+        assertThat(job).isEqualTo(JOB);
+    }
+
+    @Test void shouldGetUnknownJob() {
+        given(jobs.job("unknown")).willReturn(Optional.empty());
+
+        Throwable throwable = catchThrowable(() -> boundary.getJob("unknown"));
+
+        assertThat(throwable).isInstanceOf(NotFoundException.class).hasMessage("job not found: 'unknown'");
+    }
+
+    private JobListener givenJobEventsSubscribed() {
+        AtomicReference<JobListener> listener = new AtomicReference<>();
+        given(jobs.subscribe(eq(JOB.getId()), any())).will(i -> {
+            listener.set(i.getArgument(1));
+            return true;
+        });
+        boundary.getJobEvents(JOB.getId(), sink, sse);
+        return listener.get();
+    }
+
+    @Test void shouldSendJobEvents() {
+        OutboundSseEvent event = mock(OutboundSseEvent.class);
+        given(sse.newEvent("step", "one")).willReturn(event);
+        given(sink.send(event)).will(i -> completedFuture(null));
+        JobListener listener = givenJobEventsSubscribed();
+
+        listener.step("one");
+
+        verify(sink).send(event);
+        verify(jobs, never()).unsubscribe(any(), any());
+    }
+
+    @Test void shouldUnsubscribeFromJobWhenClientIsGone() {
+        given(sink.isClosed()).willReturn(true);
+        JobListener listener = givenJobEventsSubscribed();
+
+        listener.step("one");
+
+        verify(jobs).unsubscribe(JOB.getId(), listener);
+        verify(sink, never()).send(any());
+    }
+
+    @Test void shouldUnsubscribeFromJobWhenSendingFails() {
+        OutboundSseEvent event = mock(OutboundSseEvent.class);
+        given(sse.newEvent("step", "one")).willReturn(event);
+        CompletableFuture<Object> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IOException("broken pipe"));
+        given(sink.send(event)).will(i -> failed);
+        JobListener listener = givenJobEventsSubscribed();
+
+        listener.step("one");
+
+        verify(jobs).unsubscribe(JOB.getId(), listener);
+        verify(sink).close();
+    }
+
+    @Test void shouldGetHttpMetrics() {
+        HttpClients.metrics().time(URI.create("http://metrics-host:8080/deployer"), () -> "ok");
+
+        List<HostMetrics> metrics = boundary.getHttpMetrics();
+
+        assertThat(metrics).filteredOn(host -> host.getHost().equals("metrics-host:8080"))
+            .extracting(HostMetrics::getRequests, HostMetrics::getFailures, HostMetrics::getInFlight)
+            .containsExactly(tuple(1L, 0L, 0L));
+    }
+
     @Test void shouldPostRecondition() {
         boundary.postRecondition();
 
@@ -0,0 +1,84 @@
+package com.github.t1.kubee.control;
+
+import com.github.t1.kubee.control.ClusterConfigDiff.StatusChange;
+import com.github.t1.kubee.entity.Cluster;
+import com.github.t1.kubee.entity.Stage;
+import org.junit.jupiter.api.Test;
+
+import static com.github.t1.kubee.TestData.SLOT_0;
+import static com.github.t1.kubee.TestData.SLOT_1;
+import static com.github.t1.kubee.entity.DeploymentStatus.running;
+import static com.github.t1.kubee.entity.DeploymentStatus.unbalanced;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClusterConfigDiffTest {
+    private static Stage.StageBuilder prod() {
+        return Stage.builder().name("PROD").prefix("").suffix("").count(3).indexLength(2);
+    }
+
+    private static Cluster cluster(Stage.StageBuilder stage) {
+        return Cluster.builder().host("worker").slot(SLOT_0).stage(stage.build()).build();
+    }
+
+    @Test void shouldFindNoChanges() {
+        ClusterConfigDiff diff = ClusterConfigDiff.between(singletonList(cluster(prod())), singletonList(cluster(prod())));
+
+        assertThat(diff.isEmpty()).isTrue();
+    }
+
+    @Test void shouldFindNewCluster() {
+        Cluster cluster = cluster(prod());
+
+        ClusterConfigDiff diff = ClusterConfigDiff.between(emptyList(), singletonList(cluster));
+
+        assertThat(diff.getChangedClusters()).containsExactly(cluster);
+        assertThat(diff.getStatusChanges()).isEmpty();
+    }
+
+    @Test void shouldFindChangedCount() {
+        Cluster after = cluster(prod().count(4));
+
+        ClusterConfigDiff diff = ClusterConfigDiff.between(singletonList(cluster(prod())), singletonList(after));
+
+        assertThat(diff.getChangedClusters()).containsExactly(after);
+        assertThat(diff.getStatusChanges()).isEmpty();
+    }
+
+    @Test void shouldFindChangedSlot() {
+        Cluster after = cluster(prod()).toBuilder().slot(SLOT_1).build();
+
+        ClusterConfigDiff diff = ClusterConfigDiff.between(singletonList(cluster(prod())), singletonList(after));
+
+        assertThat(diff.getChangedClusters()).containsExactly(after);
+    }
+
+    @Test void shouldFindUnbalancedNode() {
+        Cluster after = cluster(prod().status("2:app", unbalanced));
+
+        ClusterConfigDiff diff = ClusterConfigDiff.between(singletonList(cluster(prod())), singletonList(after));
+
+        assertThat(diff.getChangedClusters()).isEmpty();
+        assertThat(diff.getStatusChanges()).containsExactly(
+            new StatusChange(after.node("PROD", 2), "app", running, unbalanced));
+    }
+
+    @Test void shouldFindBalancedNode() {
+        Cluster after = cluster(prod());
+
+        ClusterConfigDiff diff = ClusterConfigDiff.between(singletonList(cluster(prod().status("1:app", unbalanced))), singletonList(after));
+
+        assertThat(diff.getChangedClusters()).isEmpty();
+        assertThat(diff.getStatusChanges()).containsExactly(
+            new StatusChange(after.node("PROD", 1), "app", unbalanced, running));
+    }
+
+    @Test void shouldIgnoreStatusOfUnknownNode() {
+        Cluster after = cluster(prod().status("9:app", unbalanced));
+
+        ClusterConfigDiff diff = ClusterConfigDiff.between(singletonList(cluster(prod())), singletonList(after));
+
+        assertThat(diff.isEmpty()).isTrue();
+    }
+}
@@ -25,6 +25,9 @@ import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -319,7 +322,15 @@ class ClusterReconditionerTest {
     // </editor-fold>
 
 
-    private void recondition() {
+    private int threads = 1;
+    private ExecutorService executor;
+    private final HealthMonitor healthMonitor = mock(HealthMonitor.class);
+
+    private void recondition() { recondition(ClusterReconditioner::run); }
+
+    private void recondition(ClusterConfigDiff diff) { recondition(reconditioner -> reconditioner.recondition(diff)); }
+
+    private void recondition(Consumer<ClusterReconditioner> action) {
         Function<Stage, Ingress> originalBuilder = IngressFactory.BUILDER;
         IngressFactory.BUILDER = stage -> ingress;
         try {
@@ -328,8 +339,11 @@ class ClusterReconditionerTest {
                     @Override public List<Cluster> getClusters() { return singletonList(cluster); }
                 },
                 deployerGateway,
-                clusterStatusGateway);
-            reconditioner.run();
+                clusterStatusGateway,
+                threads,
+                healthMonitor,
+                executor);
+            action.accept(reconditioner);
         } finally {
             IngressFactory.BUILDER = originalBuilder;
         }
@@ -393,6 +407,38 @@ class ClusterReconditionerTest {
         assertIngressApplied(PROD01, movedEndpoint, PROD03);
     }
 
+    @Test void shouldUpdatePortOfSecondWorkerOf3InParallel() {
+        threads = 4;
+        givenCluster(prod().count(3));
+        Endpoint movedEndpoint = PROD02.withPort(20000);
+        givenDeployedContainers(PROD, PROD01, movedEndpoint, PROD03);
+        givenIngress(PROD01, PROD02, PROD03);
+
+        recondition();
+
+        assertContainers(PROD, PROD01, movedEndpoint, PROD03);
+        assertIngressApplied(PROD01, movedEndpoint, PROD03);
+    }
+
+    @Test void shouldUpdatePortOfSecondWorkerOf3InParallelOnSharedExecutor() {
+        threads = 2;
+        executor = Executors.newCachedThreadPool();
+        try {
+            givenCluster(prod().count(3));
+            Endpoint movedEndpoint = PROD02.withPort(20000);
+            givenDeployedContainers(PROD, PROD01, movedEndpoint, PROD03);
+            givenIngress(PROD01, PROD02, PROD03);
+
+            recondition();
+
+            assertContainers(PROD, PROD01, movedEndpoint, PROD03);
+            assertIngressApplied(PROD01, movedEndpoint, PROD03);
+            assertThat(executor.isShutdown()).describedAs("shared executor shut down").isFalse();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test void shouldAddNodeToEmptyIngress() {
         givenCluster(prod().count(1));
         givenDeployedContainers(PROD, PROD01);
@@ -590,6 +636,54 @@ class ClusterReconditionerTest {
         assertReverseProxies(PROD, PROD01, PROD02, PROD03);
     }
 
+    @Test void shouldNotAddLoadBalancerNodeEjectedByHealthMonitor() {
+        givenCluster(prod().count(3));
+        givenContainers(PROD, PROD01, PROD02, PROD03);
+        givenDeployedVersions(PROD01, PROD02, PROD03);
+        given(healthMonitor.isEjected(findNode(PROD02.getHost()), APP_NAME)).willReturn(true);
+        givenReverseProxyFor(PROD01, PROD02, PROD03);
+        givenAppLoadBalancer(PROD01, PROD03);
+        this.ingressBefore = ingress.toString();
+
+        recondition();
+
+        assertContainers(PROD, PROD01, PROD02, PROD03);
+        assertIngressWasNotApplied();
+        assertLoadBalancers(PROD01, PROD03);
+        assertReverseProxies(PROD, PROD01, PROD02, PROD03);
+    }
+
+    @Test void shouldAddNodeToLoadBalancerWhenItsStatusChangesToRunning() {
+        Cluster before = Cluster.builder().host("worker").slot(SLOT_0)
+            .stage(prod().count(3).status("2:" + APP_NAME, unbalanced).build()).build();
+        givenCluster(prod().count(3));
+        givenContainers(PROD, PROD01, PROD02, PROD03);
+        givenDeployedVersions(PROD02);
+        givenReverseProxyFor(PROD01, PROD02, PROD03);
+        givenAppLoadBalancer(PROD01, PROD03);
+
+        recondition(ClusterConfigDiff.between(singletonList(before), singletonList(cluster)));
+
+        assertLoadBalancers(PROD01, PROD02, PROD03);
+    }
+
+    @Test void shouldNotAddNodeEjectedByHealthMonitorWhenItsStatusChangesToRunning() {
+        Cluster before = Cluster.builder().host("worker").slot(SLOT_0)
+            .stage(prod().count(3).status("2:" + APP_NAME, unbalanced).build()).build();
+        givenCluster(prod().count(3));
+        givenContainers(PROD, PROD01, PROD02, PROD03);
+        givenDeployedVersions(PROD02);
+        given(healthMonitor.isEjected(findNode(PROD02.getHost()), APP_NAME)).willReturn(true);
+        givenReverseProxyFor(PROD01, PROD02, PROD03);
+        givenAppLoadBalancer(PROD01, PROD03);
+        this.ingressBefore = ingress.toString();
+
+        recondition(ClusterConfigDiff.between(singletonList(before), singletonList(cluster)));
+
+        assertIngressWasNotApplied();
+        assertLoadBalancers(PROD01, PROD03);
+    }
+
     // TODO status stopped
     // TODO multiple stages
     // TODO multiple slots
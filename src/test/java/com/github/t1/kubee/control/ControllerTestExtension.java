@@ -11,6 +11,10 @@ import org.junit.jupiter.api.extension.BeforeEachCallback;
 import org.junit.jupiter.api.extension.Extension;
 import org.junit.jupiter.api.extension.ExtensionContext;
 
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -24,6 +28,11 @@ public class ControllerTestExtension implements Extension, BeforeEachCallback, A
     DeployerGateway deployer = mock(DeployerGateway.class);
     HealthGateway healthGateway = mock(HealthGateway.class);
     Ingress ingress = mock(Ingress.class);
+    ExecutorService executor = Executors.newCachedThreadPool();
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    FanOut fanOut = new FanOut(executor, timer, 4, Duration.ofMillis(500));
+    VersionCatalog versionCatalog = new VersionCatalog(executor, Duration.ofMinutes(1), 100);
+    NodeCircuitBreakers breakers;
 
     private Function<Stage, Ingress> originalIngressBuilder;
 
@@ -34,11 +43,17 @@ public class ControllerTestExtension implements Extension, BeforeEachCallback, A
         controller.clusterStore = this.clusterStore;
         controller.deployer = this.deployer;
         controller.healthGateway = this.healthGateway;
+        controller.fanOut = this.fanOut;
+        controller.versionCatalog = this.versionCatalog;
+        controller.readinessTimeout = Duration.ofSeconds(1);
+        controller.breakers = this.breakers = new NodeCircuitBreakers(3, Duration.ofSeconds(30), Duration.ofMinutes(1));
 
         given(clusterStore.clusters()).will(i -> Stream.of(ALL_CLUSTERS));
     }
 
     @Override public void afterEach(ExtensionContext context) {
         IngressFactory.BUILDER = originalIngressBuilder;
+        executor.shutdownNow();
+        timer.shutdownNow();
     }
 }
@@ -15,6 +15,8 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.mockito.BDDMockito.BDDMyOngoingStubbing;
 
+import java.time.Duration;
+
 import static com.github.t1.kubee.TestData.APPLICATION_NAME;
 import static com.github.t1.kubee.TestData.CLUSTER_A1;
 import static com.github.t1.kubee.TestData.CLUSTER_B2;
@@ -51,8 +53,11 @@ class DeployTest {
         given(deployer.fetchVersion(A1_DEV_1, APPLICATION_NAME)).will(i -> versionBefore);
     }
 
-    private void givenHealthy(Boolean value, Boolean... values) {
-        given(healthGateway.fetch(A1_DEV_1, APPLICATION_NAME)).willReturn(value, values);
+    private void givenHealthy(boolean before) { givenHealthy(before, before); }
+
+    private void givenHealthy(boolean before, boolean after) {
+        given(healthGateway.fetch(A1_DEV_1, APPLICATION_NAME)).willReturn(before);
+        given(healthGateway.awaitReady(A1_DEV_1, APPLICATION_NAME, Duration.ofSeconds(1))).willReturn(after);
     }
 
     private BDDMyOngoingStubbing<Audits> givenDeploy() { return givenDeploy(versionAfter); }
@@ -0,0 +1,117 @@
+package com.github.t1.kubee.control;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FanOutTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final FanOut fanOut = new FanOut(executor, timer, 2, Duration.ofMillis(200));
+
+    @AfterEach void tearDown() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    private static String failed(String item, Throwable e) { return item + ":" + e.getClass().getSimpleName(); }
+
+    @Test void shouldMapInOrder() {
+        List<String> results = fanOut.map(asList("a", "b", "c"), String::toUpperCase, FanOutTest::failed).collect(toList());
+
+        assertThat(results).containsExactly("A", "B", "C");
+    }
+
+    @Test void shouldFallBackForFailingItem() {
+        List<String> results = fanOut.map(asList("a", "b"), item -> {
+            if (item.equals("b"))
+                throw new IllegalStateException("boom");
+            return item.toUpperCase();
+        }, FanOutTest::failed).collect(toList());
+
+        assertThat(results).containsExactly("A", "b:IllegalStateException");
+    }
+
+    @Test void shouldFallBackForItemFailingWithAnErrorBeforeTheDeadline() {
+        List<String> results = fanOut.map(asList("a", "b"), item -> {
+            if (item.equals("b"))
+                throw new AssertionError("boom");
+            return item.toUpperCase();
+        }, FanOutTest::failed, Duration.ofSeconds(5)).collect(toList());
+
+        assertThat(results).containsExactly("A", "b:AssertionError");
+    }
+
+    @Test void shouldNotRunMoreThanTheMaximumThreads() {
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        List<String> results = fanOut.map(asList("a", "b", "c", "d"), item -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            bothRunning.countDown();
+            try {
+                bothRunning.await(1, SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            running.decrementAndGet();
+            return item.toUpperCase();
+        }, FanOutTest::failed, Duration.ofSeconds(5)).collect(toList());
+
+        assertThat(results).containsExactly("A", "B", "C", "D");
+        assertThat(maxRunning.get()).isEqualTo(2);
+    }
+
+    @Test void shouldFallBackAndInterruptItemThatMissesTheDeadline() throws Exception {
+        CountDownLatch never = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        List<String> results = fanOut.map(asList("a", "slow"), item -> {
+            if (item.equals("slow")) {
+                try {
+                    never.await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+            return item.toUpperCase();
+        }, FanOutTest::failed).collect(toList());
+
+        assertThat(results).containsExactly("A", "slow:TimeoutException");
+        assertThat(interrupted.await(5, SECONDS)).describedAs("slow task interrupted").isTrue();
+    }
+
+    @Test void shouldMapAsync() throws Exception {
+        List<String> results = fanOut.mapAsync(asList("a", "b"),
+            item -> CompletableFuture.completedFuture(item.toUpperCase()), FanOutTest::failed)
+            .toCompletableFuture().get(5, SECONDS);
+
+        assertThat(results).containsExactly("A", "B");
+    }
+
+    @Test void shouldFallBackAsyncForItemThatMissesTheDeadline() throws Exception {
+        CompletableFuture<String> late = new CompletableFuture<>();
+
+        List<String> results = fanOut.mapAsync(asList("a", "slow"),
+            item -> item.equals("slow") ? late : CompletableFuture.completedFuture(item.toUpperCase()), FanOutTest::failed)
+            .toCompletableFuture().get(5, SECONDS);
+        late.complete("too late");
+
+        assertThat(results).containsExactly("A", "slow:" + TimeoutException.class.getSimpleName());
+    }
+}
@@ -9,13 +9,19 @@ import javax.ws.rs.NotFoundException;
 import java.net.ConnectException;
 import java.net.UnknownHostException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Stream;
 
 import static com.github.t1.kubee.TestData.DEPLOYMENT;
 import static com.github.t1.kubee.TestData.PROD01;
+import static com.github.t1.kubee.TestData.PROD02;
+import static com.github.t1.kubee.TestData.PROD03;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
 
 class FetchDeployablesTest {
@@ -146,4 +152,38 @@ class FetchDeployablesTest {
         assertThat(deployments).hasSize(1);
         assertThat(deployments.get(0)).hasToString("Deployment(-:-|-:-:-|" + PROD01 + "|error=connection refused)");
     }
+
+    @Test void shouldFetchDeployablesFromAllNodesAsync() {
+        Deployment foo = Deployment.builder().name("foo").node(PROD01).build();
+        Deployment bar = Deployment.builder().name("bar").node(PROD02).build();
+        when(controller.deployer.fetchDeployablesAsync(PROD01)).thenReturn(completedFuture(singletonList(foo)));
+        when(controller.deployer.fetchDeployablesAsync(PROD02)).thenReturn(completedFuture(singletonList(bar)));
+
+        List<Deployment> deployments = controller.fetchDeploymentsAsync(Stream.of(PROD01, PROD02)).toCompletableFuture().join();
+
+        assertThat(deployments).containsExactly(foo, bar);
+    }
+
+    @Test void shouldFetchErrorDummyDeployableFromFailingNodeAsync() {
+        CompletableFuture<List<Deployment>> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new ConnectException("connection refused"));
+        when(controller.deployer.fetchDeployablesAsync(PROD01)).thenReturn(failed);
+
+        List<Deployment> deployments = controller.fetchDeploymentsAsync(Stream.of(PROD01)).toCompletableFuture().join();
+
+        assertThat(deployments).hasSize(1);
+        assertThat(deployments.get(0)).hasToString("Deployment(-:-|-:-:-|" + PROD01 + "|error=connection refused)");
+    }
+
+    @Test void shouldFetchTimeoutErrorDummyDeployableFromNeverAnsweringNodeAsync() {
+        Deployment foo = Deployment.builder().name("foo").node(PROD01).build();
+        when(controller.deployer.fetchDeployablesAsync(PROD01)).thenReturn(completedFuture(singletonList(foo)));
+        when(controller.deployer.fetchDeployablesAsync(PROD02)).thenReturn(new CompletableFuture<>());
+
+        List<Deployment> deployments = controller.fetchDeploymentsAsync(Stream.of(PROD01, PROD02)).toCompletableFuture().join();
+
+        assertThat(deployments).hasSize(2);
+        assertThat(deployments.get(0)).isEqualTo(foo);
+        assertThat(deployments.get(1)).hasToString("Deployment(-:-|-:-:-|" + PROD02 + "|error=no answer within 500 ms)");
+    }
 }
@@ -11,6 +11,7 @@ import java.util.List;
 
 import static com.github.t1.kubee.TestData.DEPLOYMENT;
 import static com.github.t1.kubee.TestData.PROD01;
+import static com.github.t1.kubee.TestData.PROD02;
 import static com.github.t1.kubee.TestData.VERSIONS;
 import static com.github.t1.kubee.TestData.VERSION_100;
 import static com.github.t1.kubee.TestData.VERSION_101;
@@ -20,6 +21,10 @@ import static com.github.t1.kubee.entity.VersionStatus.deployed;
 import static com.github.t1.kubee.entity.VersionStatus.undeployed;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class FetchVersionsTest {
@@ -81,4 +86,26 @@ class FetchVersionsTest {
 
         assertThat(throwable).isSameAs(dummy);
     }
+
+    @Test void shouldFetchVersionsOfOneArtifactOnlyOnceForAllNodes() {
+        when(controller.deployer.fetchVersions(any(), eq("app-group"), eq("app-artifact")))
+            .thenReturn(VERSIONS);
+
+        List<Version> versions1 = controller.fetchVersions(PROD01, DEPLOYMENT);
+        List<Version> versions2 = controller.fetchVersions(PROD02, DEPLOYMENT);
+
+        assertThat(versions2).isEqualTo(versions1);
+        verify(controller.deployer, times(1)).fetchVersions(any(), eq("app-group"), eq("app-artifact"));
+    }
+
+    @Test void shouldFetchVersionsAgainAfterFailure() {
+        when(controller.deployer.fetchVersions(PROD01, "app-group", "app-artifact"))
+            .thenThrow(new NotFoundException("app not found"))
+            .thenReturn(VERSIONS);
+        controller.fetchVersions(PROD01, DEPLOYMENT);
+
+        List<Version> versions = controller.fetchVersions(PROD01, DEPLOYMENT);
+
+        assertThat(versions).hasSize(4);
+    }
 }
@@ -0,0 +1,162 @@
+package com.github.t1.kubee.control;
+
+import com.github.t1.kubee.boundary.gateway.clusters.ClusterStore;
+import com.github.t1.kubee.boundary.gateway.health.HealthGateway;
+import com.github.t1.kubee.boundary.gateway.ingress.Ingress;
+import com.github.t1.kubee.boundary.gateway.ingress.IngressFactory;
+import com.github.t1.kubee.boundary.gateway.ingress.LoadBalancer;
+import com.github.t1.kubee.entity.ClusterNode;
+import com.github.t1.kubee.entity.Stage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static com.github.t1.kubee.TestData.APPLICATION_NAME;
+import static com.github.t1.kubee.TestData.CLUSTER;
+import static com.github.t1.kubee.TestData.PROD01;
+import static com.github.t1.kubee.TestData.PROD02;
+import static com.github.t1.kubee.TestData.PROD03;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class HealthMonitorTest {
+    private final ClusterStore clusterStore = mock(ClusterStore.class);
+    private final HealthGateway healthGateway = mock(HealthGateway.class);
+    private final Ingress ingress = mock(Ingress.class);
+    private final LoadBalancer loadBalancer = mock(LoadBalancer.class);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final FanOut fanOut = new FanOut(executor, timer, 4, Duration.ofMillis(500));
+    private final HealthMonitor monitor = new HealthMonitor(clusterStore, healthGateway, fanOut, null, Duration.ZERO, Duration.ofMillis(50));
+
+    private final Set<String> balancedHosts = new HashSet<>(asList(PROD01.host(), PROD02.host(), PROD03.host()));
+    private Function<Stage, Ingress> originalIngressBuilder;
+
+    @BeforeEach void setup() {
+        originalIngressBuilder = IngressFactory.BUILDER;
+        IngressFactory.BUILDER = stage -> ingress;
+
+        given(clusterStore.clusters()).will(i -> Stream.of(CLUSTER));
+        given(ingress.loadBalancers()).will(i -> Stream.of(loadBalancer));
+        given(loadBalancer.applicationName()).willReturn(APPLICATION_NAME);
+        given(loadBalancer.hasHost(anyString())).will(i -> balancedHosts.contains(i.<String>getArgument(0)));
+        willAnswer(i -> {
+            i.<Runnable>getArgument(0).run();
+            return null;
+        }).given(ingress).batch(any());
+        willAnswer(i -> balancedHosts.remove(i.<ClusterNode>getArgument(1).host()))
+            .given(ingress).removeFromLoadBalancer(eq(APPLICATION_NAME), any());
+        willAnswer(i -> balancedHosts.add(i.<ClusterNode>getArgument(1).host()))
+            .given(ingress).addToLoadBalancer(eq(APPLICATION_NAME), any());
+        given(healthGateway.fetch(any(), eq(APPLICATION_NAME))).willReturn(true);
+    }
+
+    @AfterEach void tearDown() {
+        IngressFactory.BUILDER = originalIngressBuilder;
+        monitor.stop();
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    private void probe(int rounds) {
+        for (int i = 0; i < rounds; i++)
+            monitor.probe();
+    }
+
+
+    @Test void shouldKeepHealthyNodes() {
+        probe(5);
+
+        verify(ingress, never()).batch(any());
+        assertThat(balancedHosts).containsExactlyInAnyOrder(PROD01.host(), PROD02.host(), PROD03.host());
+    }
+
+    @Test void shouldEjectNodeThatFailsRepeatedly() {
+        given(healthGateway.fetch(PROD02, APPLICATION_NAME)).willReturn(false);
+
+        probe(3);
+
+        verify(ingress, times(1)).batch(any());
+        verify(ingress).removeFromLoadBalancer(APPLICATION_NAME, PROD02);
+        assertThat(balancedHosts).containsExactlyInAnyOrder(PROD01.host(), PROD03.host());
+    }
+
+    @Test void shouldReportEjectedNodeUntilRestored() {
+        given(healthGateway.fetch(PROD02, APPLICATION_NAME)).willReturn(false, false, false, true, true, true);
+
+        probe(3);
+
+        assertThat(monitor.isEjected(PROD02, APPLICATION_NAME)).isTrue();
+        assertThat(monitor.isEjected(PROD01, APPLICATION_NAME)).isFalse();
+
+        probe(3);
+
+        assertThat(monitor.isEjected(PROD02, APPLICATION_NAME)).isFalse();
+    }
+
+    @Test void shouldNotEjectNodeThatFailsOccasionally() {
+        given(healthGateway.fetch(PROD02, APPLICATION_NAME)).willReturn(false, true, false, false, true, false);
+
+        probe(6);
+
+        verify(ingress, never()).removeFromLoadBalancer(anyString(), any());
+    }
+
+    @Test void shouldCountExceptionsAsFailures() {
+        given(healthGateway.fetch(PROD02, APPLICATION_NAME)).willThrow(new RuntimeException("connection refused"));
+
+        probe(3);
+
+        verify(ingress).removeFromLoadBalancer(APPLICATION_NAME, PROD02);
+    }
+
+    @Test void shouldEjectPersistentlySlowNode() {
+        given(healthGateway.fetch(PROD03, APPLICATION_NAME)).will(i -> {
+            Thread.sleep(100);
+            return true;
+        });
+
+        probe(10);
+
+        verify(ingress).removeFromLoadBalancer(APPLICATION_NAME, PROD03);
+        verify(ingress, never()).removeFromLoadBalancer(APPLICATION_NAME, PROD01);
+    }
+
+    @Test void shouldRestoreRecoveredNode() {
+        given(healthGateway.fetch(PROD02, APPLICATION_NAME)).willReturn(false, false, false, false, true, true, true);
+
+        probe(7);
+
+        verify(ingress).removeFromLoadBalancer(APPLICATION_NAME, PROD02);
+        verify(ingress).addToLoadBalancer(APPLICATION_NAME, PROD02);
+        verify(ingress, times(2)).batch(any());
+        assertThat(balancedHosts).contains(PROD02.host());
+    }
+
+    @Test void shouldNotEjectLastNode() {
+        given(healthGateway.fetch(any(), eq(APPLICATION_NAME))).willReturn(false);
+
+        probe(3);
+
+        verify(ingress, times(2)).removeFromLoadBalancer(eq(APPLICATION_NAME), any());
+        assertThat(balancedHosts).hasSize(1);
+    }
+}
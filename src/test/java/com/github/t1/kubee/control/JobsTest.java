@@ -0,0 +1,114 @@
+package com.github.t1.kubee.control;
+
+import com.github.t1.kubee.control.Jobs.JobListener;
+import com.github.t1.kubee.entity.Job;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.t1.kubee.entity.Job.JobState.failed;
+import static com.github.t1.kubee.entity.Job.JobState.queued;
+import static com.github.t1.kubee.entity.Job.JobState.succeeded;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JobsTest {
+    private final List<Runnable> queue = new ArrayList<>();
+    private final Jobs jobs = new Jobs(queue::add, 2);
+
+    private void runQueued() {
+        List<Runnable> runnables = new ArrayList<>(queue);
+        queue.clear();
+        runnables.forEach(Runnable::run);
+    }
+
+    private static class RecordingListener implements JobListener {
+        private final List<String> events = new ArrayList<>();
+
+        @Override public void step(String step) { events.add(step); }
+
+        @Override public void finished(Job job) { events.add(job.getState() + ":" + job.getError()); }
+    }
+
+    @Test void shouldQueueJob() {
+        Job job = jobs.submit("dummy", progress -> {});
+
+        assertThat(job.getState()).isEqualTo(queued);
+        assertThat(jobs.job(job.getId())).contains(job);
+    }
+
+    @Test void shouldRunJobWithSteps() {
+        Job submitted = jobs.submit("dummy", progress -> {
+            progress.accept("one");
+            progress.accept("two");
+        });
+
+        runQueued();
+
+        Job job = jobs.job(submitted.getId()).orElseThrow(AssertionError::new);
+        assertThat(job.getState()).isEqualTo(succeeded);
+        assertThat(job.getSteps()).containsExactly("one", "two");
+        assertThat(job.getError()).isNull();
+    }
+
+    @Test void shouldReportFailedJob() {
+        Job submitted = jobs.submit("dummy", progress -> {
+            progress.accept("one");
+            throw new RuntimeException("boom");
+        });
+
+        runQueued();
+
+        Job job = jobs.job(submitted.getId()).orElseThrow(AssertionError::new);
+        assertThat(job.getState()).isEqualTo(failed);
+        assertThat(job.getSteps()).containsExactly("one");
+        assertThat(job.getError()).isEqualTo("boom");
+    }
+
+    @Test void shouldPassLiveStepsToListener() {
+        Job job = jobs.submit("dummy", progress -> progress.accept("one"));
+        RecordingListener listener = new RecordingListener();
+
+        boolean found = jobs.subscribe(job.getId(), listener);
+        runQueued();
+
+        assertThat(found).isTrue();
+        assertThat(listener.events).containsExactly("one", "succeeded:null");
+    }
+
+    @Test void shouldReplayStepsOfFinishedJobToListener() {
+        Job job = jobs.submit("dummy", progress -> {
+            progress.accept("one");
+            throw new RuntimeException("boom");
+        });
+        runQueued();
+        RecordingListener listener = new RecordingListener();
+
+        jobs.subscribe(job.getId(), listener);
+
+        assertThat(listener.events).containsExactly("one", "failed:boom");
+    }
+
+    @Test void shouldNotSubscribeToUnknownJob() {
+        boolean found = jobs.subscribe("unknown", new RecordingListener());
+
+        assertThat(found).isFalse();
+    }
+
+    @Test void shouldEvictOldestFinishedJobs() {
+        Job unfinished = jobs.submit("unfinished", progress -> {});
+        List<Runnable> unfinishedRun = new ArrayList<>(queue);
+        queue.clear();
+        Job first = jobs.submit("first", progress -> {});
+        Job second = jobs.submit("second", progress -> {});
+        Job third = jobs.submit("third", progress -> {});
+
+        runQueued();
+
+        assertThat(jobs.jobs().map(Job::getId).collect(toList()))
+            .containsExactly(unfinished.getId(), second.getId(), third.getId());
+        assertThat(jobs.job(first.getId())).isEmpty();
+        assertThat(unfinishedRun).hasSize(1);
+    }
+}
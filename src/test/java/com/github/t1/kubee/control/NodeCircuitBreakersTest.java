@@ -0,0 +1,133 @@
+package com.github.t1.kubee.control;
+
+import com.github.t1.kubee.entity.ClusterNode;
+import com.github.t1.kubee.entity.Stage;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ProcessingException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.github.t1.kubee.TestData.CLUSTER;
+import static com.github.t1.kubee.TestData.PROD01;
+import static com.github.t1.kubee.TestData.PROD02;
+import static com.github.t1.kubee.control.NodeCircuitBreakers.State.CLOSED;
+import static com.github.t1.kubee.control.NodeCircuitBreakers.State.OPEN;
+import static com.github.t1.kubee.entity.DeploymentStatus.unbalanced;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class NodeCircuitBreakersTest {
+    private final NodeCircuitBreakers breakers = new NodeCircuitBreakers(2, Duration.ofMinutes(1), Duration.ofMinutes(1));
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private Supplier<String> failing(RuntimeException e) {
+        return () -> {
+            calls.incrementAndGet();
+            throw e;
+        };
+    }
+
+    private Supplier<String> succeeding() {
+        return () -> {
+            calls.incrementAndGet();
+            return "ok";
+        };
+    }
+
+    @Test void shouldStayClosedBelowThreshold() {
+        catchThrowable(() -> breakers.call(PROD01, failing(new ProcessingException("dummy"))));
+
+        String result = breakers.call(PROD01, succeeding());
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(breakers.state(PROD01)).isEqualTo(CLOSED);
+    }
+
+    @Test void shouldOpenAfterThresholdAndFailFastWithLastError() {
+        ProcessingException last = new ProcessingException("last");
+        catchThrowable(() -> breakers.call(PROD01, failing(new ProcessingException("first"))));
+        catchThrowable(() -> breakers.call(PROD01, failing(last)));
+
+        Throwable thrown = catchThrowable(() -> breakers.call(PROD01, succeeding()));
+        Throwable thrownAgain = catchThrowable(() -> breakers.call(PROD01, succeeding()));
+
+        assertThat(thrown).isInstanceOf(ProcessingException.class).hasMessage("circuit OPEN for " + PROD01).hasCause(last);
+        assertThat(thrownAgain).isNotSameAs(thrown).hasCause(last);
+        assertThat(calls).hasValue(2);
+        assertThat(breakers.state(PROD01)).isEqualTo(OPEN);
+        assertThat(breakers.call(PROD02, succeeding())).isEqualTo("ok");
+    }
+
+    @Test void shouldCloseAfterSuccessfulTrial() {
+        NodeCircuitBreakers breakers = new NodeCircuitBreakers(1, Duration.ZERO, Duration.ofMinutes(1));
+        catchThrowable(() -> breakers.call(PROD01, failing(new ProcessingException("dummy"))));
+
+        String result = breakers.call(PROD01, succeeding());
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(breakers.state(PROD01)).isEqualTo(CLOSED);
+    }
+
+    @Test void shouldReopenAfterFailedTrial() {
+        NodeCircuitBreakers breakers = new NodeCircuitBreakers(5, Duration.ZERO, Duration.ofMinutes(1));
+        for (int i = 0; i < 5; i++)
+            catchThrowable(() -> breakers.call(PROD01, failing(new ProcessingException("dummy"))));
+
+        catchThrowable(() -> breakers.call(PROD01, failing(new ProcessingException("trial"))));
+
+        assertThat(breakers.state(PROD01)).isEqualTo(OPEN);
+        assertThat(calls).hasValue(6);
+    }
+
+    @Test void shouldNotCountAnswersAsFailures() {
+        for (int i = 0; i < 3; i++)
+            catchThrowable(() -> breakers.call(PROD01, failing(new NotFoundException())));
+
+        assertThat(breakers.state(PROD01)).isEqualTo(CLOSED);
+        assertThat(calls).hasValue(3);
+    }
+
+    @Test void shouldRememberUnknownHostImmediately() {
+        ProcessingException unknownHost = new ProcessingException(new UnknownHostException("dummy"));
+        catchThrowable(() -> breakers.call(PROD01, failing(unknownHost)));
+
+        Throwable thrown = catchThrowable(() -> breakers.call(PROD01, succeeding()));
+
+        assertThat(thrown).isInstanceOf(ProcessingException.class).hasMessage("host " + PROD01.host() + " is unresolvable")
+            .hasCause(unknownHost);
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test void shouldKeepTheBreakerOfANodeWithChangedStatus() {
+        catchThrowable(() -> breakers.call(PROD01, failing(new ProcessingException("first"))));
+        catchThrowable(() -> breakers.call(PROD01, failing(new ProcessingException("last"))));
+
+        ClusterNode changed = Stage.builder().name("PROD").prefix("").suffix("").count(3).indexLength(2)
+            .status("1:dummy-app", unbalanced).build().nodeAt(CLUSTER, 1);
+
+        assertThat(changed).isNotEqualTo(PROD01);
+        assertThat(breakers.state(changed)).isEqualTo(OPEN);
+    }
+
+    @Test void shouldOpenAfterAsyncFailures() {
+        ProcessingException last = new ProcessingException("last");
+        for (int i = 0; i < 2; i++) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(last);
+            breakers.callAsync(PROD01, () -> failed);
+        }
+
+        Throwable thrown = catchThrowable(() -> breakers.callAsync(PROD01, () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("ok");
+        }).toCompletableFuture().join());
+
+        assertThat(thrown.getCause()).isInstanceOf(ProcessingException.class).hasCause(last);
+        assertThat(calls).hasValue(0);
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.t1.kubee.control;
+
+import com.github.t1.kubee.boundary.gateway.deployer.DeployerGateway;
+import com.github.t1.kubee.boundary.gateway.health.HealthGateway;
+import com.github.t1.kubee.boundary.gateway.ingress.Ingress;
+import com.github.t1.kubee.entity.Audits;
+import com.github.t1.kubee.entity.ClusterNode;
+import com.github.t1.kubee.entity.Rollout;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static com.github.t1.kubee.TestData.APPLICATION_NAME;
+import static com.github.t1.kubee.TestData.CLUSTER_B2;
+import static com.github.t1.kubee.TestData.VERSION_100;
+import static com.github.t1.kubee.TestData.VERSION_102;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class RolloutTest {
+    private static final List<ClusterNode> NODES = CLUSTER_B2.nodes()
+        .filter(node -> node.getStage().getName().equals("PROD"))
+        .collect(toList());
+    private static final ClusterNode NODE_1 = NODES.get(0);
+    private static final ClusterNode UNBALANCED_NODE_2 = NODES.get(1);
+    private static final ClusterNode NODE_3 = NODES.get(2);
+    private static final ClusterNode NODE_5 = NODES.get(4);
+
+    @RegisterExtension ControllerTestExtension extension = new ControllerTestExtension();
+    private final Controller controller = extension.controller;
+    private final DeployerGateway deployer = extension.deployer;
+    private final HealthGateway healthGateway = extension.healthGateway;
+    private final Ingress ingress = extension.ingress;
+    private final List<String> steps = new ArrayList<>();
+
+    @BeforeEach void setup() {
+        willAnswer(i -> {
+            i.<Runnable>getArgument(0).run();
+            return null;
+        }).given(ingress).batch(any());
+        given(deployer.fetchVersion(any(), eq(APPLICATION_NAME))).willReturn(VERSION_100);
+        given(deployer.deployAsync(any(), eq(APPLICATION_NAME), eq(VERSION_102)))
+            .will(i -> completedFuture(audit(VERSION_100, VERSION_102)));
+        given(healthGateway.awaitReady(any(), eq(APPLICATION_NAME), any())).willReturn(true);
+    }
+
+    private static Audits audit(String oldVersion, String newVersion) {
+        return Audits.parseYaml(""
+            + "audits:\n"
+            + "- !<deployable>\n"
+            + "  operation: change\n"
+            + "  name: " + APPLICATION_NAME + "\n"
+            + "  changes:\n"
+            + "  - name: version\n"
+            + "    old-value: " + oldVersion + "\n"
+            + "    new-value: " + newVersion + "\n"
+            + "processState: running\n");
+    }
+
+    private static List<String> ids(ClusterNode... nodes) {
+        return Stream.of(nodes).map(ClusterNode::id).collect(toList());
+    }
+
+
+    @Test void shouldRollOutInWaves() {
+        Rollout rollout = controller.rollout(APPLICATION_NAME, VERSION_102, NODES, 2, 3, steps::add);
+
+        assertThat(rollout.isAborted()).isFalse();
+        assertThat(rollout.isComplete()).isTrue();
+        assertThat(rollout.getWaves().stream().map(Rollout.Wave::getNodes)).containsExactly(
+            ids(NODES.get(0), NODES.get(1)),
+            ids(NODES.get(2), NODES.get(3)),
+            ids(NODES.get(4)));
+        NODES.forEach(node -> verify(deployer).deployAsync(node, APPLICATION_NAME, VERSION_102));
+        verify(ingress, times(6)).batch(any());
+        NODES.forEach(node -> verify(ingress).removeFromLoadBalancer(APPLICATION_NAME, node));
+        verify(ingress).addToLoadBalancer(APPLICATION_NAME, NODE_1);
+        verify(ingress, never()).addToLoadBalancer(APPLICATION_NAME, UNBALANCED_NODE_2);
+        verify(ingress).addToLoadBalancer(APPLICATION_NAME, NODE_5);
+    }
+
+    @Test void shouldLimitWavesToMaxUnavailable() {
+        Rollout rollout = controller.rollout(APPLICATION_NAME, VERSION_102, NODES, 5, 2, steps::add);
+
+        assertThat(rollout.getWaves()).hasSize(3);
+        assertThat(rollout.getWaves()).allMatch(wave -> wave.getNodes().size() <= 2);
+    }
+
+    @Test void shouldSkipNodesThatAlreadyHaveTheVersion() {
+        given(deployer.fetchVersion(NODE_3, APPLICATION_NAME)).willReturn(VERSION_102);
+
+        Rollout rollout = controller.rollout(APPLICATION_NAME, VERSION_102, NODES, 5, 5, steps::add);
+
+        assertThat(rollout.getSkippedNodes()).containsExactly(NODE_3.id());
+        assertThat(rollout.getWaves()).hasSize(1);
+        assertThat(steps).startsWith("skip " + NODE_3.id() + ": already on " + VERSION_102);
+        verify(deployer, never()).deployAsync(NODE_3, APPLICATION_NAME, VERSION_102);
+    }
+
+    @Test void shouldReportUnreachableNodes() {
+        given(deployer.fetchVersion(NODE_3, APPLICATION_NAME)).willThrow(new RuntimeException("connection refused"));
+
+        Rollout rollout = controller.rollout(APPLICATION_NAME, VERSION_102, NODES, 5, 5, steps::add);
+
+        assertThat(rollout.getUnreachableNodes()).containsOnly(entry(NODE_3.id(), "connection refused"));
+        assertThat(rollout.getSkippedNodes()).isEmpty();
+        assertThat(rollout.isAborted()).isFalse();
+        assertThat(rollout.isComplete()).isFalse();
+        assertThat(steps).startsWith("skip unreachable " + NODE_3.id() + ": connection refused");
+        verify(deployer, never()).deployAsync(NODE_3, APPLICATION_NAME, VERSION_102);
+    }
+
+    @Test void shouldAbortAfterUnhealthyWave() {
+        given(healthGateway.awaitReady(eq(NODE_3), eq(APPLICATION_NAME), any())).willReturn(false);
+
+        Rollout rollout = controller.rollout(APPLICATION_NAME, VERSION_102, NODES, 2, 2, steps::add);
+
+        assertThat(rollout.isAborted()).isTrue();
+        assertThat(rollout.getWaves()).hasSize(2);
+        assertThat(rollout.getWaves().get(1).getFailures()).containsOnlyKeys(NODE_3.id());
+        assertThat(steps).endsWith("failed on " + NODE_3.id() + ": not healthy after deploy", "abort rollout");
+        verify(ingress, never()).addToLoadBalancer(APPLICATION_NAME, NODE_3);
+        verify(ingress).addToLoadBalancer(APPLICATION_NAME, NODES.get(3));
+        verify(deployer, never()).deployAsync(NODE_5, APPLICATION_NAME, VERSION_102);
+    }
+
+    @Test void shouldAbortAfterFailedDeploy() {
+        CompletableFuture<Audits> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new RuntimeException("deployer failed"));
+        given(deployer.deployAsync(NODE_1, APPLICATION_NAME, VERSION_102)).willReturn(failed);
+
+        Rollout rollout = controller.rollout(APPLICATION_NAME, VERSION_102, NODES, 1, 1, steps::add);
+
+        assertThat(rollout.isAborted()).isTrue();
+        assertThat(rollout.getWaves()).hasSize(1);
+        assertThat(rollout.getWaves().get(0).getFailures()).containsEntry(NODE_1.id(), "deployer failed");
+        verify(healthGateway, never()).awaitReady(eq(NODE_1), eq(APPLICATION_NAME), any());
+        verify(deployer, never()).deployAsync(NODE_3, APPLICATION_NAME, VERSION_102);
+        verify(ingress, never()).addToLoadBalancer(anyString(), any());
+    }
+}
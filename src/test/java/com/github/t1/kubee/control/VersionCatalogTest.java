@@ -0,0 +1,128 @@
+package com.github.t1.kubee.control;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class VersionCatalogTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final VersionCatalog catalog = new VersionCatalog(executor, Duration.ZERO, 2);
+
+    @AfterEach void tearDown() { executor.shutdownNow(); }
+
+    @Test void shouldLoadVersionsPerArtifact() {
+        List<String> foo = catalog.versions("group", "foo", () -> singletonList("1.0"));
+        List<String> bar = catalog.versions("group", "bar", () -> singletonList("2.0"));
+
+        assertThat(foo).containsExactly("1.0");
+        assertThat(bar).containsExactly("2.0");
+    }
+
+    @Test void shouldServeStaleVersionsWhileRefreshing() throws Exception {
+        CountDownLatch refreshStarted = new CountDownLatch(1);
+        CountDownLatch refreshMayFinish = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        catalog.versions("group", "foo", () -> singletonList("1.0"));
+
+        List<String> stale = catalog.versions("group", "foo", () -> {
+            loads.incrementAndGet();
+            refreshStarted.countDown();
+            await(refreshMayFinish);
+            return asList("1.0", "1.1");
+        });
+        refreshStarted.await(1, SECONDS);
+        List<String> stillStale = catalog.versions("group", "foo", () -> {
+            loads.incrementAndGet();
+            return singletonList("never");
+        });
+        refreshMayFinish.countDown();
+
+        assertThat(stale).containsExactly("1.0");
+        assertThat(stillStale).containsExactly("1.0");
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test void shouldServeRefreshedVersions() throws Exception {
+        CountDownLatch refreshed = new CountDownLatch(1);
+        catalog.versions("group", "foo", () -> singletonList("1.0"));
+        catalog.versions("group", "foo", () -> {
+            refreshed.countDown();
+            return asList("1.0", "1.1");
+        });
+        refreshed.await(1, SECONDS);
+        Thread.sleep(50); // the refreshed entry is stored right after loading
+
+        List<String> versions = catalog.versions("group", "foo", () -> singletonList("1.2"));
+
+        assertThat(versions).containsExactly("1.0", "1.1");
+    }
+
+    @Test void shouldNotCacheFailure() {
+        Throwable thrown = catchThrowable(() -> catalog.versions("group", "foo", () -> {
+            throw new RuntimeException("dummy");
+        }));
+        List<String> versions = catalog.versions("group", "foo", () -> singletonList("1.0"));
+
+        assertThat(thrown).hasMessage("dummy");
+        assertThat(versions).containsExactly("1.0");
+    }
+
+    @Test void shouldShareOneLoadInFlight() throws Exception {
+        VersionCatalog catalog = new VersionCatalog(executor, Duration.ofMinutes(1), 2);
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch loadMayFinish = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        Future<List<String>> first = executor.submit(() -> catalog.versions("group", "foo", () -> {
+            loads.incrementAndGet();
+            loadStarted.countDown();
+            await(loadMayFinish);
+            return singletonList("1.0");
+        }));
+        loadStarted.await(1, SECONDS);
+
+        Future<List<String>> second = executor.submit(() -> catalog.versions("group", "foo", () -> {
+            loads.incrementAndGet();
+            return singletonList("never");
+        }));
+        loadMayFinish.countDown();
+
+        assertThat(first.get(1, SECONDS)).containsExactly("1.0");
+        assertThat(second.get(1, SECONDS)).containsExactly("1.0");
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test void shouldEvictLeastRecentlyUsed() {
+        VersionCatalog catalog = new VersionCatalog(executor, Duration.ofMinutes(1), 2);
+        catalog.versions("group", "foo", () -> singletonList("1.0"));
+        catalog.versions("group", "bar", () -> singletonList("2.0"));
+        catalog.versions("group", "foo", () -> singletonList("never"));
+        catalog.versions("group", "baz", () -> singletonList("3.0"));
+
+        List<String> foo = catalog.versions("group", "foo", () -> singletonList("1.1"));
+        List<String> bar = catalog.versions("group", "bar", () -> singletonList("2.1"));
+
+        assertThat(foo).containsExactly("1.0");
+        assertThat(bar).containsExactly("2.1");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(1, SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.t1.kubee.tools.http;
+
+import com.github.t1.kubee.tools.http.HttpMetrics.HostMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.tuple;
+
+class HttpMetricsTest {
+    private static final URI WORKER01 = URI.create("http://worker01:8080/deployer");
+    private static final URI WORKER02 = URI.create("http://worker02:8080/deployer");
+
+    private final HttpMetrics metrics = new HttpMetrics();
+
+    @Test void shouldCountRequestsPerHost() {
+        metrics.time(WORKER01, () -> "a");
+        metrics.time(WORKER01, () -> "b");
+        metrics.time(WORKER02, () -> "c");
+
+        assertThat(metrics.snapshot().values())
+            .extracting(HostMetrics::getHost, HostMetrics::getRequests, HostMetrics::getFailures, HostMetrics::getInFlight)
+            .containsExactly(
+                tuple("worker01:8080", 2L, 0L, 0L),
+                tuple("worker02:8080", 1L, 0L, 0L));
+    }
+
+    @Test void shouldCountFailures() {
+        Throwable thrown = catchThrowable(() -> metrics.time(WORKER01, () -> {
+            throw new RuntimeException("read timed out");
+        }));
+
+        assertThat(thrown).hasMessage("read timed out");
+        HostMetrics host = metrics.snapshot().get("worker01:8080");
+        assertThat(host.getRequests()).isEqualTo(1);
+        assertThat(host.getFailures()).isEqualTo(1);
+        assertThat(host.getInFlight()).isEqualTo(0);
+    }
+
+    @Test void shouldCountInFlight() {
+        long inFlight = metrics.time(WORKER01, () -> metrics.snapshot().get("worker01:8080").getInFlight());
+
+        assertThat(inFlight).isEqualTo(1);
+    }
+}
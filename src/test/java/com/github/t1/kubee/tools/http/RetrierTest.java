@@ -0,0 +1,146 @@
+package com.github.t1.kubee.tools.http;
+
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.ProcessingException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static java.util.Collections.singleton;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class RetrierTest {
+    private static final RetryPolicy POLICY = RetryPolicy.builder()
+        .maxAttempts(3)
+        .baseDelay(Duration.ZERO)
+        .maxDelay(Duration.ZERO)
+        .budgetPerHost(100)
+        .budget(100)
+        .budgetWindow(Duration.ofMinutes(1))
+        .retryOn(singleton(ConnectException.class.getName()))
+        .build();
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private Supplier<CompletionStage<String>> failingTimes(int failures, RuntimeException e) {
+        return () -> {
+            if (calls.incrementAndGet() <= failures)
+                throw e;
+            return completedFuture("ok");
+        };
+    }
+
+    private static ProcessingException connectFailure() { return new ProcessingException(new ConnectException("refused")); }
+
+    @Test void shouldRetryRetryableFailure() {
+        Retrier retrier = new Retrier(POLICY);
+
+        String result = retrier.retry("node", failingTimes(2, connectFailure())).toCompletableFuture().join();
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(calls).hasValue(3);
+    }
+
+    @Test void shouldRetryFailedStage() {
+        Retrier retrier = new Retrier(POLICY);
+
+        String result = retrier.retry("node", () -> {
+            if (calls.incrementAndGet() > 1)
+                return completedFuture("ok");
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(connectFailure());
+            return failed;
+        }).toCompletableFuture().join();
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test void shouldNotRetryOtherFailure() {
+        Retrier retrier = new Retrier(POLICY);
+        RuntimeException failure = new ProcessingException("bad request");
+
+        Throwable thrown = catchThrowable(() -> retrier.retry("node", failingTimes(1, failure)).toCompletableFuture().join());
+
+        assertThat(thrown.getCause()).isSameAs(failure);
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test void shouldGiveUpAfterMaxAttempts() {
+        Retrier retrier = new Retrier(POLICY);
+
+        Throwable thrown = catchThrowable(() -> retrier.retry("node", failingTimes(5, connectFailure())).toCompletableFuture().join());
+
+        assertThat(thrown).hasRootCauseInstanceOf(ConnectException.class);
+        assertThat(calls).hasValue(3);
+    }
+
+    @Test void shouldStopRetryingWhenHostBudgetIsExhausted() {
+        Retrier retrier = new Retrier(POLICY.toBuilder().budgetPerHost(1).build());
+        retrier.retry("node", failingTimes(1, connectFailure())).toCompletableFuture().join();
+        calls.set(0);
+
+        Throwable thrown = catchThrowable(() -> retrier.retry("node", failingTimes(1, connectFailure())).toCompletableFuture().join());
+        String other = retrier.retry("other", failingTimes(1, connectFailure())).toCompletableFuture().join();
+
+        assertThat(thrown).hasRootCauseInstanceOf(ConnectException.class);
+        assertThat(other).isEqualTo("ok");
+    }
+
+    @Test void shouldStopRetryingWhenOverallBudgetIsExhausted() {
+        Retrier retrier = new Retrier(POLICY.toBuilder().budget(1).build());
+        retrier.retry("node", failingTimes(1, connectFailure())).toCompletableFuture().join();
+        calls.set(0);
+
+        Throwable thrown = catchThrowable(() -> retrier.retry("other", failingTimes(1, connectFailure())).toCompletableFuture().join());
+
+        assertThat(thrown).hasRootCauseInstanceOf(ConnectException.class);
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test void shouldClassifyBySuperClassInCauseChain() {
+        RetryPolicy policy = POLICY.toBuilder().retryOn(singleton(java.net.SocketException.class.getName())).build();
+
+        assertThat(policy.isRetryable(connectFailure())).isTrue();
+        assertThat(policy.isRetryable(new ProcessingException("other"))).isFalse();
+    }
+
+    @Test void shouldJitterExponentialDelayUpToMax() {
+        RetryPolicy policy = POLICY.toBuilder().baseDelay(Duration.ofMillis(100)).maxDelay(Duration.ofMillis(250)).build();
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.delay(1)).isBetween(Duration.ZERO, Duration.ofMillis(100));
+            assertThat(policy.delay(2)).isBetween(Duration.ZERO, Duration.ofMillis(200));
+            assertThat(policy.delay(10)).isBetween(Duration.ZERO, Duration.ofMillis(250));
+        }
+    }
+
+    @Test void shouldLimitTheTotalDefaultDelayToAFewSeconds() {
+        RetryPolicy policy = RetryPolicy.builder().build();
+
+        long maxTotal = 0;
+        for (int retry = 1; retry < policy.getMaxAttempts(); retry++)
+            maxTotal += Math.min(policy.getBaseDelay().toMillis() << (retry - 1), policy.getMaxDelay().toMillis());
+
+        assertThat(Duration.ofMillis(maxTotal)).isLessThan(Duration.ofSeconds(10));
+    }
+
+    @Test void shouldShutDownOnlyItsOwnScheduler() {
+        ScheduledExecutorService given = Executors.newSingleThreadScheduledExecutor();
+        try {
+            new Retrier(POLICY, given).close();
+
+            assertThat(given.isShutdown()).isFalse();
+        } finally {
+            given.shutdownNow();
+        }
+    }
+}